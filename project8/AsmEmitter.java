@@ -0,0 +1,262 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Writes Hack assembly as ASCII bytes into a reusable buffer, for the {@link CodeWriter}.
+ *
+ * <p>A line is built from {@link #text(String) text} and {@link #number(int)
+ * numbers} and ended by {@link #newline()}; numbers are rendered digit by
+ * digit and strings copied character by character, so writing a line
+ * allocates nothing. Fixed sequences of lines can be encoded once with
+ * {@link #block(String...)} and written with {@link #write(byte[])}.</p>
+ *
+ * <p>The buffer is written to the output stream whenever it fills up; an
+ * emitter without a stream keeps everything in memory instead, for
+ * {@link #writeTo(AsmEmitter)}. The emitter counts the instructions it
+ * writes, that is the lines that are not empty, labels or comments, which
+ * are also the addresses the {@link HackEncoder} gives them.</p>
+ */
+public class AsmEmitter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final OutputStream out;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private boolean lineStart = true;
+    private boolean instructionLine;
+    private int instructionCount;
+
+    /**
+     * Creates an emitter writing to a stream.
+     *
+     * @param out the stream; closed by {@link #close()}
+     */
+    public AsmEmitter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Creates an emitter keeping its output in memory.
+     */
+    public AsmEmitter() {
+        this(null);
+    }
+
+    /**
+     * Encodes lines as one block of ASCII bytes, each line followed by a newline.
+     *
+     * @param lines the lines
+     * @return the bytes
+     */
+    public static byte[] block(String... lines) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of instructions written so far
+     */
+    public int getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * Appends characters to the current line.
+     *
+     * @param text ASCII text
+     * @return this emitter
+     */
+    public AsmEmitter text(String text) {
+        int length = text.length();
+        if (length == 0) {
+            return this;
+        }
+        startLine(text.charAt(0));
+        ensureCapacity(length);
+        byte[] buffer = this.buffer;
+        int position = this.position;
+        for (int i = 0; i < length; i++) {
+            buffer[position++] = (byte) text.charAt(i);
+        }
+        this.position = position;
+        return this;
+    }
+
+    /**
+     * Appends a number in decimal to the current line.
+     *
+     * @param value the number
+     * @return this emitter
+     */
+    public AsmEmitter number(int value) {
+        startLine(value < 0 ? '-' : '0');
+        ensureCapacity(11);
+        long magnitude = value;
+        if (magnitude < 0) {
+            buffer[position++] = '-';
+            magnitude = -magnitude;
+        }
+        int digits = 1;
+        for (long power = 10; power <= magnitude; power *= 10) {
+            digits++;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + magnitude % 10);
+            magnitude /= 10;
+        }
+        position += digits;
+        return this;
+    }
+
+    /**
+     * Ends the current line.
+     */
+    public void newline() {
+        ensureCapacity(1);
+        buffer[position++] = '\n';
+        if (instructionLine) {
+            instructionCount++;
+        }
+        lineStart = true;
+        instructionLine = false;
+    }
+
+    /**
+     * Writes a whole line.
+     *
+     * @param line the line, without the newline
+     */
+    public void println(String line) {
+        text(line);
+        newline();
+    }
+
+    /**
+     * Writes the line {@code @value}.
+     */
+    public void address(int value) {
+        text("@").number(value).newline();
+    }
+
+    /**
+     * Writes the line {@code @symbol}.
+     */
+    public void address(String symbol) {
+        text("@").text(symbol).newline();
+    }
+
+    /**
+     * Writes the line {@code (label)}.
+     */
+    public void label(String label) {
+        text("(").text(label).text(")").newline();
+    }
+
+    /**
+     * Writes whole lines encoded by {@link #block(String...)}.
+     *
+     * @param bytes the lines
+     */
+    public void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes the output of an emitter that keeps it in memory, and counts its instructions.
+     *
+     * @param target the emitter to write to
+     */
+    public void writeTo(AsmEmitter target) {
+        if (out != null) {
+            throw new IllegalStateException("Output already written to a stream");
+        }
+        target.write(buffer, 0, position);
+    }
+
+    /**
+     * Writes the buffer to the stream and flushes it.
+     */
+    public void flush() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.write(buffer, 0, position);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        position = 0;
+    }
+
+    /**
+     * Writes the buffer to the stream and closes it.
+     */
+    public void close() {
+        if (out == null) {
+            return;
+        }
+        flush();
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            byte b = bytes[i];
+            if (b == '\n') {
+                if (instructionLine) {
+                    instructionCount++;
+                }
+                lineStart = true;
+                instructionLine = false;
+            } else {
+                startLine((char) b);
+            }
+        }
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    private void startLine(char first) {
+        if (lineStart) {
+            lineStart = false;
+            instructionLine = first != '(' && first != '/';
+        }
+    }
+
+    /**
+     * Makes room for a number of bytes, by writing the buffer to the stream or by growing it.
+     */
+    private void ensureCapacity(int length) {
+        if (buffer.length - position >= length) {
+            return;
+        }
+        if (out == null) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+            return;
+        }
+        try {
+            out.write(buffer, 0, position);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        position = 0;
+        if (buffer.length < length) {
+            buffer = new byte[length];
+        }
+    }
+}
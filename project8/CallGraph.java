@@ -0,0 +1,117 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The call graph of a whole VM program.
+ *
+ * <p>The nodes are the functions, identified by the {@link SymbolTable} id of
+ * their name, and a {@code call} command in the body of a function is an edge
+ * to the function it calls. The body of a function runs from its
+ * {@code function} command to the next one in the same file. Calls before the
+ * first function of a file belong to no function; the functions they call are
+ * always reachable.</p>
+ */
+public class CallGraph {
+    private final Map<Integer, List<Integer>> callees = new LinkedHashMap<>();
+    private final Map<Integer, Integer> sizes = new LinkedHashMap<>();
+    private final List<Integer> topLevelCallees = new ArrayList<>();
+
+    /**
+     * Adds the functions of one file to the graph.
+     *
+     * @param commands the commands of the file
+     */
+    public void addFile(List<VmCommand> commands) {
+        List<Integer> current = topLevelCallees;
+        int function = -1;
+        for (VmCommand command : commands) {
+            if (command.getOpcode() == Opcode.FUNCTION) {
+                function = command.getSymbol();
+                current = callees.computeIfAbsent(function, f -> new ArrayList<>());
+            } else if (command.getOpcode() == Opcode.CALL) {
+                current.add(command.getSymbol());
+            }
+            if (function >= 0) {
+                sizes.merge(function, 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * @param function the id of a function name
+     * @return {@code true} if a file added to the graph defines the function
+     */
+    public boolean isDefined(int function) {
+        return callees.containsKey(function);
+    }
+
+    /**
+     * @return the ids of the defined functions, in the order they were added
+     */
+    public Set<Integer> getFunctions() {
+        return callees.keySet();
+    }
+
+    /**
+     * @param function the id of a defined function
+     * @return the ids of the functions its body calls, once per call
+     */
+    public List<Integer> getCallees(int function) {
+        return callees.get(function);
+    }
+
+    /**
+     * @param function the id of a defined function
+     * @return the number of commands of its body, including the {@code function} command
+     */
+    public int getSize(int function) {
+        return sizes.get(function);
+    }
+
+    /**
+     * Returns the functions reachable from a root through calls, including
+     * the root and the functions called outside any function.
+     *
+     * @param root the id of the entry function, usually {@code Sys.init}
+     * @return the ids of the reachable functions that are defined
+     */
+    public Set<Integer> getReachable(int root) {
+        Set<Integer> reachable = new HashSet<>();
+        Deque<Integer> pending = new ArrayDeque<>(topLevelCallees);
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            int function = pending.pop();
+            if (isDefined(function) && reachable.add(function)) {
+                pending.addAll(callees.get(function));
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * Removes the bodies of the functions not in a set from the commands of a file.
+     *
+     * @param commands  the commands of a file added to the graph
+     * @param functions the ids of the functions to keep
+     * @return the commands outside any function and in the kept functions
+     */
+    public static List<VmCommand> retain(List<VmCommand> commands, Set<Integer> functions) {
+        List<VmCommand> retained = new ArrayList<>(commands.size());
+        boolean keep = true;
+        for (VmCommand command : commands) {
+            if (command.getOpcode() == Opcode.FUNCTION) {
+                keep = functions.contains(command.getSymbol());
+            }
+            if (keep) {
+                retained.add(command);
+            }
+        }
+        return retained;
+    }
+}
@@ -1,514 +1,1557 @@
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
-
-public class CodeWriter {
-    private PrintWriter pw;
-    private String fileName;
-    private int callCount = 0;
-    private String currentFunctionName = "";
-
-    private int labelCount = 0;
-
-    /**
-     * Constructs a CodeWriter for translating VM code to Hack assembly.
-     *
-     * <p>If the input {@code file} is a directory, creates an output file named
-     * {@code <directory>.asm} inside it. If it's a single VM file, generates an
-     * assembly file with the same name but a {@code .asm} extension in the same directory.
-     *
-     * <p>Initializes the {@code PrintWriter} for output and sets the {@code fileName}
-     * for handling static variables. Prints an error message if file creation fails.
-     *
-     * @param file the input {@link File}, either a directory containing VM files or a single VM file
-     */
-    public CodeWriter(File file) {
-        try {
-            File outputFile;
-            if(file.isDirectory()){
-                outputFile = new File(file, file.getName() + ".asm");
-            }else{
-                outputFile = new File(file.getParent(), file.getName().replace(".vm", ".asm"));
-            }
-
-            pw = new PrintWriter(new FileWriter(outputFile));
-            fileName = outputFile.getName();
-        } catch (IOException e) {
-            System.err.println("Error creating output file: " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Sets the name of the current file being translated.
-     * This is used for generating static variable references.
-     *
-     * @param fileName the name of the current file being translated
-     */
-    public void setFileName(String fileName) {
-        this.fileName = fileName;
-    }
-
-
-    /**
-     * Writes the Hack assembly code for the specified arithmetic or logical command.
-     *
-     * <p>Generates assembly code for commands like {@code add}, {@code sub}, {@code neg},
-     * {@code eq}, {@code gt}, {@code lt}, {@code and}, {@code or}, and {@code not}.
-     *
-     * @param command the arithmetic or logical command to translate
-     */
-    public void writeArithmetic(String command) {
-        pw.println("// " + command);
-
-        switch (command) {
-            case "add":
-                binaryOperation("M=D+M");
-                break;
-            case "sub":
-                binaryOperation("M=M-D");
-                break;
-            case "neg":
-                unaryOperation("M=-M");
-                break;
-            case "and":
-                binaryOperation("M=D&M");
-                break;
-            case "or":
-                binaryOperation("M=D|M");
-                break;
-            case "not":
-                unaryOperation("M=!M");
-                break;
-            case "eq":
-                writeCompareLogic("JEQ");
-                break;
-            case "gt":
-                writeCompareLogic("JGT");
-                break;
-            case "lt":
-                writeCompareLogic("JLT");
-                break;
-        }
-    }
-
-
-    /**
-     * Writes the Hack assembly code for a push or pop command.
-     *
-     * <p>For {@code push}, loads the specified value or segment into the stack.
-     * For {@code pop}, stores the top value of the stack into the specified segment.
-     *
-     * @param commandType the type of the command, either {@code C_PUSH} or {@code C_POP}
-     * @param segment     the memory segment (e.g., {@code constant}, {@code local}, {@code argument})
-     * @param index       the index within the memory segment
-     */
-    public void writePushPop(CommandType commandType, String segment, int index) {
-        pw.println("// " + (commandType == CommandType.C_PUSH ? "push " : "pop ") + segment + " " + index);
-
-        if (commandType == CommandType.C_PUSH) {
-            switch (segment) {
-                case "constant":
-                    pw.println("@" + index);
-                    pw.println("D=A");
-                    break;
-                case "local":
-                    loadSegment("LCL", index, "D=M");
-                    break;
-                case "argument":
-                    loadSegment("ARG", index, "D=M");
-                    break;
-                case "this":
-                    loadSegment("THIS", index, "D=M");
-                    break;
-                case "that":
-                    loadSegment("THAT", index, "D=M");
-                    break;
-                case "pointer":
-                    // pointer 0 => THIS, pointer 1 => THAT
-                    if (index == 0) {
-                        pw.println("@THIS");
-                    } else {
-                        pw.println("@THAT");
-                    }
-                    pw.println("D=M");
-                    break;
-                case "temp":
-                    pw.println("@R" + (5 + index));
-                    pw.println("D=M");
-                    break;
-                case "static":
-                    pw.println("@" + fileName.replace(".vm", "") + index);
-                    pw.println("D=M");
-                    break;
-            }
-            pushDToStack();
-        } else if (commandType == CommandType.C_POP) {
-            if (segment.equals("pointer")) {
-                // pop pointer i => THIS/THAT = top of stack
-                popStackToD();
-                if (index == 0) {
-                    pw.println("@THIS");
-                } else {
-                    pw.println("@THAT");
-                }
-                pw.println("M=D");
-                return; // Important to return here so we don't do the other logic
-            } else if (segment.equals("temp")) {
-                // pop temp i
-                pw.println("@" + (5 + index));
-                pw.println("D=A");
-            } else if (segment.equals("static")) {
-                // pop static i
-                pw.println("@" + fileName.replace(".vm", "") + index);
-                pw.println("D=A");
-            } else {
-                // local, argument, this, that
-                storeTargetAddress(
-                        switch (segment) {
-                            case "local" -> "LCL";
-                            case "argument" -> "ARG";
-                            case "this" -> "THIS";
-                            case "that" -> "THAT";
-                            default -> throw new RuntimeException("Invalid segment: " + segment);
-                        },
-                        index
-                );
-            }
-
-            // For non-pointer segments:
-            pw.println("@R13");
-            pw.println("M=D");
-            popStackToD();
-            pw.println("@R13");
-            pw.println("A=M");
-            pw.println("M=D");
-        }
-    }
-
-    /**
-     * Closes the output file stream.
-     * Ensures that all written data is flushed and the file is properly closed.
-     */
-    public void close() {
-        if (pw != null) {
-            pw.close();
-        }
-    }
-
-    /**
-     * Increments the stack pointer (SP).
-     * Updates SP to point to the next available stack location.
-     */
-    private void incrementStackPointer() {
-        pw.println("@SP");
-        pw.println("M=M+1");
-    }
-
-    /**
-     * Decrements the stack pointer (SP).
-     * Updates SP to point to the previous stack location.
-     */
-    private void decrementStackPointer() {
-        pw.println("@SP");
-        pw.println("M=M-1");
-    }
-
-    /**
-     * Pops the top stack value into the D register.
-     * Decrements SP and stores the value at the top of the stack into D.
-     */
-    private void popStackToD() {
-        decrementStackPointer();
-        pw.println("A=M");
-        pw.println("D=M");
-    }
-
-    /**
-     * Pushes the value in the D register onto the stack.
-     * Stores D at the top of the stack and increments SP.
-     */
-    private void pushDToStack() {
-        loadStackPointerToA();
-        pw.println("M=D");
-        incrementStackPointer();
-    }
-
-    /**
-     * Loads the stack pointer's address into A.
-     * Points A to the current top of the stack.
-     */
-    private void loadStackPointerToA() {
-        pw.println("@SP");
-        pw.println("A=M");
-    }
-
-
-    /**
-     * Loads a segment address with an offset into A and performs an operation.
-     *
-     * @param segment   the base address of the segment (e.g., LCL, ARG)
-     * @param index     the offset within the segment
-     * @param operation the operation to perform after loading the address
-     */
-    private void loadSegment(String segment, int index, String operation) {
-        pw.println("@" + segment);
-        pw.println("D=M");
-        pw.println("@" + index);
-        pw.println("A=D+A");
-        pw.println(operation);
-    }
-
-    /**
-     * Stores the address of a target location into D.
-     *
-     * @param segment the base address of the segment
-     * @param index   the offset within the segment
-     */
-    private void storeTargetAddress(String segment, int index) {
-        pw.println("@" + segment);
-        pw.println("D=M");
-        pw.println("@" + index);
-        pw.println("D=D+A");
-    }
-
-    /**
-     * Performs a unary operation (e.g., negation or logical NOT) on the top of the stack.
-     *
-     * @param operation the assembly operation to execute
-     */
-    private void unaryOperation(String operation) {
-        decrementStackPointer();
-        loadStackPointerToA();
-        pw.println(operation);
-        incrementStackPointer();
-    }
-
-    /**
-     * Performs a binary operation (e.g., addition or subtraction) on the top two stack values.
-     *
-     * @param operation the assembly operation to execute
-     */
-    private void binaryOperation(String operation) {
-        popStackToD();
-        decrementStackPointer();
-        loadStackPointerToA();
-        pw.println(operation);
-        incrementStackPointer();
-    }
-
-    /**
-     * Writes comparison logic (e.g., eq, gt, lt).
-     *
-     * @param jmpCommand the jump command for the comparison (e.g., JEQ, JGT, JLT)
-     */
-    private void writeCompareLogic(String jmpCommand) {
-        popStackToD();
-        decrementStackPointer();
-        loadStackPointerToA();
-        pw.println("D=M-D");
-        pw.println("@LABEL" + labelCount);
-        pw.println("D;" + jmpCommand);
-        loadStackPointerToA();
-        pw.println("M=0");
-        pw.println("@ENDLABEL" + labelCount);
-        pw.println("0;JMP");
-        pw.println("(LABEL" + labelCount + ")");
-        loadStackPointerToA();
-        pw.println("M=-1");
-        pw.println("(ENDLABEL" + labelCount + ")");
-        incrementStackPointer();
-        labelCount++;
-    }
-
-    /**
-     * Writes a label for the current function.
-     *
-     * @param label the label name
-     */
-    public void writeLabel(String label) {
-        pw.println("// label " + label);
-        String fullLabel = currentFunctionName.isEmpty() ? label : (currentFunctionName + "$" + label);
-        pw.println("(" + fullLabel + ")");
-    }
-
-    /**
-     * Writes a goto command.
-     *
-     * @param label the label to jump to
-     */
-    public void writeGoto(String label) {
-        pw.println("// goto " + label);
-        String fullLabel = currentFunctionName.isEmpty() ? label : (currentFunctionName + "$" + label);
-        pw.println("@" + fullLabel);
-        pw.println("0;JMP");
-    }
-
-    /**
-     * Writes an if-goto command.
-     *
-     * @param label the label to conditionally jump to
-     */
-    public void writeIf(String label) {
-        pw.println("// if-goto " + label);
-        popStackToD();
-        String fullLabel = currentFunctionName.isEmpty() ? label : (currentFunctionName + "$" + label);
-        pw.println("@" + fullLabel);
-        pw.println("D;JNE");
-    }
-
-    /**
-     * Writes a function declaration with local variable initialization.
-     *
-     * @param functionName the name of the function
-     * @param nVars        the number of local variables to initialize
-     */
-    public void writeFunction(String functionName, int nVars) {
-        pw.println("// function " + functionName + " " + nVars);
-        currentFunctionName = functionName;
-        pw.println("(" + functionName + ")");
-        // Initialize local vars to 0
-        for (int i = 0; i < nVars; i++) {
-            pw.println("@SP");
-            pw.println("A=M");
-            pw.println("M=0");
-            incrementStackPointer();
-        }
-    }
-
-    /**
-     * Writes the Hack assembly code for the return command.
-     */
-    public void writeReturn() {
-        pw.println("// return");
-        // FRAME = LCL
-        pw.println("@LCL");
-        pw.println("D=M");
-        pw.println("@R13");
-        pw.println("M=D");
-
-        // RET = *(FRAME-5)
-        pw.println("@5");
-        pw.println("A=D-A");
-        pw.println("D=M");
-        pw.println("@R14");
-        pw.println("M=D");
-
-        // *ARG = pop()
-        popStackToD();
-        pw.println("@ARG");
-        pw.println("A=M");
-        pw.println("M=D");
-
-        // SP = ARG+1
-        pw.println("@ARG");
-        pw.println("D=M+1");
-        pw.println("@SP");
-        pw.println("M=D");
-
-        // THAT = *(FRAME-1)
-        pw.println("@R13");
-        pw.println("AM=M-1");
-        pw.println("D=M");
-        pw.println("@THAT");
-        pw.println("M=D");
-
-        // THIS = *(FRAME-2)
-        pw.println("@R13");
-        pw.println("AM=M-1");
-        pw.println("D=M");
-        pw.println("@THIS");
-        pw.println("M=D");
-
-        // ARG = *(FRAME-3)
-        pw.println("@R13");
-        pw.println("AM=M-1");
-        pw.println("D=M");
-        pw.println("@ARG");
-        pw.println("M=D");
-
-        // LCL = *(FRAME-4)
-        pw.println("@R13");
-        pw.println("AM=M-1");
-        pw.println("D=M");
-        pw.println("@LCL");
-        pw.println("M=D");
-
-        // goto RET
-        pw.println("@R14");
-        pw.println("A=M");
-        pw.println("0;JMP");
-    }
-
-    /**
-     * Writes a call command for a function.
-     *
-     * @param functionName the name of the function to call
-     * @param nArgs        the number of arguments passed to the function
-     */
-    public void writeCall(String functionName, int nArgs) {
-            pw.println("// call " + functionName + " " + nArgs);
-            String returnLabel = "RET_ADDRESS_" + functionName + callCount++;
-
-            // push return-address
-            pw.println("@" + returnLabel);
-            pw.println("D=A");
-            pushDToStack();
-
-            // push LCL
-            pw.println("@LCL");
-            pw.println("D=M");
-            pushDToStack();
-
-            // push ARG
-            pw.println("@ARG");
-            pw.println("D=M");
-            pushDToStack();
-
-            // push THIS
-            pw.println("@THIS");
-            pw.println("D=M");
-            pushDToStack();
-
-            // push THAT
-            pw.println("@THAT");
-            pw.println("D=M");
-            pushDToStack();
-
-            // ARG = SP - nArgs - 5
-            pw.println("@SP");
-            pw.println("D=M");
-            pw.println("@" + (nArgs + 5));
-            pw.println("D=D-A");
-            pw.println("@ARG");
-            pw.println("M=D");
-
-            // LCL = SP
-            pw.println("@SP");
-            pw.println("D=M");
-            pw.println("@LCL");
-            pw.println("M=D");
-
-            // goto functionName
-            pw.println("@" + functionName);
-            pw.println("0;JMP");
-
-            // (returnLabel)
-            pw.println("(" + returnLabel + ")");
-    }
-
-    /**
-     * Writes the bootstrap code for the VM, initializing SP and calling Sys.init.
-     */
-    public void writeInit() {
-        // Bootstrap code: SP=256, call Sys.init
-        pw.println("// bootstrap code");
-        pw.println("@256");
-        pw.println("D=A");
-        pw.println("@SP");
-        pw.println("M=D");
-        writeCall("Sys.init", 0);
-    }
- }
-
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class CodeWriter {
+    private final SymbolTable symbols;
+    private AsmEmitter asm;
+    private String staticPrefix;
+    private int callCount = 0;
+    private String currentFunctionName = "";
+
+    private int labelCount = 0;
+    private String labelPrefix = "";
+    private boolean inMemory;
+
+    private boolean sharedCalls;
+    private boolean callRoutineUsed;
+    private boolean returnRoutineUsed;
+    private boolean tailCallRoutineUsed;
+
+    private boolean sharedComparisons;
+
+    private boolean sharedLocals;
+    private boolean localsRoutineUsed;
+    private final Set<String> compareRoutinesUsed = new TreeSet<>();
+
+    private boolean cacheTop;
+    private boolean topInD;
+
+    private CostReport report;
+
+    /**
+     * Constructs a CodeWriter for translating VM code to Hack assembly.
+     *
+     * <p>If the input {@code file} is a directory, creates an output file named
+     * {@code <directory>.asm} inside it. If it's a single VM file, generates an
+     * assembly file with the same name but a {@code .asm} extension in the same directory.
+     *
+     * <p>Initializes the {@link AsmEmitter} for output and sets the file name
+     * for handling static variables. Prints an error message if file creation fails.
+     *
+     * @param file    the input {@link File}, either a directory containing VM files or a single VM file
+     * @param symbols the table the symbols of the commands passed to {@link #writeCommand(VmCommand)} belong to
+     */
+    public CodeWriter(File file, SymbolTable symbols) {
+        this.symbols = symbols;
+        try {
+            File outputFile = outputFile(file, ".asm");
+
+            asm = new AsmEmitter(new FileOutputStream(outputFile));
+            setFileName(outputFile.getName());
+        } catch (IOException e) {
+            System.err.println("Error creating output file: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Constructs a CodeWriter that writes the Hack assembly to any stream, such as a {@link HackEncoder}.
+     *
+     * @param out      the stream of the assembly, as ASCII; closed by {@link #close()}
+     * @param fileName the name of the output file, as for {@link #setFileName(String)}
+     * @param symbols  the table the symbols of the commands passed to {@link #writeCommand(VmCommand)} belong to
+     */
+    public CodeWriter(OutputStream out, String fileName, SymbolTable symbols) {
+        this.symbols = symbols;
+        setFileName(fileName);
+        asm = new AsmEmitter(out);
+    }
+
+    /**
+     * Returns the output file for a translation: {@code <directory>/<directory><extension>}
+     * for a directory, or the VM file with its extension replaced.
+     *
+     * @param file      the input file or directory
+     * @param extension the extension of the output, e.g. {@code ".asm"}
+     * @return the output file
+     */
+    public static File outputFile(File file, String extension) {
+        if (file.isDirectory()) {
+            return new File(file, file.getName() + extension);
+        }
+        return new File(file.getParent(), file.getName().replace(".vm", extension));
+    }
+
+    private CodeWriter(SymbolTable symbols, String fileName) {
+        this.symbols = symbols;
+        setFileName(fileName);
+        inMemory = true;
+        asm = new AsmEmitter();
+    }
+
+    /**
+     * Creates a writer that translates one file into memory, with the same
+     * modes as this one, for {@link #append(CodeWriter)}.
+     *
+     * <p>The labels it generates are prefixed with a name unique to the file
+     * and its counters start at zero, so its output depends only on the file
+     * and files can be translated concurrently, each by its own writer.</p>
+     *
+     * @param fileName the name of the file, as for {@link #setFileName(String)}
+     * @param partName the prefix of the labels the writer generates, different for every file
+     *                 of the program and a valid Hack symbol
+     * @param symbols  the table the symbols of the file's commands belong to
+     * @return the new writer
+     */
+    public CodeWriter forFile(String fileName, String partName, SymbolTable symbols) {
+        CodeWriter part = new CodeWriter(symbols, fileName);
+        part.labelPrefix = partName + "$";
+        part.sharedCalls = sharedCalls;
+        part.sharedComparisons = sharedComparisons;
+        part.sharedLocals = sharedLocals;
+        part.cacheTop = cacheTop;
+        if (report != null) {
+            part.setCostReport(new CostReport());
+        }
+        return part;
+    }
+
+    /**
+     * Appends the code translated by a writer created with {@link #forFile(String, String, SymbolTable)},
+     * including the shared routines it uses in those written by {@link #close()}.
+     *
+     * @param part the writer of one file, after its last command
+     */
+    public void append(CodeWriter part) {
+        if (!part.inMemory) {
+            throw new IllegalArgumentException("Not a writer created by forFile");
+        }
+        part.spillTop();
+        spillTop();
+        if (report != null) {
+            report.append(part.report, asm.getInstructionCount());
+        }
+        part.asm.writeTo(asm);
+        callRoutineUsed |= part.callRoutineUsed;
+        returnRoutineUsed |= part.returnRoutineUsed;
+        tailCallRoutineUsed |= part.tailCallRoutineUsed;
+        localsRoutineUsed |= part.localsRoutineUsed;
+        compareRoutinesUsed.addAll(part.compareRoutinesUsed);
+    }
+
+    /**
+     * Selects the code-size mode for calls and returns.
+     *
+     * <p>When enabled, the frame is built by one global {@code $CALL} routine and
+     * torn down by one global {@code $RETURN} routine, emitted once by {@link #close()}.
+     * A call site only loads the argument count into R13, the target into R14 and
+     * the return address into D, and jumps to {@code $CALL} (10 to 12 instructions
+     * instead of 44); a return is a jump to {@code $RETURN} (2 instead of 49).
+     * Each call and return runs a few more instructions.</p>
+     *
+     * @param sharedCalls {@code true} to use the shared routines
+     */
+    public void setSharedCalls(boolean sharedCalls) {
+        this.sharedCalls = sharedCalls;
+    }
+
+    /**
+     * Selects the code-size mode for {@code eq}, {@code gt} and {@code lt}.
+     *
+     * <p>When enabled, each comparison kind is one global routine ({@code $JEQ},
+     * {@code $JGT}, {@code $JLT}) emitted once by {@link #close()}. A comparison
+     * stores its return address in R15 and jumps to the routine: 6 instructions
+     * and one label instead of 19 instructions and two labels.</p>
+     *
+     * @param sharedComparisons {@code true} to use the shared routines
+     */
+    public void setSharedComparisons(boolean sharedComparisons) {
+        this.sharedComparisons = sharedComparisons;
+    }
+
+    /**
+     * Selects the code-size mode for the local initialisation of {@code function}.
+     *
+     * <p>By default the locals are zeroed by an unrolled sequence of two
+     * instructions per local plus four. When enabled, a function with three or
+     * more locals, for which it is shorter, instead loads their number into R13
+     * and jumps to one global {@code $ZERO_LOCALS} loop, emitted once by
+     * {@link #close()}: 8 instructions whatever the number of locals, each of
+     * which takes 8 cycles to zero instead of 2.</p>
+     *
+     * @param sharedLocals {@code true} to use the shared routine
+     */
+    public void setSharedLocals(boolean sharedLocals) {
+        this.sharedLocals = sharedLocals;
+    }
+
+    /**
+     * Selects whether the top of the stack is cached in D.
+     *
+     * <p>When enabled, a pushed or computed value stays in D instead of being
+     * written to the stack, and the next command that consumes it reads it from
+     * there: {@code push local 0; push local 1; add; pop local 2} no longer
+     * writes and reads back the stack between the commands. The value is
+     * written to the stack only when D is needed for something else, and
+     * before labels, jumps, calls, returns and function entry, so the stack is
+     * in memory wherever control flow joins.</p>
+     *
+     * @param cacheTop {@code true} to cache the top of the stack in D
+     */
+    public void setCacheTop(boolean cacheTop) {
+        this.cacheTop = cacheTop;
+    }
+
+    /**
+     * Counts the instructions written from now on in a report, per function
+     * and per kind of command.
+     *
+     * @param report the report
+     */
+    public void setCostReport(CostReport report) {
+        this.report = report;
+    }
+
+    /**
+     * Sets the name of the current file being translated.
+     * This is used for generating static variable references.
+     *
+     * @param fileName the name of the current file being translated
+     */
+    public void setFileName(String fileName) {
+        spillTop();
+        staticPrefix = fileName.replace(".vm", "");
+    }
+
+
+    /**
+     * Writes the Hack assembly code for one parsed VM command.
+     *
+     * @param command the command; its symbol must belong to this writer's {@link SymbolTable}
+     */
+    public void writeCommand(VmCommand command) {
+        if (report != null) {
+            Opcode opcode = command.getOpcode();
+            report.begin(asm.getInstructionCount(), opcode == Opcode.FUNCTION ? symbols.getName(command.getSymbol()) : functionForReport(),
+                    command.getSegment() == null ? opcode.getMnemonic()
+                            : opcode.getMnemonic() + " " + command.getSegment().getName());
+        }
+        switch (command.getOpcode().getCommandType()) {
+            case C_ARITHMETIC -> writeArithmetic(command.getOpcode());
+            case C_PUSH, C_POP -> writePushPop(command.getOpcode().getCommandType(), command.getSegment(),
+                    command.getIndex());
+            case C_LABEL -> writeLabel(symbols.getName(command.getSymbol()));
+            case C_GOTO -> writeGoto(symbols.getName(command.getSymbol()));
+            case C_IF -> writeIf(symbols.getName(command.getSymbol()));
+            case C_FUNCTION -> writeFunction(symbols.getName(command.getSymbol()), command.getIndex());
+            case C_CALL -> writeCall(symbols.getName(command.getSymbol()), command.getIndex());
+            case C_RETURN -> writeReturn();
+        }
+    }
+
+    /**
+     * Writes the Hack assembly code for the specified arithmetic or logical command.
+     *
+     * <p>Generates assembly code for commands like {@code add}, {@code sub}, {@code neg},
+     * {@code eq}, {@code gt}, {@code lt}, {@code and}, {@code or}, and {@code not}.
+     *
+     * @param command the arithmetic or logical command to translate
+     */
+    public void writeArithmetic(Opcode command) {
+        asm.text("// ").text(command.getMnemonic()).newline();
+
+        if (cacheTop) {
+            writeCachedArithmetic(command);
+            return;
+        }
+        switch (command) {
+            case ADD -> binaryOperation("M=D+M");
+            case SUB -> binaryOperation("M=M-D");
+            case NEG -> unaryOperation("M=-M");
+            case AND -> binaryOperation("M=D&M");
+            case OR -> binaryOperation("M=D|M");
+            case NOT -> unaryOperation("M=!M");
+            case EQ -> writeCompareLogic("JEQ");
+            case GT -> writeCompareLogic("JGT");
+            case LT -> writeCompareLogic("JLT");
+            default -> throw new IllegalArgumentException("Not an arithmetic command: " + command.getMnemonic());
+        }
+    }
+
+
+    /**
+     * Writes an arithmetic or logical command whose result is left in D.
+     */
+    private void writeCachedArithmetic(Opcode command) {
+        switch (command) {
+            case NEG, NOT -> {
+                if (topInD) {
+                    asm.println(command == Opcode.NEG ? "D=-D" : "D=!D");
+                } else {
+                    asm.println("@SP");
+                    asm.println("AM=M-1");
+                    asm.println(command == Opcode.NEG ? "D=-M" : "D=!M");
+                }
+            }
+            case ADD, SUB, AND, OR -> {
+                takeTopToD();
+                asm.println("@SP");
+                asm.println("AM=M-1");
+                writeBinaryComputation("D", command, false, "M");
+            }
+            case EQ, GT, LT -> {
+                String jmpCommand = command == Opcode.EQ ? "JEQ" : command == Opcode.GT ? "JGT" : "JLT";
+                if (sharedComparisons) {
+                    spillTop();
+                    writeCompareLogic(jmpCommand);
+                    return;
+                }
+                takeTopToD();
+                asm.println("@SP");
+                asm.println("AM=M-1");
+                asm.println("D=M-D");
+                generatedAddress("LABEL", labelCount);
+                asm.text("D;").text(jmpCommand).newline();
+                asm.println("D=0");
+                generatedAddress("ENDLABEL", labelCount);
+                asm.println("0;JMP");
+                generatedLabel("LABEL", labelCount);
+                asm.println("D=-1");
+                generatedLabel("ENDLABEL", labelCount);
+                labelCount++;
+            }
+            default -> throw new IllegalArgumentException("Not an arithmetic command: " + command.getMnemonic());
+        }
+        topInD = true;
+    }
+
+    /**
+     * Writes the Hack assembly code for a push or pop command.
+     *
+     * <p>For {@code push}, loads the specified value or segment into the stack.
+     * For {@code pop}, stores the top value of the stack into the specified segment.
+     *
+     * @param commandType the type of the command, either {@code C_PUSH} or {@code C_POP}
+     * @param segment     the memory segment (e.g., {@link Segment#CONSTANT}, {@link Segment#LOCAL})
+     * @param index       the index within the memory segment
+     */
+    public void writePushPop(CommandType commandType, Segment segment, int index) {
+        asm.text(commandType == CommandType.C_PUSH ? "// push " : "// pop ").text(segment.getName()).text(" ")
+                .number(index).newline();
+
+        if (commandType == CommandType.C_PUSH) {
+            spillTop();
+            switch (segment) {
+                case CONSTANT -> {
+                    asm.address(index);
+                    asm.println("D=A");
+                }
+                case LOCAL, ARGUMENT, THIS, THAT -> loadSegment(segment.getBase(), index, "D=M");
+                case POINTER -> {
+                    // pointer 0 => THIS, pointer 1 => THAT
+                    if (index == 0) {
+                        asm.println("@THIS");
+                    } else {
+                        asm.println("@THAT");
+                    }
+                    asm.println("D=M");
+                }
+                case TEMP -> {
+                    asm.text("@R").number(5 + index).newline();
+                    asm.println("D=M");
+                }
+                case STATIC -> {
+                    staticAddress(index);
+                    asm.println("D=M");
+                }
+                case INLINE -> {
+                    inlineAddress(index);
+                    asm.println("D=M");
+                }
+            }
+            pushResult();
+        } else if (commandType == CommandType.C_POP) {
+            if (topInD) {
+                storeTop(new VmCommand(Opcode.POP, segment, index, -1));
+                return;
+            }
+            switch (segment) {
+                case POINTER -> {
+                    // pop pointer i => THIS/THAT = top of stack
+                    popStackToD();
+                    if (index == 0) {
+                        asm.println("@THIS");
+                    } else {
+                        asm.println("@THAT");
+                    }
+                    asm.println("M=D");
+                    return; // Important to return here so we don't do the other logic
+                }
+                case TEMP -> {
+                    // pop temp i
+                    asm.address(5 + index);
+                    asm.println("D=A");
+                }
+                case STATIC -> {
+                    // pop static i
+                    staticAddress(index);
+                    asm.println("D=A");
+                }
+                case INLINE -> {
+                    inlineAddress(index);
+                    asm.println("D=A");
+                }
+                case LOCAL, ARGUMENT, THIS, THAT -> storeTargetAddress(segment.getBase(), index);
+                default -> throw new IllegalArgumentException("Invalid segment: " + segment.getName());
+            }
+
+            // For non-pointer segments:
+            asm.println("@R13");
+            asm.println("M=D");
+            popStackToD();
+            asm.println("@R13");
+            asm.println("A=M");
+            asm.println("M=D");
+        }
+    }
+
+    /**
+     * The highest segment index addressed by incrementing A from the base
+     * pointer ({@code A=M+1}, {@code A=A+1}, ...) rather than by adding the
+     * index in D; up to this index the step-by-step form is no longer.
+     */
+    private static final int MAX_STEPPED_INDEX = 5;
+
+    /**
+     * Writes {@code push} followed by {@code pop} as a direct copy through D.
+     *
+     * @param push the push command
+     * @param pop  the pop command
+     */
+    public void writeMove(VmCommand push, VmCommand pop) {
+        beginFused("push pop");
+        asm.text("// ");
+        describe(push).text("; ");
+        describe(pop).newline();
+        spillTop();
+        prepareStore(pop);
+        loadToD(push);
+        storeD(pop);
+    }
+
+    /**
+     * Writes a binary {@code add}, {@code sub}, {@code and} or {@code or} whose
+     * operands are pushed just before it, and whose result is optionally
+     * popped just after it, without going through the stack.
+     *
+     * <p>Operands that are already on the stack are given as {@code null}: only
+     * {@code left}, or both. When both are pushed, at least one of them must
+     * be {@link #isDirectOperand(VmCommand) direct}.</p>
+     *
+     * @param left  the push of the left operand, or {@code null} if it is on the stack
+     * @param right the push of the right operand, or {@code null} if both operands are on the stack
+     * @param op    the binary command
+     * @param pop   the pop of the result, or {@code null} to push it
+     */
+    public void writeBinary(VmCommand left, VmCommand right, Opcode op, VmCommand pop) {
+        asm.text("// ");
+        if (left != null) {
+            describe(left).text("; ");
+        }
+        if (right != null) {
+            describe(right).text("; ");
+        }
+        asm.text(op.getMnemonic());
+        if (pop != null) {
+            asm.text("; ");
+            describe(pop);
+        }
+        asm.newline();
+        if (report != null) {
+            beginFused((left == null ? "" : "push ") + (right == null ? "" : "push ") + op.getMnemonic()
+                    + (pop == null ? "" : " pop"));
+        }
+
+        // x = x + 1 and x = x - 1 in place
+        if (left != null && right != null && pop != null && (op == Opcode.ADD || op == Opcode.SUB)
+                && right.getSegment() == Segment.CONSTANT && right.getIndex() == 1
+                && left.getSegment() == pop.getSegment() && left.getIndex() == pop.getIndex()
+                && isDirectOperand(left)) {
+            operandToA(left);
+            asm.println(op == Opcode.ADD ? "M=M+1" : "M=M-1");
+            return;
+        }
+
+        if (topInD && left == null && (right == null || isDirectOperand(right))
+                && (pop == null || isDirectOperand(pop))) {
+            // D holds the left operand if the right one is pushed, else the right one
+            topInD = false;
+            if (right != null) {
+                writeBinaryComputation("D", op, true, operandToA(right));
+            } else {
+                asm.println("@SP");
+                asm.println("AM=M-1");
+                writeBinaryComputation("D", op, false, "M");
+            }
+            if (pop == null) {
+                pushResult();
+            } else {
+                storeD(pop);
+            }
+            return;
+        }
+        spillTop();
+
+        if (pop != null) {
+            prepareStore(pop);
+        }
+        if (left != null && right != null) {
+            if (isDirectOperand(right)) {
+                loadToD(left);
+                writeBinaryComputation("D", op, true, operandToA(right));
+            } else {
+                loadToD(right);
+                writeBinaryComputation("D", op, false, operandToA(left));
+            }
+        } else if (right != null) {
+            // The left operand is on the stack
+            loadToD(right);
+            asm.println("@SP");
+            if (pop == null && !cacheTop) {
+                asm.println("A=M-1");
+                writeBinaryComputation("M", op, false, "M");
+                return;
+            }
+            asm.println("AM=M-1");
+            writeBinaryComputation("D", op, false, "M");
+        } else {
+            // Both operands are on the stack
+            asm.println("@SP");
+            asm.println("AM=M-1");
+            asm.println("D=M");
+            asm.println("A=A-1");
+            writeBinaryComputation("D", op, false, "M");
+            asm.println("@SP");
+            asm.println("M=M-1");
+        }
+        if (pop == null) {
+            pushResult();
+        } else {
+            storeD(pop);
+        }
+    }
+
+    /**
+     * Writes a push followed by {@code neg} or {@code not}, computing the result in D.
+     *
+     * @param push the push command
+     * @param op   the unary command
+     */
+    public void writeUnary(VmCommand push, Opcode op) {
+        beginFused(op == Opcode.NEG ? "push neg" : "push not");
+        asm.text("// ");
+        describe(push).text("; ").text(op.getMnemonic()).newline();
+        spillTop();
+        loadToD(push);
+        asm.println(op == Opcode.NEG ? "D=-D" : "D=!D");
+        pushResult();
+    }
+
+    /**
+     * Writes {@code eq}, {@code gt} or {@code lt}, optionally followed by
+     * {@code not}, followed by {@code if-goto}, as one conditional jump on the
+     * difference of the operands instead of materialising a boolean.
+     *
+     * @param right   the push of the right operand, or {@code null} if both operands are on the stack
+     * @param compare the comparison
+     * @param negate  {@code true} if the comparison is followed by {@code not}
+     * @param ifGoto  the if-goto command
+     */
+    public void writeCompareBranch(VmCommand right, Opcode compare, boolean negate, VmCommand ifGoto) {
+        String label = symbols.getName(ifGoto.getSymbol());
+        asm.text("// ");
+        if (right != null) {
+            describe(right).text("; ");
+        }
+        asm.text(compare.getMnemonic()).text(negate ? "; not; if-goto " : "; if-goto ").text(label).newline();
+        if (report != null) {
+            beginFused((right == null ? "" : "push ") + compare.getMnemonic() + (negate ? " not" : "") + " if-goto");
+        }
+
+        if (right == null) {
+            takeTopToD();
+            asm.println("@SP");
+            asm.println("AM=M-1");
+            asm.println("D=M-D");
+        } else if (isDirectOperand(right)) {
+            // D = left
+            takeTopToD();
+            String register = operandToA(right);
+            asm.text("D=D-").text(register).newline();
+        } else {
+            spillTop();
+            loadToD(right);
+            asm.println("@SP");
+            asm.println("AM=M-1");
+            asm.println("D=M-D");
+        }
+        String jmpCommand = switch (compare) {
+            case EQ -> negate ? "JNE" : "JEQ";
+            case GT -> negate ? "JLE" : "JGT";
+            case LT -> negate ? "JGE" : "JLT";
+            default -> throw new IllegalArgumentException("Not a comparison: " + compare.getMnemonic());
+        };
+        asm.text("@");
+        functionLabel(label).newline();
+        asm.text("D;").text(jmpCommand).newline();
+    }
+
+    /**
+     * Returns whether a pushed value can be reached by A alone, leaving D
+     * free for the other operand: constants, {@code pointer}, {@code temp},
+     * {@code static}, and the first few words of the other segments.
+     *
+     * @param push a push command
+     * @return {@code true} if the operand is direct
+     */
+    public boolean isDirectOperand(VmCommand push) {
+        return push.getSegment().getBase() == null || push.getIndex() <= MAX_STEPPED_INDEX;
+    }
+
+    /**
+     * Writes the instruction(s) after which the operand of a push is A (for a
+     * constant) or M (for everything else), without changing D.
+     *
+     * @return the register holding the operand, {@code "A"} or {@code "M"}
+     */
+    private String operandToA(VmCommand push) {
+        Segment segment = push.getSegment();
+        int index = push.getIndex();
+        switch (segment) {
+            case CONSTANT -> {
+                asm.address(index);
+                return "A";
+            }
+            case POINTER -> asm.println(index == 0 ? "@THIS" : "@THAT");
+            case TEMP -> asm.text("@R").number(5 + index).newline();
+            case STATIC -> staticAddress(index);
+            case INLINE -> inlineAddress(index);
+            default -> {
+                asm.address(segment.getBase());
+                asm.println(index == 0 ? "A=M" : "A=M+1");
+                for (int i = 1; i < index; i++) {
+                    asm.println("A=A+1");
+                }
+            }
+        }
+        return "M";
+    }
+
+    /**
+     * Writes the code loading the value a push would push into D.
+     */
+    private void loadToD(VmCommand push) {
+        if (push.getSegment() == Segment.CONSTANT && push.getIndex() <= 1) {
+            asm.text("D=").number(push.getIndex()).newline();
+        } else if (isDirectOperand(push)) {
+            String register = operandToA(push);
+            asm.text("D=").text(register).newline();
+        } else {
+            loadSegment(push.getSegment().getBase(), push.getIndex(), "D=M");
+        }
+    }
+
+    /**
+     * Writes the part of storing D into the target of a pop that must come
+     * before D is computed: for far indexes, the target address goes to R13.
+     */
+    private void prepareStore(VmCommand pop) {
+        if (!isDirectOperand(pop)) {
+            storeTargetAddress(pop.getSegment().getBase(), pop.getIndex());
+            asm.println("@R13");
+            asm.println("M=D");
+        }
+    }
+
+    /**
+     * Writes the code storing D into the target of a pop, after {@link #prepareStore(VmCommand)}.
+     */
+    private void storeD(VmCommand pop) {
+        if (isDirectOperand(pop)) {
+            operandToA(pop);
+        } else {
+            asm.println("@R13");
+            asm.println("A=M");
+        }
+        asm.println("M=D");
+    }
+
+    /**
+     * Writes the code storing the top of the stack, cached in D, into the target of a pop.
+     */
+    private void storeTop(VmCommand pop) {
+        topInD = false;
+        if (isDirectOperand(pop)) {
+            storeD(pop);
+            return;
+        }
+        asm.println("@R13");
+        asm.println("M=D");
+        storeTargetAddress(pop.getSegment().getBase(), pop.getIndex());
+        asm.println("@R14");
+        asm.println("M=D");
+        asm.println("@R13");
+        asm.println("D=M");
+        asm.println("@R14");
+        asm.println("A=M");
+        asm.println("M=D");
+    }
+
+    /**
+     * Writes the computation of a binary command.
+     *
+     * @param dest     the destination register, {@code "D"} or {@code "M"}
+     * @param op       the binary command
+     * @param leftInD  {@code true} if D holds the left operand, {@code false} if it holds the right one
+     * @param register the register holding the other operand, {@code "A"} or {@code "M"}
+     */
+    private void writeBinaryComputation(String dest, Opcode op, boolean leftInD, String register) {
+        asm.text(dest).text("=");
+        switch (op) {
+            case ADD -> asm.text("D+").text(register);
+            case SUB -> {
+                if (leftInD) {
+                    asm.text("D-").text(register);
+                } else {
+                    asm.text(register).text("-D");
+                }
+            }
+            case AND -> asm.text("D&").text(register);
+            case OR -> asm.text("D|").text(register);
+            default -> throw new IllegalArgumentException("Not a binary command: " + op.getMnemonic());
+        }
+        asm.newline();
+    }
+
+    /**
+     * Starts the report's range of a sequence of commands written by one of the fused writers.
+     * Callers that build the kind from parts only do so when there is a report, so that writing
+     * code allocates nothing otherwise.
+     */
+    private void beginFused(String kind) {
+        if (report != null) {
+            report.begin(asm.getInstructionCount(), functionForReport(), kind);
+        }
+    }
+
+    /**
+     * @return the function the code being written belongs to, as named in the report
+     */
+    private String functionForReport() {
+        return currentFunctionName.isEmpty() ? "(outside functions)" : currentFunctionName;
+    }
+
+    /**
+     * Appends a push or pop command, as written in a {@code .vm} file, to the current line.
+     */
+    private AsmEmitter describe(VmCommand command) {
+        return asm.text(command.getOpcode().getMnemonic()).text(" ").text(command.getSegment().getName())
+                .text(" ").number(command.getIndex());
+    }
+
+    /**
+     * Writes the address of a static variable of the current file.
+     */
+    private void staticAddress(int index) {
+        asm.text("@").text(staticPrefix).number(index).newline();
+    }
+
+    /**
+     * Writes the address of a word of the {@link Segment#INLINE} segment.
+     */
+    private void inlineAddress(int index) {
+        asm.text("@$INLINE").number(index).newline();
+    }
+
+    /**
+     * Appends a label of the current function, as it is named in the assembly, to the current line.
+     */
+    private AsmEmitter functionLabel(String label) {
+        if (!currentFunctionName.isEmpty()) {
+            asm.text(currentFunctionName).text("$");
+        }
+        return asm.text(label);
+    }
+
+    /**
+     * Writes the address of a label generated by this writer.
+     */
+    private void generatedAddress(String name, int number) {
+        asm.text("@").text(labelPrefix).text(name).number(number).newline();
+    }
+
+    /**
+     * Writes a label generated by this writer.
+     */
+    private void generatedLabel(String name, int number) {
+        asm.text("(").text(labelPrefix).text(name).number(number).text(")").newline();
+    }
+
+    /**
+     * Closes the output file stream.
+     * Ensures that all written data is flushed and the file is properly closed.
+     */
+    public void close() {
+        if (asm != null) {
+            spillTop();
+            writeSharedRoutines();
+            if (report != null) {
+                report.setSize(asm.getInstructionCount());
+            }
+            asm.close();
+        }
+    }
+
+    // The fixed sequences written most often, encoded once
+    private static final byte[] INCREMENT_STACK_POINTER = AsmEmitter.block("@SP", "M=M+1");
+    private static final byte[] DECREMENT_STACK_POINTER = AsmEmitter.block("@SP", "M=M-1");
+    private static final byte[] POP_STACK_TO_D = AsmEmitter.block("@SP", "M=M-1", "A=M", "D=M");
+    private static final byte[] PUSH_D_TO_STACK = AsmEmitter.block("@SP", "A=M", "M=D", "@SP", "M=M+1");
+    private static final byte[] SPILL_TOP = AsmEmitter.block("@SP", "AM=M+1", "A=A-1", "M=D");
+    private static final byte[] TAKE_TOP_TO_D = AsmEmitter.block("@SP", "AM=M-1", "D=M");
+    private static final byte[] LOAD_STACK_POINTER_TO_A = AsmEmitter.block("@SP", "A=M");
+    private static final byte[] PUSH_FRAME = AsmEmitter.block(
+            "@LCL", "D=M", "@SP", "A=M", "M=D", "@SP", "M=M+1",
+            "@ARG", "D=M", "@SP", "A=M", "M=D", "@SP", "M=M+1",
+            "@THIS", "D=M", "@SP", "A=M", "M=D", "@SP", "M=M+1",
+            "@THAT", "D=M", "@SP", "A=M", "M=D", "@SP", "M=M+1");
+
+    /**
+     * Increments the stack pointer (SP).
+     * Updates SP to point to the next available stack location.
+     */
+    private void incrementStackPointer() {
+        asm.write(INCREMENT_STACK_POINTER);
+    }
+
+    /**
+     * Decrements the stack pointer (SP).
+     * Updates SP to point to the previous stack location.
+     */
+    private void decrementStackPointer() {
+        asm.write(DECREMENT_STACK_POINTER);
+    }
+
+    /**
+     * Pops the top stack value into the D register.
+     * Decrements SP and stores the value at the top of the stack into D.
+     */
+    private void popStackToD() {
+        asm.write(POP_STACK_TO_D);
+    }
+
+    /**
+     * Pushes the value in the D register onto the stack.
+     * Stores D at the top of the stack and increments SP.
+     */
+    private void pushDToStack() {
+        asm.write(PUSH_D_TO_STACK);
+    }
+
+    /**
+     * Pushes the value in D, or leaves it there as the cached top of the stack.
+     */
+    private void pushResult() {
+        if (cacheTop) {
+            topInD = true;
+        } else {
+            pushDToStack();
+        }
+    }
+
+    /**
+     * Writes the cached top of the stack from D to the stack, if it is cached.
+     */
+    private void spillTop() {
+        if (topInD) {
+            asm.write(SPILL_TOP);
+            topInD = false;
+        }
+    }
+
+    /**
+     * Pops the top of the stack into D, unless it is already cached there.
+     */
+    private void takeTopToD() {
+        if (topInD) {
+            topInD = false;
+        } else {
+            asm.write(TAKE_TOP_TO_D);
+        }
+    }
+
+    /**
+     * Loads the stack pointer's address into A.
+     * Points A to the current top of the stack.
+     */
+    private void loadStackPointerToA() {
+        asm.write(LOAD_STACK_POINTER_TO_A);
+    }
+
+
+    /**
+     * Loads a segment address with an offset into A and performs an operation.
+     *
+     * @param segment   the base address of the segment (e.g., LCL, ARG)
+     * @param index     the offset within the segment
+     * @param operation the operation to perform after loading the address
+     */
+    private void loadSegment(String segment, int index, String operation) {
+        asm.address(segment);
+        asm.println("D=M");
+        asm.address(index);
+        asm.println("A=D+A");
+        asm.println(operation);
+    }
+
+    /**
+     * Stores the address of a target location into D.
+     *
+     * @param segment the base address of the segment
+     * @param index   the offset within the segment
+     */
+    private void storeTargetAddress(String segment, int index) {
+        asm.address(segment);
+        asm.println("D=M");
+        asm.address(index);
+        asm.println("D=D+A");
+    }
+
+    /**
+     * Performs a unary operation (e.g., negation or logical NOT) on the top of the stack.
+     *
+     * @param operation the assembly operation to execute
+     */
+    private void unaryOperation(String operation) {
+        decrementStackPointer();
+        loadStackPointerToA();
+        asm.println(operation);
+        incrementStackPointer();
+    }
+
+    /**
+     * Performs a binary operation (e.g., addition or subtraction) on the top two stack values.
+     *
+     * @param operation the assembly operation to execute
+     */
+    private void binaryOperation(String operation) {
+        popStackToD();
+        decrementStackPointer();
+        loadStackPointerToA();
+        asm.println(operation);
+        incrementStackPointer();
+    }
+
+    /**
+     * Writes comparison logic (e.g., eq, gt, lt).
+     *
+     * @param jmpCommand the jump command for the comparison (e.g., JEQ, JGT, JLT)
+     */
+    private void writeCompareLogic(String jmpCommand) {
+        if (sharedComparisons) {
+            compareRoutinesUsed.add(jmpCommand);
+            int returnLabel = labelCount++;
+            // R15 = return-address
+            generatedAddress("RET_COMPARE", returnLabel);
+            asm.println("D=A");
+            asm.println("@R15");
+            asm.println("M=D");
+            asm.text("@$").text(jmpCommand).newline();
+            asm.println("0;JMP");
+            generatedLabel("RET_COMPARE", returnLabel);
+            return;
+        }
+        popStackToD();
+        decrementStackPointer();
+        loadStackPointerToA();
+        asm.println("D=M-D");
+        generatedAddress("LABEL", labelCount);
+        asm.text("D;").text(jmpCommand).newline();
+        loadStackPointerToA();
+        asm.println("M=0");
+        generatedAddress("ENDLABEL", labelCount);
+        asm.println("0;JMP");
+        generatedLabel("LABEL", labelCount);
+        loadStackPointerToA();
+        asm.println("M=-1");
+        generatedLabel("ENDLABEL", labelCount);
+        incrementStackPointer();
+        labelCount++;
+    }
+
+    /**
+     * Writes a label for the current function.
+     *
+     * @param label the label name
+     */
+    public void writeLabel(String label) {
+        asm.text("// label ").text(label).newline();
+        spillTop();
+        asm.text("(");
+        functionLabel(label).text(")").newline();
+    }
+
+    /**
+     * Writes a goto command.
+     *
+     * @param label the label to jump to
+     */
+    public void writeGoto(String label) {
+        asm.text("// goto ").text(label).newline();
+        spillTop();
+        asm.text("@");
+        functionLabel(label).newline();
+        asm.println("0;JMP");
+    }
+
+    /**
+     * Writes an if-goto command.
+     *
+     * @param label the label to conditionally jump to
+     */
+    public void writeIf(String label) {
+        asm.text("// if-goto ").text(label).newline();
+        if (cacheTop) {
+            takeTopToD();
+        } else {
+            popStackToD();
+        }
+        asm.text("@");
+        functionLabel(label).newline();
+        asm.println("D;JNE");
+    }
+
+    /**
+     * Writes a function declaration with local variable initialization.
+     *
+     * @param functionName the name of the function
+     * @param nVars        the number of local variables to initialize
+     */
+    public void writeFunction(String functionName, int nVars) {
+        asm.text("// function ").text(functionName).text(" ").number(nVars).newline();
+        spillTop();
+        currentFunctionName = functionName;
+        asm.label(functionName);
+        // Initialize local vars to 0
+        if (nVars == 1) {
+            asm.println("@SP");
+            asm.println("M=M+1");
+            asm.println("A=M-1");
+            asm.println("M=0");
+        } else if (nVars > 2 && sharedLocals) {
+            localsRoutineUsed = true;
+            int returnLabel = labelCount++;
+            // R13 = nVars, D = return-address
+            asm.address(nVars);
+            asm.println("D=A");
+            asm.println("@R13");
+            asm.println("M=D");
+            generatedAddress("RET_LOCALS", returnLabel);
+            asm.println("D=A");
+            asm.println("@$ZERO_LOCALS");
+            asm.println("0;JMP");
+            generatedLabel("RET_LOCALS", returnLabel);
+        } else if (nVars > 1) {
+            asm.println("@SP");
+            asm.println("A=M");
+            asm.println("M=0");
+            for (int i = 1; i < nVars; i++) {
+                asm.println("A=A+1");
+                asm.println("M=0");
+            }
+            // SP = the word after the last local
+            asm.println("D=A+1");
+            asm.println("@SP");
+            asm.println("M=D");
+        }
+    }
+
+    /**
+     * Writes the Hack assembly code for the return command.
+     */
+    public void writeReturn() {
+        asm.println("// return");
+        spillTop();
+        if (sharedCalls) {
+            returnRoutineUsed = true;
+            asm.println("@$RETURN");
+            asm.println("0;JMP");
+            return;
+        }
+        writeReturnFrame();
+    }
+
+    /**
+     * Writes the code restoring the caller's frame and jumping to the return address.
+     */
+    private void writeReturnFrame() {
+        // FRAME = LCL
+        asm.println("@LCL");
+        asm.println("D=M");
+        asm.println("@R13");
+        asm.println("M=D");
+
+        // RET = *(FRAME-5)
+        asm.println("@5");
+        asm.println("A=D-A");
+        asm.println("D=M");
+        asm.println("@R14");
+        asm.println("M=D");
+
+        // *ARG = pop()
+        popStackToD();
+        asm.println("@ARG");
+        asm.println("A=M");
+        asm.println("M=D");
+
+        // SP = ARG+1
+        asm.println("@ARG");
+        asm.println("D=M+1");
+        asm.println("@SP");
+        asm.println("M=D");
+
+        // THAT = *(FRAME-1)
+        asm.println("@R13");
+        asm.println("AM=M-1");
+        asm.println("D=M");
+        asm.println("@THAT");
+        asm.println("M=D");
+
+        // THIS = *(FRAME-2)
+        asm.println("@R13");
+        asm.println("AM=M-1");
+        asm.println("D=M");
+        asm.println("@THIS");
+        asm.println("M=D");
+
+        // ARG = *(FRAME-3)
+        asm.println("@R13");
+        asm.println("AM=M-1");
+        asm.println("D=M");
+        asm.println("@ARG");
+        asm.println("M=D");
+
+        // LCL = *(FRAME-4)
+        asm.println("@R13");
+        asm.println("AM=M-1");
+        asm.println("D=M");
+        asm.println("@LCL");
+        asm.println("M=D");
+
+        // goto RET
+        asm.println("@R14");
+        asm.println("A=M");
+        asm.println("0;JMP");
+    }
+
+    /**
+     * Writes a call command for a function.
+     *
+     * @param functionName the name of the function to call
+     * @param nArgs        the number of arguments passed to the function
+     */
+    public void writeCall(String functionName, int nArgs) {
+            asm.text("// call ").text(functionName).text(" ").number(nArgs).newline();
+            spillTop();
+            int returnLabel = callCount++;
+
+            if (sharedCalls) {
+                callRoutineUsed = true;
+                // R13 = nArgs, R14 = functionName, D = return-address
+                if (nArgs <= 1) {
+                    asm.println("@R13");
+                    asm.text("M=").number(nArgs).newline();
+                } else {
+                    asm.address(nArgs);
+                    asm.println("D=A");
+                    asm.println("@R13");
+                    asm.println("M=D");
+                }
+                asm.address(functionName);
+                asm.println("D=A");
+                asm.println("@R14");
+                asm.println("M=D");
+                asm.text("@");
+                returnAddressLabel(functionName, returnLabel).newline();
+                asm.println("D=A");
+                asm.println("@$CALL");
+                asm.println("0;JMP");
+                asm.text("(");
+                returnAddressLabel(functionName, returnLabel).text(")").newline();
+                return;
+            }
+
+            // push return-address
+            asm.text("@");
+            returnAddressLabel(functionName, returnLabel).newline();
+            asm.println("D=A");
+            pushDToStack();
+
+            // push LCL, ARG, THIS and THAT
+            asm.write(PUSH_FRAME);
+
+            // ARG = SP - nArgs - 5
+            asm.println("@SP");
+            asm.println("D=M");
+            asm.address(nArgs + 5);
+            asm.println("D=D-A");
+            asm.println("@ARG");
+            asm.println("M=D");
+
+            // LCL = SP
+            asm.println("@SP");
+            asm.println("D=M");
+            asm.println("@LCL");
+            asm.println("M=D");
+
+            // goto functionName
+            asm.address(functionName);
+            asm.println("0;JMP");
+
+            // (returnLabel)
+            asm.text("(");
+            returnAddressLabel(functionName, returnLabel).text(")").newline();
+    }
+
+    /**
+     * Appends the label of the return address of a call to the current line.
+     */
+    private AsmEmitter returnAddressLabel(String functionName, int number) {
+        return asm.text(labelPrefix).text("RET_ADDRESS_").text(functionName).number(number);
+    }
+
+    /**
+     * The highest argument count of a tail call whose arguments are copied
+     * with fixed offsets from SP and ARG rather than through pointers in R13
+     * and R14; up to this count the fixed-offset form is no longer.
+     */
+    private static final int MAX_STEPPED_TAIL_ARGS = 3;
+
+    /**
+     * Writes {@code call} immediately followed by {@code return} as a jump that
+     * reuses the current frame, so a chain of tail calls runs in constant stack space.
+     *
+     * <p>The arguments are copied over those of the current function, and the
+     * saved frame of its caller (return address, LCL, ARG, THIS and THAT) is
+     * placed after them, where {@code call} would have built the new frame;
+     * the called function then returns straight to that caller. When both
+     * functions take as many arguments, the saved frame is already in place and
+     * only the arguments are copied. Otherwise the global {@code $TAIL_CALL}
+     * routine, emitted once by {@link #close()}, moves the frame.</p>
+     *
+     * @param call the call command, followed by {@code return}
+     */
+    public void writeTailCall(VmCommand call) {
+        String functionName = symbols.getName(call.getSymbol());
+        int nArgs = call.getIndex();
+        asm.text("// call ").text(functionName).text(" ").number(nArgs).text("; return").newline();
+        beginFused("call return");
+        spillTop();
+        int sameFrame = labelCount++;
+
+        // D = LCL - ARG - 5 - nArgs, the difference in the number of arguments
+        asm.println("@LCL");
+        asm.println("D=M");
+        asm.println("@ARG");
+        asm.println("D=D-M");
+        asm.address(nArgs + 5);
+        asm.println("D=D-A");
+        generatedAddress("TAIL_CALL", sameFrame);
+        asm.println("D;JEQ");
+
+        // R13 = nArgs, R14 = functionName
+        tailCallRoutineUsed = true;
+        asm.address(nArgs);
+        asm.println("D=A");
+        asm.println("@R13");
+        asm.println("M=D");
+        asm.address(functionName);
+        asm.println("D=A");
+        asm.println("@R14");
+        asm.println("M=D");
+        asm.println("@$TAIL_CALL");
+        asm.println("0;JMP");
+
+        // ARG[0..nArgs-1] = the arguments on top of the stack
+        generatedLabel("TAIL_CALL", sameFrame);
+        if (nArgs <= MAX_STEPPED_TAIL_ARGS) {
+            for (int i = 0; i < nArgs; i++) {
+                asm.println("@SP");
+                asm.println("A=M-1");
+                for (int j = i + 1; j < nArgs; j++) {
+                    asm.println("A=A-1");
+                }
+                asm.println("D=M");
+                asm.println("@ARG");
+                asm.println(i == 0 ? "A=M" : "A=M+1");
+                for (int j = 1; j < i; j++) {
+                    asm.println("A=A+1");
+                }
+                asm.println("M=D");
+            }
+        } else {
+            asm.println("@SP");
+            asm.println("D=M");
+            asm.address(nArgs + 1);
+            asm.println("D=D-A");
+            asm.println("@R13");
+            asm.println("M=D");
+            asm.println("@ARG");
+            asm.println("D=M-1");
+            asm.println("@R14");
+            asm.println("M=D");
+            for (int i = 0; i < nArgs; i++) {
+                asm.println("@R13");
+                asm.println("AM=M+1");
+                asm.println("D=M");
+                asm.println("@R14");
+                asm.println("AM=M+1");
+                asm.println("M=D");
+            }
+        }
+
+        // SP = LCL, goto functionName
+        asm.println("@LCL");
+        asm.println("D=M");
+        asm.println("@SP");
+        asm.println("M=D");
+        asm.address(functionName);
+        asm.println("0;JMP");
+    }
+
+    /**
+     * Writes the {@code $TAIL_CALL} routine, for tail calls whose number of
+     * arguments differs from the current function's.
+     *
+     * <p>The saved frame is first copied above the stack, since the new
+     * arguments may overwrite it, then the arguments are copied over the old
+     * ones and the frame after them.</p>
+     */
+    private void writeTailCallRoutine() {
+        // R13 = nArgs, R14 = function
+        asm.println("($TAIL_CALL)");
+        // SP[0..4] = the saved frame at LCL-5..LCL-1, SP[5] = function
+        for (int k = 0; k < 5; k++) {
+            asm.println("@LCL");
+            asm.println("A=M-1");
+            for (int j = k; j < 4; j++) {
+                asm.println("A=A-1");
+            }
+            asm.println("D=M");
+            asm.println("@SP");
+            asm.println(k == 0 ? "A=M" : "A=M+1");
+            for (int j = 1; j < k; j++) {
+                asm.println("A=A+1");
+            }
+            asm.println("M=D");
+        }
+        asm.println("@R14");
+        asm.println("D=M");
+        asm.println("@SP");
+        asm.println("A=M+1");
+        for (int j = 1; j < 5; j++) {
+            asm.println("A=A+1");
+        }
+        asm.println("M=D");
+
+        // R15 = SP - nArgs, R14 = ARG; copy while R15 < SP
+        asm.println("@SP");
+        asm.println("D=M");
+        asm.println("@R13");
+        asm.println("D=D-M");
+        asm.println("@R15");
+        asm.println("M=D");
+        asm.println("@ARG");
+        asm.println("D=M");
+        asm.println("@R14");
+        asm.println("M=D");
+        asm.println("($TAIL_CALL_ARGS)");
+        asm.println("@R15");
+        asm.println("D=M");
+        asm.println("@SP");
+        asm.println("D=D-M");
+        asm.println("@$TAIL_CALL_FRAME");
+        asm.println("D;JGE");
+        asm.println("@R15");
+        asm.println("M=M+1");
+        asm.println("A=M-1");
+        asm.println("D=M");
+        asm.println("@R14");
+        asm.println("M=M+1");
+        asm.println("A=M-1");
+        asm.println("M=D");
+        asm.println("@$TAIL_CALL_ARGS");
+        asm.println("0;JMP");
+
+        // R14[0..4] = SP[0..4], after the arguments
+        asm.println("($TAIL_CALL_FRAME)");
+        for (int k = 0; k < 5; k++) {
+            asm.println("@SP");
+            asm.println(k == 0 ? "A=M" : "A=M+1");
+            for (int j = 1; j < k; j++) {
+                asm.println("A=A+1");
+            }
+            asm.println("D=M");
+            asm.println("@R14");
+            asm.println("M=M+1");
+            asm.println("A=M-1");
+            asm.println("M=D");
+        }
+        // R13 = function, LCL = SP = R14, goto function
+        asm.println("@SP");
+        asm.println("A=M+1");
+        for (int j = 1; j < 5; j++) {
+            asm.println("A=A+1");
+        }
+        asm.println("D=M");
+        asm.println("@R13");
+        asm.println("M=D");
+        asm.println("@R14");
+        asm.println("D=M");
+        asm.println("@LCL");
+        asm.println("M=D");
+        asm.println("@SP");
+        asm.println("M=D");
+        asm.println("@R13");
+        asm.println("A=M");
+        asm.println("0;JMP");
+    }
+
+    /**
+     * Writes the shared routines used by the translated code, after a loop
+     * that stops a program running off its end from entering them.
+     */
+    private void writeSharedRoutines() {
+        if (!callRoutineUsed && !returnRoutineUsed && !tailCallRoutineUsed && !localsRoutineUsed
+                && compareRoutinesUsed.isEmpty()) {
+            return;
+        }
+        asm.println("// shared routines");
+        if (report != null) {
+            report.begin(asm.getInstructionCount(), "(shared routines)", "halt loop");
+        }
+        asm.println("($END)");
+        asm.println("@$END");
+        asm.println("0;JMP");
+        if (callRoutineUsed) {
+            // D = return-address, R13 = nArgs, R14 = function
+            if (report != null) {
+                report.begin(asm.getInstructionCount(), "(shared routines)", "call routine");
+            }
+            asm.println("($CALL)");
+            asm.println("@SP");
+            asm.println("A=M");
+            asm.println("M=D");
+            for (String pointer : new String[]{"LCL", "ARG", "THIS", "THAT"}) {
+                asm.address(pointer);
+                asm.println("D=M");
+                asm.println("@SP");
+                asm.println("AM=M+1");
+                asm.println("M=D");
+            }
+            // LCL = SP
+            asm.println("@SP");
+            asm.println("MD=M+1");
+            asm.println("@LCL");
+            asm.println("M=D");
+            // ARG = SP - nArgs - 5
+            asm.println("@R13");
+            asm.println("D=D-M");
+            asm.println("@5");
+            asm.println("D=D-A");
+            asm.println("@ARG");
+            asm.println("M=D");
+            // goto function
+            asm.println("@R14");
+            asm.println("A=M");
+            asm.println("0;JMP");
+        }
+        if (returnRoutineUsed) {
+            if (report != null) {
+                report.begin(asm.getInstructionCount(), "(shared routines)", "return routine");
+            }
+            asm.println("($RETURN)");
+            writeReturnFrame();
+        }
+        if (localsRoutineUsed) {
+            // D = return-address, R13 = nVars
+            if (report != null) {
+                report.begin(asm.getInstructionCount(), "(shared routines)", "locals routine");
+            }
+            asm.println("($ZERO_LOCALS)");
+            asm.println("@R14");
+            asm.println("M=D");
+            asm.println("($ZERO_LOCALS_LOOP)");
+            asm.println("@SP");
+            asm.println("M=M+1");
+            asm.println("A=M-1");
+            asm.println("M=0");
+            asm.println("@R13");
+            asm.println("MD=M-1");
+            asm.println("@$ZERO_LOCALS_LOOP");
+            asm.println("D;JGT");
+            asm.println("@R14");
+            asm.println("A=M");
+            asm.println("0;JMP");
+        }
+        if (tailCallRoutineUsed) {
+            if (report != null) {
+                report.begin(asm.getInstructionCount(), "(shared routines)", "tail call routine");
+            }
+            writeTailCallRoutine();
+        }
+        for (String jmpCommand : compareRoutinesUsed) {
+            // Replaces the top two values with -1 (true) or 0, then returns to R15
+            if (report != null) {
+                report.begin(asm.getInstructionCount(), "(shared routines)", "compare routine");
+            }
+            asm.text("($").text(jmpCommand).text(")").newline();
+            asm.println("@SP");
+            asm.println("AM=M-1");
+            asm.println("D=M");
+            asm.println("A=A-1");
+            asm.println("D=M-D");
+            asm.println("M=-1");
+            asm.text("@$").text(jmpCommand).text("_END").newline();
+            asm.text("D;").text(jmpCommand).newline();
+            asm.println("@SP");
+            asm.println("A=M-1");
+            asm.println("M=0");
+            asm.text("($").text(jmpCommand).text("_END)").newline();
+            asm.println("@R15");
+            asm.println("A=M");
+            asm.println("0;JMP");
+        }
+    }
+
+    /**
+     * Writes the bootstrap code for the VM, initializing SP and calling Sys.init.
+     */
+    public void writeInit() {
+        // Bootstrap code: SP=256, call Sys.init
+        asm.println("// bootstrap code");
+        if (report != null) {
+            report.begin(asm.getInstructionCount(), "(bootstrap)", "bootstrap");
+        }
+        asm.println("@256");
+        asm.println("D=A");
+        asm.println("@SP");
+        asm.println("M=D");
+        writeCall("Sys.init", 0);
+    }
+ }
+
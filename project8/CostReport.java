@@ -0,0 +1,172 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the Hack instructions a {@link CodeWriter} emits, per function and per kind of VM command.
+ *
+ * <p>The writer {@link #begin(int, String, String) begins} a range of
+ * instructions before each command it translates, at the address of its first
+ * instruction, naming the function the command is in and its kind, such as
+ * {@code "push local"}, {@code "call"} or, for a sequence fused by the
+ * {@link PeepholeOptimizer}, {@code "push push add pop"}. Every instruction up
+ * to the next range belongs to it, including the frame handling of
+ * {@code call} and {@code return} and the local initialisation of
+ * {@code function}. The addresses are the instructions counted by the
+ * writer's {@link AsmEmitter}, as the {@link HackEncoder} assembles them, so
+ * a range is also a span of ROM addresses.</p>
+ *
+ * <p>Given the number of times each address was executed, as counted by a
+ * {@link HackCpu}, the report also shows the instructions executed.</p>
+ */
+public class CostReport {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private int[] starts = new int[256];
+    private int[] functions = new int[256];
+    private int[] kinds = new int[256];
+    private int ranges;
+    private int size;
+    private long[] executionCounts;
+
+    /**
+     * Starts the range of the instructions of the next command.
+     *
+     * @param address  the address of the command's first instruction
+     * @param function the name of the function the command is in
+     * @param kind     the kind of the command
+     */
+    public void begin(int address, String function, String kind) {
+        int functionId = id(function);
+        int kindId = id(kind);
+        if (ranges > 0 && functions[ranges - 1] == functionId && kinds[ranges - 1] == kindId) {
+            return;
+        }
+        addRange(address, functionId, kindId);
+    }
+
+    /**
+     * Adds the ranges of a report counted separately, whose instructions are written next.
+     *
+     * @param part   the report of the code about to be written
+     * @param offset the address the code is written at
+     */
+    public void append(CostReport part, int offset) {
+        for (int i = 0; i < part.ranges; i++) {
+            addRange(offset + part.starts[i], id(part.names.get(part.functions[i])),
+                    id(part.names.get(part.kinds[i])));
+        }
+    }
+
+    /**
+     * Sets the number of instructions, which ends the last range.
+     *
+     * @param size the number of instructions written
+     */
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @return the number of instructions, once set
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Sets the number of times each instruction was executed.
+     *
+     * @param executionCounts the counts, indexed by ROM address
+     */
+    public void setExecutionCounts(long[] executionCounts) {
+        this.executionCounts = executionCounts;
+    }
+
+    /**
+     * Prints the instructions per function and per kind of command, most first:
+     * by executed instructions if there are execution counts, otherwise by
+     * emitted ones.
+     *
+     * @param out the stream to print to
+     */
+    public void print(PrintStream out) {
+        long[] functionSizes = new long[names.size()];
+        long[] functionCounts = new long[names.size()];
+        long[] kindSizes = new long[names.size()];
+        long[] kindCounts = new long[names.size()];
+        for (int i = 0; i < ranges; i++) {
+            int end = i + 1 < ranges ? starts[i + 1] : size;
+            functionSizes[functions[i]] += end - starts[i];
+            kindSizes[kinds[i]] += end - starts[i];
+            if (executionCounts != null) {
+                long executed = 0;
+                for (int a = starts[i]; a < end && a < executionCounts.length; a++) {
+                    executed += executionCounts[a];
+                }
+                functionCounts[functions[i]] += executed;
+                kindCounts[kinds[i]] += executed;
+            }
+        }
+        printTable(out, "function", functions, functionSizes, functionCounts);
+        out.println();
+        printTable(out, "command", kinds, kindSizes, kindCounts);
+    }
+
+    private void printTable(PrintStream out, String title, int[] rangeIds, long[] sizes, long[] counts) {
+        long totalSize = Arrays.stream(sizes).sum();
+        long totalCount = Arrays.stream(counts).sum();
+        List<Integer> rows = new ArrayList<>();
+        boolean[] listed = new boolean[names.size()];
+        for (int i = 0; i < ranges; i++) {
+            int id = rangeIds[i];
+            if (!listed[id] && sizes[id] > 0) {
+                listed[id] = true;
+                rows.add(id);
+            }
+        }
+        long[] order = executionCounts != null ? counts : sizes;
+        rows.sort((a, b) -> Long.compare(order[b], order[a]));
+
+        int width = title.length();
+        for (int row : rows) {
+            width = Math.max(width, names.get(row).length());
+        }
+        String format = "%-" + width + "s %9s %6s" + (executionCounts != null ? " %13s %6s" : "") + "%n";
+        out.printf(format, title, "emitted", "%", "executed", "%");
+        for (int row : rows) {
+            out.printf(format, names.get(row), sizes[row], percent(sizes[row], totalSize),
+                    counts[row], percent(counts[row], totalCount));
+        }
+        out.printf(format, "total", totalSize, "", totalCount, "");
+    }
+
+    private static String percent(long part, long total) {
+        return total == 0 ? "" : String.format("%.1f", 100.0 * part / total);
+    }
+
+    private int id(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+
+    private void addRange(int start, int functionId, int kindId) {
+        if (ranges == starts.length) {
+            starts = Arrays.copyOf(starts, ranges * 2);
+            functions = Arrays.copyOf(functions, ranges * 2);
+            kinds = Arrays.copyOf(kinds, ranges * 2);
+        }
+        starts[ranges] = start;
+        functions[ranges] = functionId;
+        kinds[ranges] = kindId;
+        ranges++;
+    }
+}
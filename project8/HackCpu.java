@@ -0,0 +1,108 @@
+/**
+ * Executes Hack machine code, counting how many times each instruction runs.
+ *
+ * <p>The CPU starts at address 0 with all registers and RAM zero, like the
+ * CPU emulator of the course. It stops after a given number of cycles, when
+ * the program counter leaves the ROM, or at the idiom ending every program,
+ * {@code (L) @L 0;JMP}: an unconditional jump without destination to the
+ * A-instruction just before it, which loads its own address. The data memory follows {@code Memory.hdl}:
+ * writes at or past the keyboard are ignored, so those addresses read 0, as
+ * the keyboard does with no key pressed. Up to halting it executes like the
+ * simulator's {@code HackEmulator}, which {@code test/HackCpuTest} checks.</p>
+ */
+public class HackCpu {
+    private static final int RAM_SIZE = 32768;
+    private static final int KEYBOARD = 24576;
+
+    private final short[] rom;
+    private final long[] counts;
+    private final int[] ram = new int[RAM_SIZE];
+    private long cycles;
+    private boolean halted;
+
+    /**
+     * @param rom the instructions, as assembled by a {@link HackEncoder}
+     */
+    public HackCpu(short[] rom) {
+        this.rom = rom;
+        counts = new long[rom.length];
+    }
+
+    /**
+     * @return the RAM, as 16-bit values; may be changed before {@link #run(long)}
+     */
+    public int[] getRam() {
+        return ram;
+    }
+
+    /**
+     * @return the number of times each instruction was executed, indexed by address
+     */
+    public long[] getCounts() {
+        return counts;
+    }
+
+    /**
+     * @return the number of instructions executed
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * @return {@code true} if the program ended, {@code false} if it ran out of cycles
+     */
+    public boolean isHalted() {
+        return halted;
+    }
+
+    /**
+     * Runs the program from address 0.
+     *
+     * @param maxCycles the maximum number of instructions to execute
+     */
+    public void run(long maxCycles) {
+        int a = 0;
+        int d = 0;
+        int pc = 0;
+        long cycle = 0;
+        while (cycle < maxCycles) {
+            if (pc >= rom.length) {
+                halted = true;
+                break;
+            }
+            int instruction = rom[pc] & 0xFFFF;
+            counts[pc]++;
+            cycle++;
+            if ((instruction & 0x8000) == 0) {
+                a = instruction;
+                pc++;
+                continue;
+            }
+
+            int x = d;
+            int y = (instruction & 0x1000) != 0 ? ram[a & 0x7FFF] : a;
+            if ((instruction & 0x0800) != 0) x = 0;
+            if ((instruction & 0x0400) != 0) x = ~x;
+            if ((instruction & 0x0200) != 0) y = 0;
+            if ((instruction & 0x0100) != 0) y = ~y;
+            int out = (instruction & 0x0080) != 0 ? x + y : x & y;
+            if ((instruction & 0x0040) != 0) out = ~out;
+            out = (short) out;
+
+            int jump = instruction & 0x7;
+            boolean taken = (out < 0 && (jump & 4) != 0) || (out == 0 && (jump & 2) != 0)
+                    || (out > 0 && (jump & 1) != 0);
+            if (jump == 7 && (instruction & 0x38) == 0 && a == pc - 1 && (rom[a] & 0xFFFF) == a) {
+                halted = true;
+                break;
+            }
+            int target = a & 0x7FFF;
+            if ((instruction & 0x08) != 0 && target < KEYBOARD) ram[target] = out;
+            if ((instruction & 0x20) != 0) a = out & 0xFFFF;
+            if ((instruction & 0x10) != 0) d = out;
+            pc = taken ? target : pc + 1;
+        }
+        cycles = cycle;
+    }
+}
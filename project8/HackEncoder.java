@@ -0,0 +1,287 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assembles the Hack assembly a {@link CodeWriter} writes, as ASCII bytes, into machine words as it is written.
+ *
+ * <p>Each line is encoded as soon as it is complete, into a growing word buffer;
+ * no assembly text is kept or read back. Labels are recorded at their address,
+ * and a symbol used before it is known is patched when the writer is closed:
+ * with the label's address if it was defined later, otherwise with the next
+ * free variable address from 16, in order of first use, as the assembler of
+ * project 6 does. The assembly can also be copied to a listing as it goes
+ * through.</p>
+ */
+public class HackEncoder extends OutputStream {
+    private static final int FIRST_VARIABLE = 16;
+
+    private final OutputStream listing;
+    private final StringBuilder line = new StringBuilder();
+    private final Map<String, Integer> symbols = new HashMap<>();
+    private final List<String> unresolvedSymbols = new ArrayList<>();
+    private final List<Integer> unresolvedAddresses = new ArrayList<>();
+    private short[] words = new short[1 << 12];
+    private int size;
+    private boolean closed;
+
+    /**
+     * @param listing a stream the assembly is copied to, or {@code null} for none
+     */
+    public HackEncoder(OutputStream listing) {
+        this.listing = listing;
+        for (int i = 0; i <= 15; i++) {
+            symbols.put("R" + i, i);
+        }
+        symbols.put("SP", 0);
+        symbols.put("LCL", 1);
+        symbols.put("ARG", 2);
+        symbols.put("THIS", 3);
+        symbols.put("THAT", 4);
+        symbols.put("SCREEN", 16384);
+        symbols.put("KBD", 24576);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Encoder closed");
+        }
+        if (listing != null) {
+            listing.write(buffer, offset, length);
+        }
+        for (int i = offset; i < offset + length; i++) {
+            char c = (char) (buffer[i] & 0xFF);
+            if (c == '\n') {
+                encodeLine();
+            } else if (c != '\r') {
+                line.append(c);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (listing != null) {
+            listing.flush();
+        }
+    }
+
+    /**
+     * Encodes the last line, resolves the symbols still unknown and closes the listing.
+     *
+     * @throws IllegalArgumentException if a line is not a valid instruction
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        encodeLine();
+        int nextVariable = FIRST_VARIABLE;
+        for (int i = 0; i < unresolvedSymbols.size(); i++) {
+            String symbol = unresolvedSymbols.get(i);
+            Integer address = symbols.get(symbol);
+            if (address == null) {
+                address = nextVariable++;
+                symbols.put(symbol, address);
+            }
+            words[unresolvedAddresses.get(i)] = (short) (int) address;
+        }
+        if (listing != null) {
+            listing.close();
+        }
+    }
+
+    /**
+     * @return the number of instructions encoded
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the encoded instructions; symbols are resolved once the encoder is closed
+     */
+    public short[] getWords() {
+        return Arrays.copyOf(words, size);
+    }
+
+    /**
+     * Writes the instructions as a {@code .hack} file: one line of 16 binary digits each.
+     *
+     * @param file the output file
+     * @throws IOException if writing fails
+     */
+    public void writeHack(File file) throws IOException {
+        char[] digits = new char[17];
+        digits[16] = '\n';
+        try (Writer out = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            for (int i = 0; i < size; i++) {
+                int word = words[i];
+                for (int bit = 0; bit < 16; bit++) {
+                    digits[bit] = (word & (0x8000 >>> bit)) != 0 ? '1' : '0';
+                }
+                out.write(digits);
+            }
+        }
+    }
+
+    /**
+     * Writes the instructions as a binary file: two bytes each, most significant first.
+     *
+     * @param file the output file
+     * @throws IOException if writing fails
+     */
+    public void writeBin(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            for (int i = 0; i < size; i++) {
+                out.writeShort(words[i]);
+            }
+        }
+    }
+
+    private void encodeLine() {
+        int length = line.length();
+        if (length == 0 || line.charAt(0) == '/') {
+            line.setLength(0);
+            return;
+        }
+        if (line.charAt(0) == '(') {
+            if (line.charAt(length - 1) != ')') {
+                throw invalid();
+            }
+            String label = line.substring(1, length - 1);
+            if (symbols.putIfAbsent(label, size) != null) {
+                throw new IllegalArgumentException("Duplicate label: " + label);
+            }
+        } else if (line.charAt(0) == '@') {
+            emit(encodeAddress());
+        } else {
+            emit(encodeComputation());
+        }
+        line.setLength(0);
+    }
+
+    private int encodeAddress() {
+        if (line.length() < 2) {
+            throw invalid();
+        }
+        char first = line.charAt(1);
+        if (first >= '0' && first <= '9') {
+            int value = 0;
+            for (int i = 1; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c < '0' || c > '9' || value > 32767) {
+                    throw invalid();
+                }
+                value = value * 10 + (c - '0');
+            }
+            if (value > 32767) {
+                throw invalid();
+            }
+            return value;
+        }
+        String symbol = line.substring(1);
+        Integer address = symbols.get(symbol);
+        if (address != null) {
+            return address;
+        }
+        unresolvedSymbols.add(symbol);
+        unresolvedAddresses.add(size);
+        return 0;
+    }
+
+    private int encodeComputation() {
+        String instruction = line.toString();
+        int equals = instruction.indexOf('=');
+        int semicolon = instruction.indexOf(';');
+        if (semicolon >= 0 && semicolon < equals) {
+            throw invalid();
+        }
+        int compEnd = semicolon < 0 ? instruction.length() : semicolon;
+        int dest = 0;
+        for (int i = 0; i < equals; i++) {
+            int bit = switch (instruction.charAt(i)) {
+                case 'A' -> 4;
+                case 'D' -> 2;
+                case 'M' -> 1;
+                default -> throw invalid();
+            };
+            if ((dest & bit) != 0) {
+                throw invalid();
+            }
+            dest |= bit;
+        }
+        int jump = semicolon < 0 ? 0 : switch (instruction.substring(semicolon + 1)) {
+            case "JGT" -> 1;
+            case "JEQ" -> 2;
+            case "JGE" -> 3;
+            case "JLT" -> 4;
+            case "JNE" -> 5;
+            case "JLE" -> 6;
+            case "JMP" -> 7;
+            default -> throw invalid();
+        };
+        int comp = switch (instruction.substring(equals + 1, compEnd)) {
+            case "0" -> 0b0101010;
+            case "1" -> 0b0111111;
+            case "-1" -> 0b0111010;
+            case "D" -> 0b0001100;
+            case "A" -> 0b0110000;
+            case "M" -> 0b1110000;
+            case "!D" -> 0b0001101;
+            case "!A" -> 0b0110001;
+            case "!M" -> 0b1110001;
+            case "-D" -> 0b0001111;
+            case "-A" -> 0b0110011;
+            case "-M" -> 0b1110011;
+            case "D+1" -> 0b0011111;
+            case "A+1" -> 0b0110111;
+            case "M+1" -> 0b1110111;
+            case "D-1" -> 0b0001110;
+            case "A-1" -> 0b0110010;
+            case "M-1" -> 0b1110010;
+            case "D+A", "A+D" -> 0b0000010;
+            case "D+M", "M+D" -> 0b1000010;
+            case "D-A" -> 0b0010011;
+            case "D-M" -> 0b1010011;
+            case "A-D" -> 0b0000111;
+            case "M-D" -> 0b1000111;
+            case "D&A", "A&D" -> 0b0000000;
+            case "D&M", "M&D" -> 0b1000000;
+            case "D|A", "A|D" -> 0b0010101;
+            case "D|M", "M|D" -> 0b1010101;
+            default -> throw invalid();
+        };
+        return 0b111 << 13 | comp << 6 | dest << 3 | jump;
+    }
+
+    private void emit(int word) {
+        if (size == words.length) {
+            words = Arrays.copyOf(words, size * 2);
+        }
+        words[size++] = (short) word;
+    }
+
+    private IllegalArgumentException invalid() {
+        return new IllegalArgumentException("Invalid instruction: " + line);
+    }
+}
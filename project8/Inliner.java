@@ -0,0 +1,353 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces calls to small functions of a whole VM program with their bodies.
+ *
+ * <p>A function is inlined if, once the calls in its own body have been
+ * inlined, its body has no calls left, is at most {@code maxCommands}
+ * commands long, and keeps a consistent stack depth, returning with exactly
+ * its return value on the stack. Recursive functions always keep a call and
+ * are never inlined. A body that uses the {@code static} segment is only
+ * inlined in the file that defines it, whose statics it refers to.</p>
+ *
+ * <p>An inlined body takes its arguments off the stack into the
+ * {@link Segment#INLINE} segment, followed by its locals; {@code argument}
+ * and {@code local} become that segment, so there is no frame to save or
+ * restore. As an inlined body makes no calls, two bodies are never live at
+ * once unless one is inlined in the other, and the words of a function
+ * start after those of the bodies inlined in it. Its labels are renamed for
+ * each call site, a {@code return} becomes a jump to its end, and if the
+ * body sets {@code pointer 0} or {@code pointer 1}, the caller's value is
+ * saved and restored as a return would.</p>
+ *
+ * <p>For example, {@code call Point.getX 1} to
+ * {@code push argument 0; pop pointer 0; push this 0; return} becomes
+ * {@code pop inline 0; push pointer 0; pop inline 1; push inline 0; pop pointer 0;
+ * push this 0; push inline 1; pop pointer 0}.</p>
+ */
+public class Inliner {
+    private final SymbolTable symbols;
+    private final int maxCommands;
+    private final Map<Integer, List<VmCommand>> bodies = new HashMap<>();
+    private final Map<Integer, Integer> functionFiles = new HashMap<>();
+    private final Map<List<VmCommand>, Integer> files = new IdentityHashMap<>();
+    private final Map<Integer, Inlinable> inlinable = new HashMap<>();
+    private final Set<Integer> expanded = new HashSet<>();
+    private final Set<Integer> written = new HashSet<>();
+    private int sites;
+    private final Set<Integer> inlinedFunctions = new HashSet<>();
+
+    /**
+     * A function that can be inlined.
+     */
+    private static final class Inlinable {
+        /** Its body after inlining, without the {@code function} command. */
+        final List<VmCommand> body;
+        final int locals;
+        /** The first word of the inline segment it uses. */
+        final int base;
+        /** One more than the highest argument index it uses. */
+        final int arguments;
+        final boolean savesThis;
+        final boolean savesThat;
+        final boolean usesStatics;
+
+        Inlinable(List<VmCommand> body, int locals, int base, int arguments, boolean savesThis, boolean savesThat,
+                  boolean usesStatics) {
+            this.body = body;
+            this.locals = locals;
+            this.base = base;
+            this.arguments = arguments;
+            this.savesThis = savesThis;
+            this.savesThat = savesThat;
+            this.usesStatics = usesStatics;
+        }
+
+        /**
+         * @return the number of words of the inline segment used by a call with the given number of arguments
+         */
+        int width(int nArgs) {
+            return nArgs + locals + (savesThis ? 1 : 0) + (savesThat ? 1 : 0);
+        }
+    }
+
+    /**
+     * @param symbols     the table the commands' symbols belong to; renamed labels are interned in it
+     * @param maxCommands the maximum number of commands of an inlined body
+     */
+    public Inliner(SymbolTable symbols, int maxCommands) {
+        this.symbols = symbols;
+        this.maxCommands = maxCommands;
+    }
+
+    /**
+     * @return the number of calls replaced so far
+     */
+    public int getInlinedCalls() {
+        return sites;
+    }
+
+    /**
+     * @return the number of distinct functions inlined so far
+     */
+    public int getInlinedFunctions() {
+        return inlinedFunctions.size();
+    }
+
+    /**
+     * Adds the functions of one file. All files must be added before the first {@link #inline(List)}.
+     *
+     * @param commands the commands of the file
+     */
+    public void addFile(List<VmCommand> commands) {
+        int file = files.size();
+        files.put(commands, file);
+        List<VmCommand> body = null;
+        for (VmCommand command : commands) {
+            if (command.getOpcode() == Opcode.FUNCTION) {
+                body = new ArrayList<>();
+                if (bodies.putIfAbsent(command.getSymbol(), body) == null) {
+                    functionFiles.put(command.getSymbol(), file);
+                }
+            }
+            if (body != null) {
+                body.add(command);
+            }
+        }
+    }
+
+    /**
+     * Inlines the calls in the commands of a file added with {@link #addFile(List)}.
+     *
+     * @param commands the commands of the file, the list passed to {@link #addFile(List)}
+     * @return the commands with inlined calls
+     */
+    public List<VmCommand> inline(List<VmCommand> commands) {
+        Integer file = files.get(commands);
+        if (file == null) {
+            throw new IllegalArgumentException("File not added to the inliner");
+        }
+        List<VmCommand> result = new ArrayList<>(commands.size());
+        int start = 0;
+        for (int i = 1; i <= commands.size(); i++) {
+            if (i < commands.size() && commands.get(i).getOpcode() != Opcode.FUNCTION) {
+                continue;
+            }
+            List<VmCommand> part = commands.subList(start, i);
+            VmCommand first = part.get(0);
+            if (first.getOpcode() == Opcode.FUNCTION && written.add(first.getSymbol())) {
+                expand(first.getSymbol());
+                result.addAll(bodies.get(first.getSymbol()));
+            } else {
+                // Commands before the first function, or a function defined twice
+                result.addAll(expandCalls(part, file, new int[1]));
+            }
+            start = i;
+        }
+        return result;
+    }
+
+    /**
+     * Inlines the calls in a function's body, first in the bodies of the
+     * functions it calls, and records whether it can be inlined in turn.
+     */
+    private void expand(int function) {
+        if (!expanded.add(function)) {
+            // Done, or a recursive call being expanded
+            return;
+        }
+        List<VmCommand> body = bodies.get(function);
+        int[] base = new int[1];
+        List<VmCommand> result = expandCalls(body, functionFiles.get(function), base);
+        bodies.put(function, result);
+
+        List<VmCommand> inner = result.subList(1, result.size());
+        if (inner.size() > maxCommands || !hasBalancedStack(inner)) {
+            return;
+        }
+        int arguments = 0;
+        boolean savesThis = false;
+        boolean savesThat = false;
+        boolean usesStatics = false;
+        for (VmCommand command : inner) {
+            if (command.getOpcode() == Opcode.CALL) {
+                return;
+            }
+            if (command.getSegment() == Segment.ARGUMENT) {
+                arguments = Math.max(arguments, command.getIndex() + 1);
+            }
+            if (command.getOpcode() == Opcode.POP && command.getSegment() == Segment.POINTER) {
+                savesThis |= command.getIndex() == 0;
+                savesThat |= command.getIndex() == 1;
+            }
+            usesStatics |= command.getSegment() == Segment.STATIC;
+        }
+        inlinable.put(function, new Inlinable(inner, result.get(0).getIndex(), base[0], arguments,
+                savesThis, savesThat, usesStatics));
+    }
+
+    /**
+     * Replaces the calls to inlinable functions in a sequence of commands.
+     *
+     * @param file the file the commands are in
+     * @param base receives the first inline segment word free after the inlined bodies
+     */
+    private List<VmCommand> expandCalls(List<VmCommand> commands, int file, int[] base) {
+        List<VmCommand> result = null;
+        for (int i = 0; i < commands.size(); i++) {
+            VmCommand command = commands.get(i);
+            Inlinable callee = null;
+            if (command.getOpcode() == Opcode.CALL && bodies.containsKey(command.getSymbol())) {
+                expand(command.getSymbol());
+                callee = inlinable.get(command.getSymbol());
+            }
+            if (callee != null && callee.arguments <= command.getIndex()
+                    && (!callee.usesStatics || functionFiles.get(command.getSymbol()) == file)) {
+                if (result == null) {
+                    result = new ArrayList<>(commands.subList(0, i));
+                }
+                splice(command, callee, result);
+                base[0] = Math.max(base[0], callee.base + callee.width(command.getIndex()));
+            } else if (result != null) {
+                result.add(command);
+            }
+        }
+        return result == null ? commands : result;
+    }
+
+    /**
+     * Appends the body of a function in place of a call to it.
+     */
+    private void splice(VmCommand call, Inlinable callee, List<VmCommand> out) {
+        int site = sites++;
+        inlinedFunctions.add(call.getSymbol());
+        String prefix = symbols.getName(call.getSymbol()) + "$" + site + "$";
+        int nArgs = call.getIndex();
+        int localBase = callee.base + nArgs;
+        int saveBase = localBase + callee.locals;
+
+        for (int i = nArgs - 1; i >= 0; i--) {
+            out.add(pop(callee.base + i));
+        }
+        for (int i = 0; i < callee.locals; i++) {
+            out.add(new VmCommand(Opcode.PUSH, Segment.CONSTANT, 0, -1));
+            out.add(pop(localBase + i));
+        }
+        int save = saveBase;
+        for (int pointer = 0; pointer < 2; pointer++) {
+            if (pointer == 0 ? callee.savesThis : callee.savesThat) {
+                out.add(new VmCommand(Opcode.PUSH, Segment.POINTER, pointer, -1));
+                out.add(pop(save++));
+            }
+        }
+
+        int end = symbols.intern(prefix + "END");
+        boolean jumpsToEnd = false;
+        List<VmCommand> body = callee.body;
+        for (int i = 0; i < body.size(); i++) {
+            VmCommand command = body.get(i);
+            switch (command.getOpcode()) {
+                case PUSH, POP -> {
+                    int index = switch (command.getSegment()) {
+                        case ARGUMENT -> callee.base + command.getIndex();
+                        case LOCAL -> localBase + command.getIndex();
+                        default -> -1;
+                    };
+                    out.add(index < 0 ? command : new VmCommand(command.getOpcode(), Segment.INLINE, index, -1));
+                }
+                case LABEL, GOTO, IF_GOTO -> out.add(new VmCommand(command.getOpcode(), null, 0,
+                        symbols.intern(prefix + symbols.getName(command.getSymbol()))));
+                case RETURN -> {
+                    if (i < body.size() - 1) {
+                        out.add(new VmCommand(Opcode.GOTO, null, 0, end));
+                        jumpsToEnd = true;
+                    }
+                }
+                default -> out.add(command);
+            }
+        }
+        if (jumpsToEnd) {
+            out.add(new VmCommand(Opcode.LABEL, null, 0, end));
+        }
+        save = saveBase;
+        for (int pointer = 0; pointer < 2; pointer++) {
+            if (pointer == 0 ? callee.savesThis : callee.savesThat) {
+                out.add(new VmCommand(Opcode.PUSH, Segment.INLINE, save++, -1));
+                out.add(new VmCommand(Opcode.POP, Segment.POINTER, pointer, -1));
+            }
+        }
+    }
+
+    private static VmCommand pop(int index) {
+        return new VmCommand(Opcode.POP, Segment.INLINE, index, -1);
+    }
+
+    /**
+     * Checks that every path through a body has one stack depth at each
+     * command, never goes below the depth at entry, and reaches a
+     * {@code return} with exactly one value on the stack.
+     */
+    private static boolean hasBalancedStack(List<VmCommand> body) {
+        Map<Integer, Integer> labels = new HashMap<>();
+        for (int i = 0; i < body.size(); i++) {
+            if (body.get(i).getOpcode() == Opcode.LABEL) {
+                labels.put(body.get(i).getSymbol(), i);
+            }
+        }
+        int[] depths = new int[body.size()];
+        Arrays.fill(depths, -1);
+        Deque<int[]> pending = new ArrayDeque<>();
+        pending.push(new int[]{0, 0});
+        while (!pending.isEmpty()) {
+            int[] state = pending.pop();
+            int i = state[0];
+            int depth = state[1];
+            if (i >= body.size() || depth < 0) {
+                // Runs off the end or below its frame
+                return false;
+            }
+            if (depths[i] >= 0) {
+                if (depths[i] != depth) {
+                    return false;
+                }
+                continue;
+            }
+            depths[i] = depth;
+            VmCommand command = body.get(i);
+            switch (command.getOpcode()) {
+                case PUSH -> pending.push(new int[]{i + 1, depth + 1});
+                case POP, ADD, SUB, AND, OR, EQ, GT, LT -> pending.push(new int[]{i + 1, depth - 1});
+                case NEG, NOT, LABEL -> pending.push(new int[]{i + 1, depth});
+                case GOTO, IF_GOTO -> {
+                    Integer target = labels.get(command.getSymbol());
+                    if (target == null) {
+                        return false;
+                    }
+                    int next = command.getOpcode() == Opcode.GOTO ? depth : depth - 1;
+                    pending.push(new int[]{target, next});
+                    if (command.getOpcode() == Opcode.IF_GOTO) {
+                        pending.push(new int[]{i + 1, next});
+                    }
+                }
+                case RETURN -> {
+                    if (depth != 1) {
+                        return false;
+                    }
+                }
+                default -> {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
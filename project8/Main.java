@@ -1,5 +1,21 @@
-import java.io.*;
-import java.util.Scanner;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -7,6 +23,18 @@ import java.util.Scanner;
  */
 public class Main {
     private static CodeWriter codeWriter;
+    private static SymbolTable symbols;
+    private static PeepholeOptimizer optimizer;
+    private static boolean peephole;
+
+    /** The maximum size of an inlined function body with {@code -inline} and no size. */
+    private static final int DEFAULT_MAX_INLINED = 8;
+
+    /** The maximum number of commands executed with {@code -run} and no number. */
+    private static final long DEFAULT_MAX_STEPS = 1_000_000_000L;
+
+    /** The maximum number of instructions executed with {@code -profile} and no number. */
+    private static final long DEFAULT_MAX_CYCLES = 1_000_000_000L;
 
     /**
      * Main entry point for the VM translator.
@@ -19,21 +47,142 @@ public class Main {
      * <p>If the input includes a `Sys.vm` file or is `Sys.vm` directly, bootstrap code is generated to initialize
      * the stack and call `Sys.init`.</p>
      *
+     * <p>Options after the input:
+     * <ul>
+     *   <li>{@code -size}: optimise for code size; calls, returns, comparisons and the local
+     *       initialisation of functions jump to shared routines (see
+     *       {@link CodeWriter#setSharedCalls(boolean)}, {@link CodeWriter#setSharedComparisons(boolean)}
+     *       and {@link CodeWriter#setSharedLocals(boolean)}).</li>
+     *   <li>{@code -peephole}: fuse short push/pop/arithmetic sequences (see {@link PeepholeOptimizer}).</li>
+     *   <li>{@code -tos}: keep the top of the stack in D between commands
+     *       (see {@link CodeWriter#setCacheTop(boolean)}).</li>
+     *   <li>{@code -parallel}: translate the files of a directory concurrently
+     *       (see {@link #translateDirectoryInParallel(File)}).</li>
+     *   <li>{@code -pipeline}: translate in concurrent stages for reading, parsing, code generation
+     *       and writing (see {@link TranslationPipeline}); combines only with {@code -size},
+     *       {@code -peephole} and {@code -tos}.</li>
+     *   <li>{@code -dce}: translate the input as a whole program, leaving out the functions
+     *       {@code Sys.init} can never call (see {@link #translateWholeProgram(File, boolean, boolean, int)}).</li>
+     *   <li>{@code -inline[=n]}: translate the input as a whole program, replacing calls to functions
+     *       of at most {@code n} commands (default {@value #DEFAULT_MAX_INLINED}) with their bodies
+     *       (see {@link Inliner}).</li>
+     *   <li>{@code -hack}, {@code -bin}: assemble in process (see {@link HackEncoder}) and write a
+     *       {@code .hack} file of binary digits, or a {@code .bin} file of 16-bit words, instead of
+     *       the {@code .asm} file.</li>
+     *   <li>{@code -listing}: with {@code -hack} or {@code -bin}, also write the {@code .asm} file.</li>
+     *   <li>{@code -run[=steps]}: execute the program with a {@link VmInterpreter} instead of
+     *       translating it, for at most {@code steps} commands (default {@value #DEFAULT_MAX_STEPS}).</li>
+     *   <li>{@code -report}: print the number of Hack instructions emitted per function and per kind
+     *       of command (see {@link CostReport}).</li>
+     *   <li>{@code -profile[=cycles]}: also run the assembled program on a {@link HackCpu}, for at most
+     *       {@code cycles} instructions (default {@value #DEFAULT_MAX_CYCLES}), and report the
+     *       instructions executed as well.</li>
+     * </ul>
+     *
      * @param args Command-line arguments. The first argument must be the file or directory to process.
      */
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: java Main <fileOrDirectory>");
+        if (args.length < 1) {
+            System.out.println("Usage: java Main <fileOrDirectory> [-size] [-peephole] [-tos] [-parallel] [-pipeline] [-dce] [-inline[=n]] [-hack] [-bin] [-listing] [-run[=steps]] [-report] [-profile[=cycles]]");
             return;
         }
 
+        boolean size = false;
+        boolean tos = false;
+        boolean parallel = false;
+        boolean pipelined = false;
+        boolean dce = false;
+        int maxInlined = 0;
+        boolean hack = false;
+        boolean bin = false;
+        boolean listing = false;
+        long maxSteps = 0;
+        boolean report = false;
+        long maxCycles = 0;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "-size" -> size = true;
+                case "-peephole" -> peephole = true;
+                case "-tos" -> tos = true;
+                case "-parallel" -> parallel = true;
+                case "-pipeline" -> pipelined = true;
+                case "-dce" -> dce = true;
+                case "-inline" -> maxInlined = DEFAULT_MAX_INLINED;
+                case "-hack" -> hack = true;
+                case "-bin" -> bin = true;
+                case "-listing" -> listing = true;
+                case "-run" -> maxSteps = DEFAULT_MAX_STEPS;
+                case "-report" -> report = true;
+                case "-profile" -> maxCycles = DEFAULT_MAX_CYCLES;
+                default -> {
+                    if (args[i].matches("-inline=[1-9][0-9]{0,3}")) {
+                        maxInlined = Integer.parseInt(args[i].substring("-inline=".length()));
+                    } else if (args[i].matches("-run=[1-9][0-9]{0,17}")) {
+                        maxSteps = Long.parseLong(args[i].substring("-run=".length()));
+                    } else if (args[i].matches("-profile=[1-9][0-9]{0,17}")) {
+                        maxCycles = Long.parseLong(args[i].substring("-profile=".length()));
+                    } else {
+                        System.out.println("Unknown option: " + args[i]);
+                        return;
+                    }
+                }
+            }
+        }
+
         File inputFile = new File(args[0]);
         if (!inputFile.exists()) {
             System.out.println("File not found: " + args[0]);
             return;
         }
 
-        codeWriter = new CodeWriter(inputFile);
+        if (pipelined && (parallel || dce || maxInlined > 0 || hack || bin || report || maxCycles > 0
+                || maxSteps > 0)) {
+            System.out.println("-pipeline combines only with -size, -peephole and -tos");
+            return;
+        }
+
+        symbols = new SymbolTable();
+        if (maxSteps > 0) {
+            runProgram(inputFile, maxSteps);
+            return;
+        }
+        HackEncoder encoder = null;
+        TranslationPipeline pipeline = null;
+        if (pipelined) {
+            File asmFile = CodeWriter.outputFile(inputFile, ".asm");
+            try {
+                pipeline = new TranslationPipeline(asmFile);
+            } catch (IOException e) {
+                System.err.println("Error creating output file: " + e.getMessage());
+                return;
+            }
+            codeWriter = new CodeWriter(pipeline.getOutput(), asmFile.getName(), symbols);
+        } else if (hack || bin || maxCycles > 0) {
+            // Profiling without -hack or -bin still writes the .asm file
+            File asmFile = CodeWriter.outputFile(inputFile, ".asm");
+            try {
+                encoder = new HackEncoder(listing || !(hack || bin)
+                        ? new BufferedOutputStream(new FileOutputStream(asmFile), 1 << 16) : null);
+            } catch (IOException e) {
+                System.err.println("Error creating output file: " + e.getMessage());
+                return;
+            }
+            codeWriter = new CodeWriter(encoder, asmFile.getName(), symbols);
+        } else {
+            codeWriter = new CodeWriter(inputFile, symbols);
+        }
+        codeWriter.setSharedCalls(size);
+        codeWriter.setSharedComparisons(size);
+        codeWriter.setSharedLocals(size);
+        codeWriter.setCacheTop(tos);
+        CostReport costReport = null;
+        if (report || maxCycles > 0) {
+            costReport = new CostReport();
+            codeWriter.setCostReport(costReport);
+        }
+        if (peephole) {
+            optimizer = new PeepholeOptimizer(codeWriter);
+        }
 
         // If we need to write bootstrap code:
         // Write bootstrap code if:
@@ -65,13 +214,99 @@ public class Main {
         }
 
         // Translate files
-        if (inputFile.isDirectory()) {
-            translateDirectory(inputFile);
-        } else {
-            translateFile(inputFile);
+        boolean translated = true;
+        try {
+            if (pipeline != null) {
+                pipeline.run(programFiles(inputFile), codeWriter, symbols, optimizer);
+            } else if (dce || maxInlined > 0) {
+                translated = translateWholeProgram(inputFile, parallel, dce, maxInlined);
+            } else if (inputFile.isDirectory() && parallel) {
+                translated = translateDirectoryInParallel(inputFile);
+            } else if (inputFile.isDirectory()) {
+                translateDirectory(inputFile);
+            } else {
+                translateFile(inputFile);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            translated = false;
+        } catch (IOException e) {
+            System.err.println("Error reading input file: " + e.getMessage());
+            translated = false;
+        }
+
+        // The files this translation writes, removed again if it fails
+        List<File> outputs = new ArrayList<>();
+        if (encoder == null || listing || !(hack || bin)) {
+            outputs.add(CodeWriter.outputFile(inputFile, ".asm"));
+        }
+        if (hack) {
+            outputs.add(CodeWriter.outputFile(inputFile, ".hack"));
+        }
+        if (bin) {
+            outputs.add(CodeWriter.outputFile(inputFile, ".bin"));
+        }
+        if (!translated) {
+            abandon(outputs);
+        }
+
+        try {
+            codeWriter.close();
+        } catch (IllegalArgumentException e) {
+            // An instruction the encoder rejected, such as a label defined twice
+            System.err.println(e.getMessage());
+            abandon(outputs);
+        }
+
+        if (maxCycles > 0) {
+            HackCpu cpu = new HackCpu(encoder.getWords());
+            if (!writeInit) {
+                // Without bootstrap code, start with the stack where the course's test scripts put it
+                cpu.getRam()[0] = 256;
+            }
+            cpu.run(maxCycles);
+            System.out.println((cpu.isHalted() ? "Halted" : "Stopped") + " after " + cpu.getCycles()
+                    + " cycles, SP = " + cpu.getRam()[0]);
+            costReport.setExecutionCounts(cpu.getCounts());
+        }
+        if (costReport != null) {
+            costReport.print(System.out);
+        }
+
+        if (encoder != null) {
+            if (encoder.getSize() > 32768) {
+                System.out.println("Warning: " + encoder.getSize() + " instructions do not fit in the 32K ROM");
+            }
+            try {
+                if (hack) {
+                    encoder.writeHack(CodeWriter.outputFile(inputFile, ".hack"));
+                }
+                if (bin) {
+                    encoder.writeBin(CodeWriter.outputFile(inputFile, ".bin"));
+                }
+            } catch (IOException e) {
+                System.err.println("Error writing output file: " + e.getMessage());
+            }
         }
+    }
 
-        codeWriter.close();
+    /**
+     * Ends a translation that failed: closes the output, deletes the files written so far and
+     * exits with status 1.
+     *
+     * @param outputs the files the translation writes
+     */
+    private static void abandon(List<File> outputs) {
+        try {
+            codeWriter.close();
+        } catch (IllegalArgumentException | UncheckedIOException e) {
+            // The output is deleted anyway
+        }
+        for (File output : outputs) {
+            output.delete();
+        }
+        System.err.println("No output written");
+        System.exit(1);
     }
 
     /**
@@ -81,8 +316,10 @@ public class Main {
      * any `.vm` files encountered. For each file, {@link #translateFile(File)} is called.</p>
      *
      * @param directory The input directory containing `.vm` files
+     * @throws IllegalArgumentException if a line of a file is invalid
+     * @throws IOException              if a file cannot be read
      */
-    private static void translateDirectory(File directory) {
+    private static void translateDirectory(File directory) throws IOException {
         File[] files = directory.listFiles();
         if (files == null) return;
         for (File file : files) {
@@ -97,54 +334,321 @@ public class Main {
     }
 
 
+    /**
+     * Translates all `.vm` files in a given directory and its subdirectories on a thread pool.
+     *
+     * <p>Each file is translated into memory by its own {@link CodeWriter#forFile(String, String, SymbolTable)
+     * writer}, whose labels are namespaced by the file's path in the directory (see
+     * {@link #partName(File, File)}), and the results are appended in the order of the files' paths,
+     * so the output does not depend on the scheduling of the threads.</p>
+     *
+     * @param directory The input directory containing `.vm` files
+     * @return {@code false} if a file could not be translated
+     */
+    private static boolean translateDirectoryInParallel(File directory) {
+        List<File> files = new ArrayList<>();
+        collectVmFiles(directory, files);
+        files.sort(Comparator.comparing(File::getPath));
+        return translateInParallel(directory, files, null);
+    }
+
+    /**
+     * Translates files on a thread pool, each into memory by its own writer, and appends the
+     * results in the order of the list.
+     *
+     * @param input   the input file or directory
+     * @param files   the `.vm` files
+     * @param program the parsed commands of each file, all interned in {@link #symbols},
+     *                or {@code null} to parse the files in the pool
+     * @return {@code false} if a file could not be translated, in which case nothing is appended
+     * @throws IllegalArgumentException if two files would generate the same labels
+     */
+    private static boolean translateInParallel(File input, List<File> files, Map<File, List<VmCommand>> program) {
+        Map<String, File> partFiles = new HashMap<>();
+        for (File file : files) {
+            File other = partFiles.put(partName(input, file), file);
+            if (other != null) {
+                throw new IllegalArgumentException(other + " and " + file + " would generate the same labels");
+            }
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<CodeWriter>> parts = new ArrayList<>();
+            for (File file : files) {
+                parts.add(pool.submit(() -> {
+                    String asmFileName = file.getName().replace(".vm", ".asm");
+                    String partName = partName(input, file);
+                    if (program == null) {
+                        SymbolTable fileSymbols = new SymbolTable();
+                        CodeWriter part = codeWriter.forFile(asmFileName, partName, fileSymbols);
+                        translate(file, fileSymbols, part, peephole ? new PeepholeOptimizer(part) : null);
+                        return part;
+                    }
+                    CodeWriter part = codeWriter.forFile(asmFileName, partName, symbols);
+                    write(program.get(file), part, peephole ? new PeepholeOptimizer(part) : null);
+                    return part;
+                }));
+            }
+            // Every file must be translated before any is appended, so a failure appends nothing
+            List<CodeWriter> translated = new ArrayList<>();
+            boolean failed = false;
+            for (int i = 0; i < parts.size(); i++) {
+                try {
+                    translated.add(parts.get(i).get());
+                } catch (ExecutionException e) {
+                    // Invalid lines are reported with the file's name already
+                    Throwable cause = e.getCause();
+                    System.err.println(cause instanceof IllegalArgumentException ? cause.getMessage()
+                            : files.get(i).getName() + ": " + cause);
+                    failed = true;
+                }
+            }
+            if (failed) {
+                return false;
+            }
+            for (CodeWriter part : translated) {
+                codeWriter.append(part);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Translation interrupted");
+            return false;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the prefix of the labels generated for a file translated in parallel: its path in
+     * the input directory without the extension, with dots between the names, such as
+     * {@code Main} or {@code lib.Math}, and any character a Hack symbol cannot contain
+     * replaced by an underscore.
+     *
+     * @param input the input file or directory
+     * @param file  a `.vm` file of the input
+     * @return the prefix
+     */
+    private static String partName(File input, File file) {
+        String path = input.isDirectory() ? input.toPath().relativize(file.toPath()).toString() : file.getName();
+        path = path.substring(0, path.length() - ".vm".length()).replace(File.separatorChar, '.');
+        return path.replaceAll("[^A-Za-z0-9_.$:]", "_");
+    }
+
+    /**
+     * Executes a file, or the `.vm` files of a directory and its subdirectories in the order of
+     * their paths, with a {@link VmInterpreter}, then reports how it stopped.
+     *
+     * @param input    the input file or directory
+     * @param maxSteps the maximum number of commands to execute
+     */
+    private static void runProgram(File input, long maxSteps) {
+        VmInterpreter interpreter = new VmInterpreter(symbols, System.out);
+        try {
+            for (File file : programFiles(input)) {
+                interpreter.addFile(parse(file));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Error reading input file: " + e.getMessage());
+            System.exit(1);
+        }
+        try {
+            interpreter.run(maxSteps);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println();
+            System.out.println("Error after " + interpreter.getSteps() + " steps: " + e.getMessage());
+            return;
+        }
+        System.out.println();
+        System.out.println((interpreter.isHalted() ? "Halted" : "Stopped") + " after "
+                + interpreter.getSteps() + " steps, SP = " + interpreter.getRam()[0]);
+    }
+
+    /**
+     * @return the file, or the `.vm` files of the directory and its subdirectories in the order of their paths
+     */
+    private static List<File> programFiles(File input) {
+        List<File> files = new ArrayList<>();
+        if (input.isDirectory()) {
+            collectVmFiles(input, files);
+            files.sort(Comparator.comparing(File::getPath));
+        } else {
+            files.add(input);
+        }
+        return files;
+    }
+
+    /**
+     * Translates a file, or the `.vm` files of a directory and its subdirectories in the order of
+     * their paths, as one program.
+     *
+     * <p>All the files are parsed first. Calls to small functions are then inlined by an
+     * {@link Inliner}, and unreachable functions are removed, before code generation.</p>
+     *
+     * @param input      the input file or directory
+     * @param parallel   {@code true} to generate the code of the files concurrently
+     * @param dce        {@code true} to remove unreachable functions (see
+     *                   {@link #removeUnreachableFunctions(Map)})
+     * @param maxInlined the maximum number of commands of an inlined function body, or {@code 0}
+     *                   not to inline
+     * @return {@code false} if a file could not be translated in parallel
+     * @throws IllegalArgumentException if a line of a file is invalid
+     * @throws IOException              if a file cannot be read
+     */
+    private static boolean translateWholeProgram(File input, boolean parallel, boolean dce, int maxInlined)
+            throws IOException {
+        List<File> files = programFiles(input);
+
+        Map<File, List<VmCommand>> program = new LinkedHashMap<>();
+        for (File file : files) {
+            program.put(file, parse(file));
+        }
+
+        if (maxInlined > 0) {
+            Inliner inliner = new Inliner(symbols, maxInlined);
+            program.values().forEach(inliner::addFile);
+            program.replaceAll((file, commands) -> inliner.inline(commands));
+            System.out.println("Inlined " + inliner.getInlinedCalls() + " calls to "
+                    + inliner.getInlinedFunctions() + " functions");
+        }
+        if (dce) {
+            removeUnreachableFunctions(program);
+        }
+
+        if (parallel) {
+            return translateInParallel(input, files, program);
+        }
+        for (File file : files) {
+            codeWriter.setFileName(file.getName().replace(".vm", ".asm"));
+            write(program.get(file), codeWriter, optimizer);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the functions {@code Sys.init} cannot reach from a parsed program, and lists them.
+     *
+     * <p>Without {@code Sys.init} there is no entry point and nothing is removed.</p>
+     *
+     * @param program the commands of each file of the program
+     * @see CallGraph
+     */
+    private static void removeUnreachableFunctions(Map<File, List<VmCommand>> program) {
+        CallGraph graph = new CallGraph();
+        program.values().forEach(graph::addFile);
+
+        int entry = symbols.intern("Sys.init");
+        if (graph.isDefined(entry)) {
+            Set<Integer> reachable = graph.getReachable(entry);
+            List<String> removed = new ArrayList<>();
+            int removedCommands = 0;
+            for (int function : graph.getFunctions()) {
+                if (!reachable.contains(function)) {
+                    removed.add(symbols.getName(function));
+                    removedCommands += graph.getSize(function);
+                }
+            }
+            System.out.println("Removed " + removed.size() + " unreachable functions ("
+                    + removedCommands + " commands)" + (removed.isEmpty() ? "" : ":"));
+            for (String name : removed) {
+                System.out.println("  " + name);
+            }
+            program.replaceAll((file, commands) -> CallGraph.retain(commands, reachable));
+        } else {
+            System.out.println("No Sys.init: no functions removed");
+        }
+    }
+
+    private static void collectVmFiles(File directory, List<File> files) {
+        File[] children = directory.listFiles();
+        if (children == null) return;
+        for (File file : children) {
+            if (file.isDirectory()) {
+                collectVmFiles(file, files);
+            } else if (file.getName().endsWith(".vm")) {
+                files.add(file);
+            }
+        }
+    }
+
     /**
      * Translates a single `.vm` file to a corresponding `.asm` file.
      *
-     * <p>Parses the input VM file, identifies commands, and generates Hack assembly instructions
-     * using the {@link Parser} and {@link CodeWriter} classes. The output file is named
+     * <p>Parses the input VM file into {@link VmCommand}s, and generates Hack assembly instructions
+     * for each using the {@link Parser} and {@link CodeWriter} classes. The output file is named
      * after the input file, replacing the `.vm` extension with `.asm`.</p>
      *
      * @param file The input `.vm` file to translate
+     * @throws IllegalArgumentException if a line of the file is invalid
+     * @throws IOException              if the file cannot be read
      */
-    private static void translateFile(File file) {
-        try (Scanner inputScanner = new Scanner(file)) {
-            Parser parser = new Parser(inputScanner);
-            String asmFileName = file.getName().replace(".vm", ".asm");
-            codeWriter.setFileName(asmFileName);
-
-            while (parser.hasMoreLines()) {
-                parser.advance();
-                CommandType ct = parser.commandType();
-                switch (ct) {
-                    case C_PUSH:
-                    case C_POP:
-                        codeWriter.writePushPop(ct, parser.arg1(), parser.arg2());
-                        break;
-                    case C_ARITHMETIC:
-                        codeWriter.writeArithmetic(parser.arg1());
-                        break;
-                    case C_LABEL:
-                        codeWriter.writeLabel(parser.arg1());
-                        break;
-                    case C_GOTO:
-                        codeWriter.writeGoto(parser.arg1());
-                        break;
-                    case C_IF:
-                        codeWriter.writeIf(parser.arg1());
-                        break;
-                    case C_FUNCTION:
-                        codeWriter.writeFunction(parser.arg1(), parser.arg2());
-                        break;
-                    case C_CALL:
-                        codeWriter.writeCall(parser.arg1(), parser.arg2());
-                        break;
-                    case C_RETURN:
-                        codeWriter.writeReturn();
-                        break;
+    private static void translateFile(File file) throws IOException {
+        codeWriter.setFileName(file.getName().replace(".vm", ".asm"));
+        translate(file, symbols, codeWriter, optimizer);
+    }
+
+    /**
+     * Translates the commands of a `.vm` file with the given writer, through the optimizer if there is one.
+     *
+     * @throws IllegalArgumentException if a line of the file is invalid; the message names the file
+     * @throws IOException              if the file cannot be read
+     */
+    private static void translate(File file, SymbolTable symbolTable, CodeWriter writer,
+                                  PeepholeOptimizer peepholeOptimizer) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file), 1 << 16)) {
+            Parser parser = new Parser(reader, symbolTable);
+
+            while (parser.advance()) {
+                if (peepholeOptimizer != null) {
+                    peepholeOptimizer.write(parser.getCommand());
+                } else {
+                    writer.writeCommand(parser.getCommand());
                 }
             }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            if (peepholeOptimizer != null) {
+                peepholeOptimizer.flush();
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parses a `.vm` file into commands interned in {@link #symbols}.
+     *
+     * @return the commands
+     * @throws IllegalArgumentException if a line of the file is invalid; the message names the file
+     * @throws IOException              if the file cannot be read
+     */
+    private static List<VmCommand> parse(File file) throws IOException {
+        List<VmCommand> commands = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file), 1 << 16)) {
+            Parser parser = new Parser(reader, symbols);
+            while (parser.advance()) {
+                commands.add(parser.getCommand());
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(file.getName() + ": " + e.getMessage(), e);
+        }
+        return commands;
+    }
+
+    /**
+     * Writes parsed commands with the given writer, through the optimizer if there is one.
+     */
+    private static void write(List<VmCommand> commands, CodeWriter writer, PeepholeOptimizer peepholeOptimizer) {
+        for (VmCommand command : commands) {
+            if (peepholeOptimizer != null) {
+                peepholeOptimizer.write(command);
+            } else {
+                writer.writeCommand(command);
+            }
+        }
+        if (peepholeOptimizer != null) {
+            peepholeOptimizer.flush();
         }
     }
 }
@@ -0,0 +1,74 @@
+/**
+ * The VM commands, as parsed by the {@link Parser}.
+ *
+ * <p>Unlike {@link CommandType}, every arithmetic and logical command has its
+ * own opcode, so the {@link CodeWriter} can dispatch on it directly instead of
+ * comparing strings.</p>
+ */
+public enum Opcode {
+    ADD("add", CommandType.C_ARITHMETIC),
+    SUB("sub", CommandType.C_ARITHMETIC),
+    NEG("neg", CommandType.C_ARITHMETIC),
+    EQ("eq", CommandType.C_ARITHMETIC),
+    GT("gt", CommandType.C_ARITHMETIC),
+    LT("lt", CommandType.C_ARITHMETIC),
+    AND("and", CommandType.C_ARITHMETIC),
+    OR("or", CommandType.C_ARITHMETIC),
+    NOT("not", CommandType.C_ARITHMETIC),
+    PUSH("push", CommandType.C_PUSH),
+    POP("pop", CommandType.C_POP),
+    LABEL("label", CommandType.C_LABEL),
+    GOTO("goto", CommandType.C_GOTO),
+    IF_GOTO("if-goto", CommandType.C_IF),
+    FUNCTION("function", CommandType.C_FUNCTION),
+    CALL("call", CommandType.C_CALL),
+    RETURN("return", CommandType.C_RETURN);
+
+    private final String mnemonic;
+    private final CommandType commandType;
+
+    Opcode(String mnemonic, CommandType commandType) {
+        this.mnemonic = mnemonic;
+        this.commandType = commandType;
+    }
+
+    /**
+     * @return the command as written in a {@code .vm} file, e.g. {@code "if-goto"}
+     */
+    public String getMnemonic() {
+        return mnemonic;
+    }
+
+    public CommandType getCommandType() {
+        return commandType;
+    }
+
+    /**
+     * Looks up a command by its mnemonic.
+     *
+     * @param mnemonic the first word of a VM command
+     * @return the opcode, or {@code null} if there is no such command
+     */
+    public static Opcode forMnemonic(String mnemonic) {
+        return switch (mnemonic) {
+            case "add" -> ADD;
+            case "sub" -> SUB;
+            case "neg" -> NEG;
+            case "eq" -> EQ;
+            case "gt" -> GT;
+            case "lt" -> LT;
+            case "and" -> AND;
+            case "or" -> OR;
+            case "not" -> NOT;
+            case "push" -> PUSH;
+            case "pop" -> POP;
+            case "label" -> LABEL;
+            case "goto" -> GOTO;
+            case "if-goto" -> IF_GOTO;
+            case "function" -> FUNCTION;
+            case "call" -> CALL;
+            case "return" -> RETURN;
+            default -> null;
+        };
+    }
+}
@@ -1,133 +1,203 @@
-import java.util.Scanner;
-
-/**
- * The Parser class reads and processes VM commands, determining their type
- * and extracting arguments as needed for translation to Hack assembly.
- */
-public class Parser {
-    private final Scanner scanner;
-    private String currentCommand;
-
-    /**
-     * Constructs a Parser instance to process VM commands from the given input.
-     *
-     * @param scanner a {@link Scanner} object initialized with the input VM code
-     */
-    public Parser(Scanner scanner) {
-        this.scanner = scanner;
-    }
-
-    /**
-     * Checks if there are more lines to process in the input.
-     *
-     * @return {@code true} if there are more lines to process; {@code false} otherwise
-     */
-    public boolean hasMoreLines() {
-        return scanner.hasNextLine();
-    }
-
-    /**
-     * Advances to the next command in the input.
-     *
-     * <p>Skips over empty lines and comments. If a valid command is found, it is stored
-     * in {@code currentCommand}. This method assumes the input follows the VM command
-     * syntax, including comments (starting with `//`) and valid command structure.</p>
-     */
-    public void advance() {
-        while (hasMoreLines()) {
-            currentCommand = scanner.nextLine();
-
-            // Remove comments
-            int commentIndex = currentCommand.indexOf('/');
-            if (commentIndex >= 0) {
-                currentCommand = currentCommand.substring(0, commentIndex);
-            }
-
-            // Trim the command
-            currentCommand = currentCommand.trim();
-
-            // Skip empty commands
-            if (!currentCommand.isEmpty()) {
-                break;
-            }
-        }
-    }
-
-    /**
-     * Determines the type of the current VM command.
-     *
-     * <p>The command type is one of:
-     * <ul>
-     *   <li>{@link CommandType#C_PUSH} for "push" commands</li>
-     *   <li>{@link CommandType#C_POP} for "pop" commands</li>
-     *   <li>{@link CommandType#C_LABEL} for "label" commands</li>
-     *   <li>{@link CommandType#C_GOTO} for "goto" commands</li>
-     *   <li>{@link CommandType#C_IF} for "if-goto" commands</li>
-     *   <li>{@link CommandType#C_FUNCTION} for "function" commands</li>
-     *   <li>{@link CommandType#C_CALL} for "call" commands</li>
-     *   <li>{@link CommandType#C_RETURN} for "return" commands</li>
-     *   <li>{@link CommandType#C_ARITHMETIC} for all arithmetic and logical commands
-     *       (e.g., "add", "sub", "eq")</li>
-     * </ul>
-     *
-     * @return the {@link CommandType} of the current command
-     */
-    public CommandType commandType() {
-        String command = currentCommand.split(" ")[0];
-        return switch (command) {
-            case "push" -> CommandType.C_PUSH;
-            case "pop" -> CommandType.C_POP;
-            case "label" -> CommandType.C_LABEL;
-            case "goto" -> CommandType.C_GOTO;
-            case "if-goto" -> CommandType.C_IF;
-            case "function" -> CommandType.C_FUNCTION;
-            case "call" -> CommandType.C_CALL;
-            case "return" -> CommandType.C_RETURN;
-            default -> CommandType.C_ARITHMETIC;
-        };
-    }
-
-    /**
-     * Extracts the first argument of the current command.
-     *
-     * <p>The argument extracted depends on the command type:
-     * <ul>
-     *   <li>For arithmetic commands, returns the command itself (e.g., "add", "sub").</li>
-     *   <li>For other commands, returns the first argument (e.g., the segment for "push").</li>
-     *   <li>For {@code return} commands, returns {@code null} as they have no arguments.</li>
-     * </ul>
-     *
-     * @return the first argument of the current command, or {@code null} for "return" commands
-     */
-    public String arg1() {
-        if(commandType() == CommandType.C_RETURN) {
-            return null;
-        }
-        return commandType() == CommandType.C_ARITHMETIC
-                ? currentCommand
-                : currentCommand.split(" ")[1];
-    }
-
-    /**
-     * Extracts the second argument of the current command, if applicable.
-     *
-     * <p>This method is valid for commands that have two arguments, such as:
-     * <ul>
-     *   <li>{@code push} and {@code pop}: the second argument is the index.</li>
-     *   <li>{@code function} and {@code call}: the second argument is the number of variables or arguments.</li>
-     * </ul>
-     * Throws an exception if called for a command that does not have a second argument.
-     *
-     * @return the second argument of the current command
-     * @throws UnsupportedOperationException if the current command type does not support a second argument
-     */
-    public int arg2() {
-        if (commandType() == CommandType.C_PUSH ||
-                commandType() == CommandType.C_POP ||
-                commandType() == CommandType.C_FUNCTION ||
-                commandType() == CommandType.C_CALL){
-            return Integer.parseInt(currentCommand.split(" ")[2]);
-        }
-        throw new UnsupportedOperationException("arg2 is not available for this command type.");
-    }
-}
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * The Parser class reads and processes VM commands, determining their type
+ * and extracting arguments as needed for translation to Hack assembly.
+ *
+ * <p>Each line is tokenised once, when it is read by {@link #advance()}, into a
+ * {@link VmCommand}: an {@link Opcode}, a {@link Segment}, an index and the id
+ * of an interned label or function name. The other methods only read that
+ * command.</p>
+ */
+public class Parser {
+    private final BufferedReader reader;
+    private final SymbolTable symbols;
+    private VmCommand currentCommand;
+    private int lineNumber;
+
+    /**
+     * Constructs a Parser instance to process VM commands from the given input.
+     *
+     * @param reader  a reader of the input VM code
+     * @param symbols the table label and function names are interned in
+     */
+    public Parser(BufferedReader reader, SymbolTable symbols) {
+        this.reader = reader;
+        this.symbols = symbols;
+    }
+
+    /**
+     * Advances to the next command in the input.
+     *
+     * <p>Skips over empty lines and comments (starting with {@code //}). If a
+     * command is found, it becomes the current command.</p>
+     *
+     * @return {@code true} if a command was read; {@code false} at the end of the input
+     * @throws IOException              if reading fails
+     * @throws IllegalArgumentException if a line is not a valid VM command
+     */
+    public boolean advance() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            currentCommand = parse(line);
+            if (currentCommand != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tokenises one line.
+     *
+     * @return the command, or {@code null} if the line is empty or a comment
+     */
+    private VmCommand parse(String line) {
+        int end = line.indexOf("//");
+        if (end < 0) {
+            end = line.length();
+        }
+        String[] tokens = new String[3];
+        int count = 0;
+        int i = 0;
+        while (i < end) {
+            while (i < end && Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < end && !Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                if (count == tokens.length) {
+                    throw error("Too many arguments", line);
+                }
+                tokens[count++] = line.substring(start, i);
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+
+        Opcode opcode = Opcode.forMnemonic(tokens[0]);
+        if (opcode == null) {
+            throw error("Unknown command", line);
+        }
+        int arguments = switch (opcode.getCommandType()) {
+            case C_PUSH, C_POP, C_FUNCTION, C_CALL -> 2;
+            case C_LABEL, C_GOTO, C_IF -> 1;
+            default -> 0;
+        };
+        if (count != arguments + 1) {
+            throw error(opcode.getMnemonic() + " takes " + arguments + " arguments", line);
+        }
+        return switch (opcode.getCommandType()) {
+            case C_PUSH, C_POP -> {
+                Segment segment = Segment.forName(tokens[1]);
+                if (segment == null) {
+                    throw error("Invalid segment", line);
+                }
+                if (opcode == Opcode.POP && segment == Segment.CONSTANT) {
+                    throw error("Cannot pop to constant", line);
+                }
+                yield new VmCommand(opcode, segment, parseIndex(tokens[2], line), -1);
+            }
+            case C_LABEL, C_GOTO, C_IF -> new VmCommand(opcode, null, 0, symbols.intern(tokens[1]));
+            case C_FUNCTION, C_CALL -> new VmCommand(opcode, null, parseIndex(tokens[2], line),
+                    symbols.intern(tokens[1]));
+            default -> new VmCommand(opcode, null, 0, -1);
+        };
+    }
+
+    private int parseIndex(String token, String line) {
+        int value = 0;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c < '0' || c > '9') {
+                throw error("Invalid number " + token, line);
+            }
+            value = value * 10 + (c - '0');
+            if (value > 32767) {
+                throw error("Number out of range " + token, line);
+            }
+        }
+        return value;
+    }
+
+    private IllegalArgumentException error(String message, String line) {
+        return new IllegalArgumentException("Line " + lineNumber + ": " + message + ": " + line.trim());
+    }
+
+    /**
+     * @return the current command as parsed by the last {@link #advance()}
+     */
+    public VmCommand getCommand() {
+        return currentCommand;
+    }
+
+    /**
+     * Determines the type of the current VM command.
+     *
+     * <p>The command type is one of:
+     * <ul>
+     *   <li>{@link CommandType#C_PUSH} for "push" commands</li>
+     *   <li>{@link CommandType#C_POP} for "pop" commands</li>
+     *   <li>{@link CommandType#C_LABEL} for "label" commands</li>
+     *   <li>{@link CommandType#C_GOTO} for "goto" commands</li>
+     *   <li>{@link CommandType#C_IF} for "if-goto" commands</li>
+     *   <li>{@link CommandType#C_FUNCTION} for "function" commands</li>
+     *   <li>{@link CommandType#C_CALL} for "call" commands</li>
+     *   <li>{@link CommandType#C_RETURN} for "return" commands</li>
+     *   <li>{@link CommandType#C_ARITHMETIC} for all arithmetic and logical commands
+     *       (e.g., "add", "sub", "eq")</li>
+     * </ul>
+     *
+     * @return the {@link CommandType} of the current command
+     */
+    public CommandType commandType() {
+        return currentCommand.getOpcode().getCommandType();
+    }
+
+    /**
+     * Extracts the first argument of the current command.
+     *
+     * <p>The argument extracted depends on the command type:
+     * <ul>
+     *   <li>For arithmetic commands, returns the command itself (e.g., "add", "sub").</li>
+     *   <li>For other commands, returns the first argument (e.g., the segment for "push").</li>
+     *   <li>For {@code return} commands, returns {@code null} as they have no arguments.</li>
+     * </ul>
+     *
+     * @return the first argument of the current command, or {@code null} for "return" commands
+     */
+    public String arg1() {
+        return switch (commandType()) {
+            case C_RETURN -> null;
+            case C_ARITHMETIC -> currentCommand.getOpcode().getMnemonic();
+            case C_PUSH, C_POP -> currentCommand.getSegment().getName();
+            default -> symbols.getName(currentCommand.getSymbol());
+        };
+    }
+
+    /**
+     * Extracts the second argument of the current command, if applicable.
+     *
+     * <p>This method is valid for commands that have two arguments, such as:
+     * <ul>
+     *   <li>{@code push} and {@code pop}: the second argument is the index.</li>
+     *   <li>{@code function} and {@code call}: the second argument is the number of variables or arguments.</li>
+     * </ul>
+     * Throws an exception if called for a command that does not have a second argument.
+     *
+     * @return the second argument of the current command
+     * @throws UnsupportedOperationException if the current command type does not support a second argument
+     */
+    public int arg2() {
+        return switch (commandType()) {
+            case C_PUSH, C_POP, C_FUNCTION, C_CALL -> currentCommand.getIndex();
+            default -> throw new UnsupportedOperationException("arg2 is not available for this command type.");
+        };
+    }
+}
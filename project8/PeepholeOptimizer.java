@@ -0,0 +1,153 @@
+/**
+ * Fuses short runs of VM commands into direct Hack sequences that bypass the stack.
+ *
+ * <p>Commands are collected in a window of {@link #WINDOW} commands. Whenever the
+ * window is full, the longest of these patterns at its head is written with one of
+ * the {@link CodeWriter}'s fused writers, and any other command is written as usual:</p>
+ * <ul>
+ *   <li>{@code push x; push y; add|sub|and|or; pop z}, and the same without the pop;</li>
+ *   <li>{@code push y; add|sub|and|or; pop z}, and the same without the pop;</li>
+ *   <li>{@code add|sub|and|or; pop z};</li>
+ *   <li>{@code push x; pop z};</li>
+ *   <li>{@code push x; neg|not};</li>
+ *   <li>{@code push y; eq|gt|lt; not; if-goto l}, and the same without the push
+ *       or the not, as one conditional jump;</li>
+ *   <li>{@code call f n; return}, as a tail call reusing the current frame.</li>
+ * </ul>
+ * <p>For example, {@code push local 0; push constant 1; add; pop local 0} becomes
+ * three instructions instead of 36. Labels, jumps, calls and comparisons end a
+ * pattern, so control flow never enters the middle of a fused sequence.</p>
+ */
+public class PeepholeOptimizer {
+    private static final int WINDOW = 4;
+
+    private final CodeWriter codeWriter;
+    private final VmCommand[] window = new VmCommand[WINDOW];
+    private int size;
+    private int fusedCommands;
+
+    /**
+     * @param codeWriter the writer the commands are translated with
+     */
+    public PeepholeOptimizer(CodeWriter codeWriter) {
+        this.codeWriter = codeWriter;
+    }
+
+    /**
+     * @return the number of commands written as part of a fused sequence so far
+     */
+    public int getFusedCommands() {
+        return fusedCommands;
+    }
+
+    /**
+     * Adds a command to the window, writing the head of the window if it is full.
+     *
+     * @param command the next command
+     */
+    public void write(VmCommand command) {
+        window[size++] = command;
+        if (size == WINDOW) {
+            writeHead();
+        }
+    }
+
+    /**
+     * Writes every command still in the window. Must be called at the end of
+     * each file, before the {@link CodeWriter}'s file name changes.
+     */
+    public void flush() {
+        while (size > 0) {
+            writeHead();
+        }
+    }
+
+    /**
+     * Writes the longest pattern at the head of the window, or its first command.
+     */
+    private void writeHead() {
+        int consumed = match();
+        if (consumed == 1) {
+            codeWriter.writeCommand(window[0]);
+        } else {
+            fusedCommands += consumed;
+        }
+        System.arraycopy(window, consumed, window, 0, size - consumed);
+        size -= consumed;
+        for (int i = size; i < size + consumed; i++) {
+            window[i] = null;
+        }
+    }
+
+    /**
+     * Writes the pattern at the head of the window, if any.
+     *
+     * @return the number of commands written, or {@code 1} if the head must be written on its own
+     */
+    private int match() {
+        VmCommand first = window[0];
+        VmCommand second = window[1];
+        VmCommand third = window[2];
+        VmCommand fourth = window[3];
+        if (is(first, Opcode.CALL) && is(second, Opcode.RETURN)) {
+            codeWriter.writeTailCall(first);
+            return 2;
+        }
+        if (is(first, Opcode.PUSH) && isComparison(second) && isBranch(third, fourth)) {
+            boolean negate = is(third, Opcode.NOT);
+            codeWriter.writeCompareBranch(first, second.getOpcode(), negate, negate ? fourth : third);
+            return negate ? 4 : 3;
+        }
+        if (isComparison(first) && isBranch(second, third)) {
+            boolean negate = is(second, Opcode.NOT);
+            codeWriter.writeCompareBranch(null, first.getOpcode(), negate, negate ? third : second);
+            return negate ? 3 : 2;
+        }
+        if (is(first, Opcode.PUSH) && is(second, Opcode.PUSH) && isBinary(third)
+                && (codeWriter.isDirectOperand(first) || codeWriter.isDirectOperand(second))) {
+            boolean pop = is(fourth, Opcode.POP);
+            codeWriter.writeBinary(first, second, third.getOpcode(), pop ? fourth : null);
+            return pop ? 4 : 3;
+        }
+        if (is(first, Opcode.PUSH) && isBinary(second)) {
+            boolean pop = is(third, Opcode.POP);
+            codeWriter.writeBinary(null, first, second.getOpcode(), pop ? third : null);
+            return pop ? 3 : 2;
+        }
+        if (isBinary(first) && is(second, Opcode.POP)) {
+            codeWriter.writeBinary(null, null, first.getOpcode(), second);
+            return 2;
+        }
+        if (is(first, Opcode.PUSH) && is(second, Opcode.POP)) {
+            codeWriter.writeMove(first, second);
+            return 2;
+        }
+        if (is(first, Opcode.PUSH) && (is(second, Opcode.NEG) || is(second, Opcode.NOT))) {
+            codeWriter.writeUnary(first, second.getOpcode());
+            return 2;
+        }
+        return 1;
+    }
+
+    private static boolean is(VmCommand command, Opcode opcode) {
+        return command != null && command.getOpcode() == opcode;
+    }
+
+    private static boolean isComparison(VmCommand command) {
+        return is(command, Opcode.EQ) || is(command, Opcode.GT) || is(command, Opcode.LT);
+    }
+
+    /**
+     * @return whether the commands after a comparison are {@code if-goto} or {@code not; if-goto}
+     */
+    private static boolean isBranch(VmCommand command, VmCommand next) {
+        return is(command, Opcode.IF_GOTO) || (is(command, Opcode.NOT) && is(next, Opcode.IF_GOTO));
+    }
+
+    private static boolean isBinary(VmCommand command) {
+        return command != null && switch (command.getOpcode()) {
+            case ADD, SUB, AND, OR -> true;
+            default -> false;
+        };
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * The memory segments of the VM.
+ */
+public enum Segment {
+    CONSTANT("constant", null),
+    LOCAL("local", "LCL"),
+    ARGUMENT("argument", "ARG"),
+    THIS("this", "THIS"),
+    THAT("that", "THAT"),
+    POINTER("pointer", null),
+    TEMP("temp", null),
+    STATIC("static", null),
+    /**
+     * The arguments and locals of inlined functions (see {@link Inliner}), in
+     * words allocated by the assembler. Internal to the translator: no
+     * {@code .vm} file can name it.
+     */
+    INLINE("inline", null);
+
+    private final String name;
+    private final String base;
+
+    Segment(String name, String base) {
+        this.name = name;
+        this.base = base;
+    }
+
+    /**
+     * @return the segment as written in a {@code .vm} file
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the pointer register holding the segment's base address, e.g.
+     * {@code "LCL"}, or {@code null} for segments at a fixed place
+     */
+    public String getBase() {
+        return base;
+    }
+
+    /**
+     * Looks up a segment by name.
+     *
+     * @param name the segment argument of a push or pop command
+     * @return the segment, or {@code null} if there is no such segment
+     */
+    public static Segment forName(String name) {
+        return switch (name) {
+            case "constant" -> CONSTANT;
+            case "local" -> LOCAL;
+            case "argument" -> ARGUMENT;
+            case "this" -> THIS;
+            case "that" -> THAT;
+            case "pointer" -> POINTER;
+            case "temp" -> TEMP;
+            case "static" -> STATIC;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,94 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue between one producer thread and one consumer thread, without locks.
+ *
+ * <p>The elements are kept in a ring of a power-of-two size. The producer
+ * alone advances the tail and the consumer alone the head, each publishing
+ * its position with an ordered write, so neither needs a lock or a
+ * compare-and-set. A thread that finds the queue full (or empty) spins
+ * briefly, then parks for short intervals until the other side catches up
+ * or it is interrupted.</p>
+ *
+ * @param <E> the type of the elements
+ */
+public class SpscQueue<E> {
+    /** Spinning only helps when the other side runs on another core. */
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+    private static final long PARK_NANOS = 20_000;
+
+    private final Object[] elements;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of elements, rounded up to a power of two
+     */
+    public SpscQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        elements = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an element, waiting while the queue is full. Must only be called by the producer.
+     *
+     * @param element the element, not {@code null}
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void put(E element) throws InterruptedException {
+        long position = tail.get();
+        int idle = 0;
+        while (position - head.get() == elements.length) {
+            idle = idle(idle);
+        }
+        elements[(int) position & mask] = element;
+        tail.lazySet(position + 1);
+    }
+
+    /**
+     * Removes the oldest element, waiting while the queue is empty. Must only be called by the consumer.
+     *
+     * @return the element
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @SuppressWarnings("unchecked")
+    public E take() throws InterruptedException {
+        long position = head.get();
+        int idle = 0;
+        while (position == tail.get()) {
+            idle = idle(idle);
+        }
+        int index = (int) position & mask;
+        E element = (E) elements[index];
+        elements[index] = null;
+        head.lazySet(position + 1);
+        return element;
+    }
+
+    /**
+     * Waits a little, spinning at first and then parking.
+     *
+     * @param idle the number of times the caller has waited so far
+     * @return the number of times including this one
+     */
+    private static int idle(int idle) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (idle < SPINS) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return idle + 1;
+    }
+}
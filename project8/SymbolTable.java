@@ -0,0 +1,44 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns the label and function names of VM commands, so that each name is
+ * stored once and commands refer to it by a small integer id.
+ */
+public class SymbolTable {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * Returns the id of a name, assigning the next free id to a new name.
+     *
+     * @param name a label or function name
+     * @return the id of the name
+     */
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+
+    /**
+     * @param id an id returned by {@link #intern(String)}
+     * @return the name with that id
+     */
+    public String getName(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * @return the number of distinct names
+     */
+    public int size() {
+        return names.size();
+    }
+}
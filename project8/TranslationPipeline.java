@@ -0,0 +1,381 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Translates files in four stages running concurrently, connected by bounded {@link SpscQueue}s.
+ *
+ * <ol>
+ *   <li>The reader thread memory-maps each input file.</li>
+ *   <li>The parser thread parses the mapped files into batches of
+ *       {@link VmCommand}s, interning names in its own {@link SymbolTable}.
+ *       Each batch carries the names first interned for it, which the code
+ *       generator interns in its table in the same order, so the ids agree
+ *       without the tables being shared.</li>
+ *   <li>The calling thread generates the code with a {@link CodeWriter} writing
+ *       to {@link #getOutput()}, which copies the assembly into direct byte
+ *       buffers.</li>
+ *   <li>The writer thread writes the full buffers to the output file with
+ *       {@link FileChannel#write(ByteBuffer)} and returns them for reuse.</li>
+ * </ol>
+ * <p>Each queue holds at most {@value #QUEUE_CAPACITY} items, so a slow stage
+ * holds back the ones before it instead of letting work pile up in memory.
+ * The files are translated in the order given, and the output is the same
+ * as translating them one after the other.</p>
+ */
+public class TranslationPipeline {
+    private static final int QUEUE_CAPACITY = 16;
+    private static final int BATCH_SIZE = 1024;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final MappedFile NO_MORE_FILES = new MappedFile(null, null);
+    private static final Batch NO_MORE_BATCHES = new Batch(null, List.of(), List.of());
+    private static final ByteBuffer NO_MORE_BUFFERS = ByteBuffer.allocate(0);
+
+    private final SpscQueue<MappedFile> mappedFiles = new SpscQueue<>(QUEUE_CAPACITY);
+    private final SpscQueue<Batch> batches = new SpscQueue<>(QUEUE_CAPACITY);
+    private final SpscQueue<ByteBuffer> fullBuffers = new SpscQueue<>(QUEUE_CAPACITY);
+    private final SpscQueue<ByteBuffer> freeBuffers = new SpscQueue<>(QUEUE_CAPACITY);
+    private final FileChannel channel;
+    private final Thread writerThread;
+    private final Output output = new Output();
+    private volatile IOException failure;
+    private volatile IllegalArgumentException invalidInput;
+
+    /**
+     * Opens the output file and starts the writer thread.
+     *
+     * @param outputFile the file the assembly is written to
+     * @throws IOException if the file cannot be opened
+     */
+    public TranslationPipeline(File outputFile) throws IOException {
+        channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        for (int i = 0; i < QUEUE_CAPACITY; i++) {
+            putQuietly(freeBuffers, ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+        writerThread = new Thread(this::writeBuffers, "pipeline-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Returns the stream to construct the pipeline's {@link CodeWriter} with.
+     * Closing it writes the last buffer and waits for the writer thread to finish.
+     *
+     * @return the stream of the assembly
+     */
+    public OutputStream getOutput() {
+        return output;
+    }
+
+    /**
+     * Translates files, generating their code on the calling thread.
+     *
+     * @param files      the `.vm` files, in the order their code is written
+     * @param codeWriter a writer constructed with {@link #getOutput()} and an empty symbol table
+     * @param symbols    the symbol table of {@code codeWriter}
+     * @param optimizer  an optimizer writing with {@code codeWriter}, or {@code null}
+     * @throws IllegalArgumentException if a line of a file is invalid; the message names the file
+     * @throws IOException              if a file cannot be read
+     */
+    public void run(List<File> files, CodeWriter codeWriter, SymbolTable symbols,
+                    PeepholeOptimizer optimizer) throws IOException {
+        Thread reader = new Thread(() -> mapFiles(files), "pipeline-reader");
+        Thread parser = new Thread(this::parseFiles, "pipeline-parser");
+        reader.setDaemon(true);
+        parser.setDaemon(true);
+        reader.start();
+        parser.start();
+        try {
+            for (Batch batch = batches.take(); batch != NO_MORE_BATCHES; batch = batches.take()) {
+                if (batch.fileName != null) {
+                    if (optimizer != null) {
+                        optimizer.flush();
+                    }
+                    codeWriter.setFileName(batch.fileName);
+                }
+                for (String name : batch.names) {
+                    if (symbols.intern(name) != symbols.size() - 1) {
+                        throw new IllegalStateException("Symbol tables out of step at " + name);
+                    }
+                }
+                for (VmCommand command : batch.commands) {
+                    if (optimizer != null) {
+                        optimizer.write(command);
+                    } else {
+                        codeWriter.writeCommand(command);
+                    }
+                }
+            }
+            if (optimizer != null) {
+                optimizer.flush();
+            }
+            if (failure != null || invalidInput != null) {
+                // A stage may still be waiting to hand over more work
+                reader.interrupt();
+                parser.interrupt();
+            }
+            reader.join();
+            parser.join();
+        } catch (InterruptedException e) {
+            reader.interrupt();
+            parser.interrupt();
+            Thread.currentThread().interrupt();
+        }
+        if (invalidInput != null) {
+            throw invalidInput;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * The reader stage: maps the files in order.
+     */
+    private void mapFiles(List<File> files) {
+        try {
+            for (File file : files) {
+                try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    mappedFiles.put(new MappedFile(file, in.map(FileChannel.MapMode.READ_ONLY, 0, in.size())));
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            return;
+        }
+        try {
+            mappedFiles.put(NO_MORE_FILES);
+        } catch (InterruptedException ignored) {
+            // The pipeline is being torn down
+        }
+    }
+
+    /**
+     * The parser stage: parses the mapped files into batches.
+     */
+    private void parseFiles() {
+        SymbolTable parserSymbols = new SymbolTable();
+        try {
+            for (MappedFile file = mappedFiles.take(); file != NO_MORE_FILES; file = mappedFiles.take()) {
+                String fileName = file.file.getName().replace(".vm", ".asm");
+                Parser parser = new Parser(new BufferedReader(new ByteBufferReader(file.contents)), parserSymbols);
+                List<VmCommand> commands = new ArrayList<>(BATCH_SIZE);
+                int interned = parserSymbols.size();
+                try {
+                    while (parser.advance()) {
+                        commands.add(parser.getCommand());
+                        if (commands.size() == BATCH_SIZE) {
+                            interned = putBatch(fileName, commands, parserSymbols, interned);
+                            fileName = null;
+                            commands = new ArrayList<>(BATCH_SIZE);
+                        }
+                    }
+                } catch (IllegalArgumentException e) {
+                    invalidInput = new IllegalArgumentException(file.file.getName() + ": " + e.getMessage(), e);
+                    break;
+                }
+                putBatch(fileName, commands, parserSymbols, interned);
+            }
+            batches.put(NO_MORE_BATCHES);
+        } catch (IOException e) {
+            failure = e;
+            putQuietly(batches, NO_MORE_BATCHES);
+        } catch (InterruptedException ignored) {
+            // The pipeline is being torn down
+        }
+    }
+
+    /**
+     * Hands a batch to the code generator with the names interned since the previous batch.
+     *
+     * @return the number of names interned so far
+     */
+    private int putBatch(String fileName, List<VmCommand> commands, SymbolTable parserSymbols, int interned)
+            throws InterruptedException {
+        List<String> names = new ArrayList<>();
+        for (int id = interned; id < parserSymbols.size(); id++) {
+            names.add(parserSymbols.getName(id));
+        }
+        batches.put(new Batch(fileName, commands, names));
+        return parserSymbols.size();
+    }
+
+    /**
+     * The writer stage: writes full buffers to the output file and returns them for reuse.
+     */
+    private void writeBuffers() {
+        try (FileChannel out = channel) {
+            for (ByteBuffer buffer = fullBuffers.take(); buffer != NO_MORE_BUFFERS; buffer = fullBuffers.take()) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+                freeBuffers.put(buffer);
+            }
+        } catch (IOException e) {
+            failure = e;
+            System.err.println("Error writing output file: " + e.getMessage());
+            // Keep taking buffers, so the code generator never waits for a free one
+            try {
+                for (ByteBuffer buffer = fullBuffers.take(); buffer != NO_MORE_BUFFERS; buffer = fullBuffers.take()) {
+                    buffer.clear();
+                    freeBuffers.put(buffer);
+                }
+            } catch (InterruptedException ignored) {
+                // The pipeline is being torn down
+            }
+        } catch (InterruptedException ignored) {
+            // The pipeline is being torn down
+        }
+    }
+
+    private static <E> void putQuietly(SpscQueue<E> queue, E element) {
+        try {
+            queue.put(element);
+        } catch (InterruptedException ignored) {
+            // The pipeline is being torn down
+        }
+    }
+
+    /**
+     * The code generator's end of the buffers: copies the assembly into a free
+     * buffer, and hands it to the writer thread when it is full.
+     */
+    private class Output extends OutputStream {
+        private ByteBuffer buffer;
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (buffer == null || !buffer.hasRemaining()) {
+                next();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            int end = offset + length;
+            while (offset < end) {
+                if (buffer == null || !buffer.hasRemaining()) {
+                    next();
+                }
+                int chunk = Math.min(end - offset, buffer.remaining());
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        @Override
+        public void flush() {
+            // Buffers are written when full or on close, so the file is written in large chunks
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (buffer != null) {
+                    fullBuffers.put(buffer);
+                    buffer = null;
+                }
+                fullBuffers.put(NO_MORE_BUFFERS);
+                writerThread.join();
+            } catch (InterruptedException e) {
+                writerThread.interrupt();
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing the output file");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        /**
+         * Hands the current buffer, if any, to the writer thread and takes a free one.
+         */
+        private void next() throws IOException {
+            if (closed) {
+                throw new IOException("Output closed");
+            }
+            try {
+                if (buffer != null) {
+                    fullBuffers.put(buffer);
+                }
+                buffer = freeBuffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing the output file");
+            }
+        }
+    }
+
+    /**
+     * Reads the bytes of a buffer as ISO-8859-1 characters; `.vm` files are ASCII.
+     */
+    private static class ByteBufferReader extends Reader {
+        private final ByteBuffer contents;
+
+        ByteBufferReader(ByteBuffer contents) {
+            this.contents = contents;
+        }
+
+        @Override
+        public int read(char[] chars, int offset, int length) {
+            if (!contents.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, contents.remaining());
+            for (int i = 0; i < count; i++) {
+                chars[offset + i] = (char) (contents.get() & 0xFF);
+            }
+            return count;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release: the mapping is released with the buffer
+        }
+    }
+
+    private static final class MappedFile {
+        private final File file;
+        private final ByteBuffer contents;
+
+        MappedFile(File file, ByteBuffer contents) {
+            this.file = file;
+            this.contents = contents;
+        }
+    }
+
+    private static final class Batch {
+        private final String fileName;
+        private final List<VmCommand> commands;
+        private final List<String> names;
+
+        /**
+         * @param fileName the output name of the file, for the first batch of a file, otherwise {@code null}
+         * @param commands the commands
+         * @param names    the names first interned by the commands, in order of their ids
+         */
+        Batch(String fileName, List<VmCommand> commands, List<String> names) {
+            this.fileName = fileName;
+            this.commands = commands;
+            this.names = names;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * One parsed VM command.
+ *
+ * <p>Commands are immutable. Depending on the {@link Opcode}, a command has:</p>
+ * <ul>
+ *   <li>{@code push}/{@code pop}: a segment and an index;</li>
+ *   <li>{@code label}/{@code goto}/{@code if-goto}: a symbol, the label name;</li>
+ *   <li>{@code function}/{@code call}: a symbol, the function name, and an index,
+ *       the number of local variables or arguments;</li>
+ *   <li>arithmetic commands and {@code return}: nothing else.</li>
+ * </ul>
+ * <p>Symbols are ids in the {@link SymbolTable} the command was parsed with.</p>
+ */
+public final class VmCommand {
+    private final Opcode opcode;
+    private final Segment segment;
+    private final int index;
+    private final int symbol;
+
+    /**
+     * @param opcode  the command
+     * @param segment the segment of a push or pop, otherwise {@code null}
+     * @param index   the index, number of locals or number of arguments, otherwise {@code 0}
+     * @param symbol  the symbol id of a label or function name, otherwise {@code -1}
+     */
+    public VmCommand(Opcode opcode, Segment segment, int index, int symbol) {
+        this.opcode = opcode;
+        this.segment = segment;
+        this.index = index;
+        this.symbol = symbol;
+    }
+
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    public Segment getSegment() {
+        return segment;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Formats the command as it would be written in a {@code .vm} file.
+     *
+     * @param symbols the table the command's symbol belongs to
+     * @return the command text
+     */
+    public String toString(SymbolTable symbols) {
+        return switch (opcode.getCommandType()) {
+            case C_PUSH, C_POP -> opcode.getMnemonic() + " " + segment.getName() + " " + index;
+            case C_LABEL, C_GOTO, C_IF -> opcode.getMnemonic() + " " + symbols.getName(symbol);
+            case C_FUNCTION, C_CALL -> opcode.getMnemonic() + " " + symbols.getName(symbol) + " " + index;
+            default -> opcode.getMnemonic();
+        };
+    }
+}
@@ -0,0 +1,750 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Executes VM programs directly, without translating them to Hack.
+ *
+ * <p>The program's commands, as produced by the {@link Parser}, are linked once
+ * into parallel arrays of integer codes and operands: labels and functions
+ * become command indexes, segment accesses become either a fixed address
+ * ({@code temp}, {@code pointer}, {@code static}) or a base register and an
+ * index, and each command runs from one {@code switch} case. Memory is an
+ * {@code int[]} with the standard layout: SP, LCL, ARG, THIS and THAT in
+ * words 0 to 4, temp at 5, the statics of each file from 16 in load order,
+ * the stack from 256, the heap from 2048, the screen at 16384 and the
+ * keyboard at 24576. Values are kept as 16-bit signed numbers, and
+ * {@code gt}/{@code lt} compare them exactly.</p>
+ *
+ * <p>A called function that no file defines runs natively, if it is one of the
+ * Jack OS functions in {@link #NATIVES}. A native class is assumed to be native
+ * as a whole: for example native {@code Output.printString} reads strings laid
+ * out by native {@code String} ({@code maxLength}, {@code length}, then the
+ * characters). Output goes to a {@link PrintStream}, keyboard input comes from
+ * standard input.</p>
+ *
+ * <p>If {@code Sys.init} is defined, the program starts by calling it with
+ * SP = 256. Otherwise, if {@code Main.main} is defined, native
+ * {@code Sys.init} starts the program by calling it, the native classes
+ * needing no initialisation. Otherwise the program starts at its first command.
+ * It stops at {@code Sys.halt}, at a {@code goto} to itself, when it returns
+ * from the first call or runs past its last command, or after a given number of
+ * steps.</p>
+ */
+public class VmInterpreter {
+    private static final int SP = 0;
+    private static final int LCL = 1;
+    private static final int ARG = 2;
+    private static final int THIS = 3;
+    private static final int THAT = 4;
+    private static final int HEAP_BASE = 2048;
+    private static final int SCREEN = 16384;
+    private static final int KEYBOARD = 24576;
+
+    /** The return address of the first call: returning to it stops the program. */
+    private static final int HALT = -1;
+
+    /** The Jack OS functions run natively when no file defines them. */
+    private static final String[] NATIVES = {
+            "Sys.init", "Sys.halt", "Sys.error", "Sys.wait",
+            "Math.init", "Math.abs", "Math.multiply", "Math.divide", "Math.min", "Math.max", "Math.sqrt",
+            "Memory.init", "Memory.peek", "Memory.poke", "Memory.alloc", "Memory.deAlloc",
+            "Array.new", "Array.dispose",
+            "String.new", "String.dispose", "String.length", "String.charAt", "String.setCharAt",
+            "String.appendChar", "String.eraseLastChar", "String.intValue", "String.setInt",
+            "String.backSpace", "String.doubleQuote", "String.newLine",
+            "Output.init", "Output.moveCursor", "Output.printChar", "Output.printString", "Output.printInt",
+            "Output.println", "Output.backSpace",
+            "Screen.init", "Screen.clearScreen", "Screen.setColor", "Screen.drawPixel", "Screen.drawLine",
+            "Screen.drawRectangle", "Screen.drawCircle",
+            "Keyboard.init", "Keyboard.keyPressed", "Keyboard.readChar", "Keyboard.readLine", "Keyboard.readInt",
+    };
+
+    // Linked command codes
+    private static final int PUSH_CONSTANT = 0;
+    private static final int PUSH_FIXED = 1;
+    private static final int PUSH_SEGMENT = 2;
+    private static final int POP_FIXED = 3;
+    private static final int POP_SEGMENT = 4;
+    private static final int ADD = 5;
+    private static final int SUB = 6;
+    private static final int NEG = 7;
+    private static final int EQ = 8;
+    private static final int GT = 9;
+    private static final int LT = 10;
+    private static final int AND = 11;
+    private static final int OR = 12;
+    private static final int NOT = 13;
+    private static final int NOP = 14;
+    private static final int GOTO = 15;
+    private static final int IF_GOTO = 16;
+    private static final int FUNCTION = 17;
+    private static final int CALL = 18;
+    private static final int CALL_NATIVE = 19;
+    private static final int RETURN = 20;
+
+    private final SymbolTable symbols;
+    private final PrintStream out;
+    private final List<VmCommand> commands = new ArrayList<>();
+    private final List<Integer> fileStarts = new ArrayList<>();
+    private final Map<Integer, Integer> functions = new HashMap<>();
+    private final int[] ram = new int[32768];
+
+    private int[] codes;
+    private int[] operands;
+    private int[] indexes;
+    private int pc;
+    private boolean halted;
+    private long steps;
+
+    private final TreeMap<Integer, Integer> freeBlocks = new TreeMap<>();
+    private final Map<Integer, Integer> blockSizes = new HashMap<>();
+    private boolean color = true;
+    private BufferedReader input;
+
+    /**
+     * @param symbols the table the symbols of the program's commands belong to
+     * @param out     where native {@code Output} functions print
+     */
+    public VmInterpreter(SymbolTable symbols, PrintStream out) {
+        this.symbols = symbols;
+        this.out = out;
+    }
+
+    /**
+     * Adds the commands of one file. All files must be added before {@link #run(long)}.
+     *
+     * @param commands the commands of the file
+     */
+    public void addFile(List<VmCommand> commands) {
+        fileStarts.add(this.commands.size());
+        this.commands.addAll(commands);
+    }
+
+    /**
+     * @return the memory; can be set up before {@link #run(long)} and read after it
+     */
+    public int[] getRam() {
+        return ram;
+    }
+
+    /**
+     * @return the number of commands executed, native functions counting as one
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return {@code true} if the program stopped by itself rather than by running out of steps
+     */
+    public boolean isHalted() {
+        return halted;
+    }
+
+    /**
+     * Links the program and runs it from the start.
+     *
+     * @param maxSteps the maximum number of commands to execute
+     * @throws IllegalArgumentException if the program calls a function that is neither defined nor native,
+     *                                  or jumps to a label its function does not define
+     * @throws IllegalStateException    if the program calls {@code Sys.error}, exceeds the stack or heap
+     *                                  or accesses an address outside the RAM
+     */
+    public void run(long maxSteps) {
+        link();
+        initHeap();
+        Integer sysInit = functionIndex(symbols.intern("Sys.init"));
+        if (sysInit != null) {
+            ram[SP] = 256;
+            pc = sysInit;
+            pushFrame(HALT, 0);
+        } else if (functionIndex(symbols.intern("Main.main")) != null) {
+            ram[SP] = 256;
+            startNativeSysInit();
+        } else {
+            pc = 0;
+        }
+        execute(maxSteps);
+    }
+
+    private Integer functionIndex(int symbol) {
+        return functions.get(symbol);
+    }
+
+    private void link() {
+        int size = commands.size();
+        codes = new int[size];
+        operands = new int[size];
+        indexes = new int[size];
+
+        // Functions and labels, scoped by function as in CodeWriter
+        Map<String, Integer> labels = new HashMap<>();
+        String function = "";
+        for (int i = 0; i < size; i++) {
+            VmCommand command = commands.get(i);
+            if (command.getOpcode() == Opcode.FUNCTION) {
+                function = symbols.getName(command.getSymbol());
+                functions.putIfAbsent(command.getSymbol(), i);
+            } else if (command.getOpcode() == Opcode.LABEL) {
+                labels.putIfAbsent(function + "$" + symbols.getName(command.getSymbol()), i);
+            }
+        }
+
+        int file = -1;
+        int staticBase = 16;
+        int staticCount = 0;
+        function = "";
+        for (int i = 0; i < size; i++) {
+            while (file + 1 < fileStarts.size() && fileStarts.get(file + 1) == i) {
+                // The statics of the next file follow those of the previous one
+                file++;
+                staticBase += staticCount;
+                staticCount = 0;
+            }
+            VmCommand command = commands.get(i);
+            switch (command.getOpcode()) {
+                case PUSH, POP -> {
+                    boolean push = command.getOpcode() == Opcode.PUSH;
+                    int index = command.getIndex();
+                    Segment segment = command.getSegment();
+                    if (segment == Segment.CONSTANT) {
+                        codes[i] = PUSH_CONSTANT;
+                        operands[i] = (short) index;
+                    } else if (segment.getBase() != null) {
+                        codes[i] = push ? PUSH_SEGMENT : POP_SEGMENT;
+                        operands[i] = switch (segment) {
+                            case LOCAL -> LCL;
+                            case ARGUMENT -> ARG;
+                            case THIS -> THIS;
+                            default -> THAT;
+                        };
+                        indexes[i] = index;
+                    } else {
+                        codes[i] = push ? PUSH_FIXED : POP_FIXED;
+                        operands[i] = switch (segment) {
+                            case POINTER -> THIS + index;
+                            case TEMP -> 5 + index;
+                            case STATIC -> {
+                                staticCount = Math.max(staticCount, index + 1);
+                                yield staticBase + index;
+                            }
+                            default -> throw new IllegalArgumentException("Invalid segment: " + segment.getName());
+                        };
+                    }
+                }
+                case ADD -> codes[i] = ADD;
+                case SUB -> codes[i] = SUB;
+                case NEG -> codes[i] = NEG;
+                case EQ -> codes[i] = EQ;
+                case GT -> codes[i] = GT;
+                case LT -> codes[i] = LT;
+                case AND -> codes[i] = AND;
+                case OR -> codes[i] = OR;
+                case NOT -> codes[i] = NOT;
+                case LABEL -> codes[i] = NOP;
+                case GOTO, IF_GOTO -> {
+                    String label = function + "$" + symbols.getName(command.getSymbol());
+                    Integer target = labels.get(label);
+                    if (target == null) {
+                        throw new IllegalArgumentException("Unknown label: " + label);
+                    }
+                    // Jump past the label itself, and any label after it
+                    while (target < size && commands.get(target).getOpcode() == Opcode.LABEL) {
+                        target++;
+                    }
+                    codes[i] = command.getOpcode() == Opcode.GOTO ? GOTO : IF_GOTO;
+                    operands[i] = target;
+                }
+                case FUNCTION -> {
+                    function = symbols.getName(command.getSymbol());
+                    codes[i] = FUNCTION;
+                    indexes[i] = command.getIndex();
+                }
+                case CALL -> {
+                    Integer target = functions.get(command.getSymbol());
+                    if (target != null) {
+                        codes[i] = CALL;
+                        operands[i] = target;
+                    } else {
+                        String name = symbols.getName(command.getSymbol());
+                        int nativeIndex = nativeIndex(name);
+                        if (nativeIndex < 0) {
+                            throw new IllegalArgumentException("Unknown function: " + name);
+                        }
+                        codes[i] = CALL_NATIVE;
+                        operands[i] = nativeIndex;
+                    }
+                    indexes[i] = command.getIndex();
+                }
+                case RETURN -> codes[i] = RETURN;
+            }
+        }
+    }
+
+    private static int nativeIndex(String name) {
+        for (int i = 0; i < NATIVES.length; i++) {
+            if (NATIVES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void execute(long maxSteps) {
+        final int[] ram = this.ram;
+        final int[] codes = this.codes;
+        final int[] operands = this.operands;
+        final int[] indexes = this.indexes;
+        final int end = codes.length;
+        int pc = this.pc;
+        long step = 0;
+        try {
+            while (!halted && step < maxSteps) {
+                if (pc == end) {
+                    halted = true;
+                    break;
+                }
+                step++;
+                int operand = operands[pc];
+                switch (codes[pc]) {
+                    case PUSH_CONSTANT -> ram[ram[SP]++] = operand;
+                    case PUSH_FIXED -> ram[ram[SP]++] = ram[operand];
+                    case PUSH_SEGMENT -> ram[ram[SP]++] = ram[ram[operand] + indexes[pc]];
+                    case POP_FIXED -> ram[operand] = ram[--ram[SP]];
+                    case POP_SEGMENT -> {
+                        int value = ram[--ram[SP]];
+                        ram[ram[operand] + indexes[pc]] = value;
+                    }
+                    case ADD -> {
+                        int y = ram[--ram[SP]];
+                        ram[ram[SP] - 1] = (short) (ram[ram[SP] - 1] + y);
+                    }
+                    case SUB -> {
+                        int y = ram[--ram[SP]];
+                        ram[ram[SP] - 1] = (short) (ram[ram[SP] - 1] - y);
+                    }
+                    case NEG -> ram[ram[SP] - 1] = (short) -ram[ram[SP] - 1];
+                    case EQ -> {
+                        int y = ram[--ram[SP]];
+                        ram[ram[SP] - 1] = ram[ram[SP] - 1] == y ? -1 : 0;
+                    }
+                    case GT -> {
+                        int y = ram[--ram[SP]];
+                        ram[ram[SP] - 1] = ram[ram[SP] - 1] > y ? -1 : 0;
+                    }
+                    case LT -> {
+                        int y = ram[--ram[SP]];
+                        ram[ram[SP] - 1] = ram[ram[SP] - 1] < y ? -1 : 0;
+                    }
+                    case AND -> {
+                        int y = ram[--ram[SP]];
+                        ram[ram[SP] - 1] &= y;
+                    }
+                    case OR -> {
+                        int y = ram[--ram[SP]];
+                        ram[ram[SP] - 1] |= y;
+                    }
+                    case NOT -> ram[ram[SP] - 1] = ~ram[ram[SP] - 1];
+                    case NOP -> {
+                    }
+                    case GOTO -> {
+                        if (operand == pc) {
+                            halted = true;
+                        }
+                        pc = operand;
+                        continue;
+                    }
+                    case IF_GOTO -> {
+                        if (ram[--ram[SP]] != 0) {
+                            pc = operand;
+                            continue;
+                        }
+                    }
+                    case FUNCTION -> {
+                        int sp = ram[SP];
+                        for (int i = indexes[pc]; i > 0; i--) {
+                            ram[sp++] = 0;
+                        }
+                        ram[SP] = sp;
+                    }
+                    case CALL -> {
+                        pushFrame(pc + 1, indexes[pc]);
+                        pc = operand;
+                        continue;
+                    }
+                    case CALL_NATIVE -> {
+                        this.pc = pc + 1;
+                        callNative(operand, indexes[pc]);
+                        pc = this.pc;
+                        continue;
+                    }
+                    case RETURN -> {
+                        int frame = ram[LCL];
+                        int returnAddress = ram[frame - 5];
+                        int arg = ram[ARG];
+                        ram[arg] = ram[ram[SP] - 1];
+                        ram[SP] = arg + 1;
+                        ram[THAT] = ram[frame - 1];
+                        ram[THIS] = ram[frame - 2];
+                        ram[ARG] = ram[frame - 3];
+                        ram[LCL] = ram[frame - 4];
+                        if (returnAddress == HALT) {
+                            halted = true;
+                        }
+                        pc = returnAddress;
+                        continue;
+                    }
+                    default -> throw new IllegalStateException("Invalid code " + codes[pc]);
+                }
+                pc++;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // A pointer or segment base outside the RAM; checked here rather than at every access
+            throw new IllegalStateException("Invalid address: " + e.getMessage());
+        } finally {
+            this.pc = pc;
+            steps += step;
+        }
+    }
+
+    /**
+     * Pushes the frame of a call whose arguments are on the stack, as the {@code call} command does.
+     */
+    private void pushFrame(int returnAddress, int nArgs) {
+        int sp = ram[SP];
+        if (sp + 5 >= HEAP_BASE) {
+            throw new IllegalStateException("Stack overflow");
+        }
+        ram[sp] = returnAddress;
+        ram[sp + 1] = ram[LCL];
+        ram[sp + 2] = ram[ARG];
+        ram[sp + 3] = ram[THIS];
+        ram[sp + 4] = ram[THAT];
+        ram[ARG] = sp - nArgs;
+        ram[LCL] = sp + 5;
+        ram[SP] = sp + 5;
+    }
+
+    /**
+     * Runs the native {@code Sys.init}: initialises the native classes and calls {@code Main.main}.
+     */
+    private void startNativeSysInit() {
+        Integer main = functionIndex(symbols.intern("Main.main"));
+        if (main == null) {
+            throw new IllegalArgumentException("Unknown function: Main.main");
+        }
+        for (String init : new String[]{"Memory.init", "Math.init", "Output.init", "Screen.init", "Keyboard.init"}) {
+            Integer function = functionIndex(symbols.intern(init));
+            if (function != null) {
+                throw new IllegalArgumentException("Native Sys.init cannot call " + init + " defined in VM code");
+            }
+        }
+        pc = main;
+        pushFrame(HALT, 0);
+    }
+
+    /**
+     * Runs a native function on the arguments on top of the stack and replaces them with its result.
+     */
+    private void callNative(int nativeIndex, int nArgs) {
+        int base = ram[SP] - nArgs;
+        int[] args = new int[Math.max(nArgs, 4)];
+        System.arraycopy(ram, base, args, 0, nArgs);
+        ram[SP] = base;
+        if (NATIVES[nativeIndex].equals("Sys.init")) {
+            startNativeSysInit();
+            return;
+        }
+        int result = switch (NATIVES[nativeIndex]) {
+            case "Sys.halt" -> {
+                halted = true;
+                yield 0;
+            }
+            case "Sys.error" -> throw new IllegalStateException("Sys.error " + args[0]);
+            case "Math.abs" -> (short) Math.abs(args[0]);
+            case "Math.multiply" -> (short) (args[0] * args[1]);
+            case "Math.divide" -> {
+                if (args[1] == 0) {
+                    throw new IllegalStateException("Sys.error 3: division by zero");
+                }
+                yield (short) (args[0] / args[1]);
+            }
+            case "Math.min" -> Math.min(args[0], args[1]);
+            case "Math.max" -> Math.max(args[0], args[1]);
+            case "Math.sqrt" -> {
+                if (args[0] < 0) {
+                    throw new IllegalStateException("Sys.error 4: square root of a negative number");
+                }
+                yield (int) Math.sqrt(args[0]);
+            }
+            case "Memory.peek" -> ram[args[0] & 0x7FFF];
+            case "Memory.poke" -> {
+                ram[args[0] & 0x7FFF] = args[1];
+                yield 0;
+            }
+            case "Memory.alloc", "Array.new" -> alloc(args[0]);
+            case "Memory.deAlloc", "Array.dispose", "String.dispose" -> {
+                deAlloc(args[0]);
+                yield 0;
+            }
+            case "String.new" -> {
+                if (args[0] < 0) {
+                    throw new IllegalStateException("Sys.error 14: negative string length");
+                }
+                int string = alloc(args[0] + 2);
+                ram[string] = args[0];
+                ram[string + 1] = 0;
+                yield string;
+            }
+            case "String.length" -> ram[args[0] + 1];
+            case "String.charAt" -> ram[args[0] + 2 + args[1]];
+            case "String.setCharAt" -> {
+                ram[args[0] + 2 + args[1]] = args[2];
+                yield 0;
+            }
+            case "String.appendChar" -> {
+                int string = args[0];
+                if (ram[string + 1] == ram[string]) {
+                    throw new IllegalStateException("Sys.error 17: string is full");
+                }
+                ram[string + 2 + ram[string + 1]++] = args[1];
+                yield string;
+            }
+            case "String.eraseLastChar" -> {
+                if (ram[args[0] + 1] > 0) {
+                    ram[args[0] + 1]--;
+                }
+                yield 0;
+            }
+            case "String.intValue" -> (short) parseInt(readString(args[0]));
+            case "String.setInt" -> {
+                String text = Integer.toString(args[1]);
+                if (text.length() > ram[args[0]]) {
+                    throw new IllegalStateException("Sys.error 19: string too short");
+                }
+                writeString(args[0], text);
+                yield 0;
+            }
+            case "String.backSpace" -> 129;
+            case "String.doubleQuote" -> 34;
+            case "String.newLine" -> 128;
+            case "Output.printChar" -> {
+                printChar(args[0]);
+                yield 0;
+            }
+            case "Output.printString" -> {
+                printString(args[0]);
+                yield 0;
+            }
+            case "Output.printInt" -> {
+                out.print(args[0]);
+                yield 0;
+            }
+            case "Output.println" -> {
+                out.println();
+                yield 0;
+            }
+            case "Screen.clearScreen" -> {
+                Arrays.fill(ram, SCREEN, KEYBOARD, 0);
+                yield 0;
+            }
+            case "Screen.setColor" -> {
+                color = args[0] != 0;
+                yield 0;
+            }
+            case "Screen.drawPixel" -> {
+                drawPixel(args[0], args[1]);
+                yield 0;
+            }
+            case "Screen.drawLine" -> {
+                drawLine(args[0], args[1], args[2], args[3]);
+                yield 0;
+            }
+            case "Screen.drawRectangle" -> {
+                for (int y = args[1]; y <= args[3]; y++) {
+                    for (int x = args[0]; x <= args[2]; x++) {
+                        drawPixel(x, y);
+                    }
+                }
+                yield 0;
+            }
+            case "Screen.drawCircle" -> {
+                int r = args[2];
+                for (int dy = -r; dy <= r; dy++) {
+                    int dx = (int) Math.sqrt(r * r - dy * dy);
+                    for (int x = args[0] - dx; x <= args[0] + dx; x++) {
+                        drawPixel(x, args[1] + dy);
+                    }
+                }
+                yield 0;
+            }
+            case "Keyboard.keyPressed" -> ram[KEYBOARD];
+            case "Keyboard.readChar" -> readChar();
+            case "Keyboard.readLine", "Keyboard.readInt" -> {
+                printString(args[0]);
+                String line = readLine();
+                if (NATIVES[nativeIndex].equals("Keyboard.readInt")) {
+                    yield (short) parseInt(line);
+                }
+                int string = alloc(Math.max(line.length(), 1) + 2);
+                ram[string] = Math.max(line.length(), 1);
+                writeString(string, line);
+                yield string;
+            }
+            // Sys.wait, the init functions, Output.moveCursor and Output.backSpace have no effect
+            default -> 0;
+        };
+        ram[ram[SP]++] = result;
+    }
+
+    private void initHeap() {
+        freeBlocks.clear();
+        blockSizes.clear();
+        freeBlocks.put(HEAP_BASE, SCREEN - HEAP_BASE);
+    }
+
+    /**
+     * Allocates a block of the heap, first fit.
+     */
+    private int alloc(int size) {
+        if (size <= 0) {
+            throw new IllegalStateException("Sys.error 5: allocated memory size must be positive");
+        }
+        for (Map.Entry<Integer, Integer> block : freeBlocks.entrySet()) {
+            if (block.getValue() >= size) {
+                int address = block.getKey();
+                freeBlocks.remove(address);
+                if (block.getValue() > size) {
+                    freeBlocks.put(address + size, block.getValue() - size);
+                }
+                blockSizes.put(address, size);
+                return address;
+            }
+        }
+        throw new IllegalStateException("Sys.error 6: heap overflow");
+    }
+
+    /**
+     * Frees a block returned by {@link #alloc(int)}, merging it with free neighbours.
+     */
+    private void deAlloc(int address) {
+        Integer size = blockSizes.remove(address);
+        if (size == null) {
+            return;
+        }
+        Map.Entry<Integer, Integer> next = freeBlocks.ceilingEntry(address);
+        if (next != null && next.getKey() == address + size) {
+            size += freeBlocks.remove(next.getKey());
+        }
+        Map.Entry<Integer, Integer> previous = freeBlocks.floorEntry(address);
+        if (previous != null && previous.getKey() + previous.getValue() == address) {
+            freeBlocks.put(previous.getKey(), previous.getValue() + size);
+        } else {
+            freeBlocks.put(address, size);
+        }
+    }
+
+    private String readString(int string) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < ram[string + 1]; i++) {
+            text.append((char) ram[string + 2 + i]);
+        }
+        return text.toString();
+    }
+
+    private void writeString(int string, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            ram[string + 2 + i] = text.charAt(i);
+        }
+        ram[string + 1] = text.length();
+    }
+
+    private void printString(int string) {
+        String text = readString(string);
+        for (int i = 0; i < text.length(); i++) {
+            printChar(text.charAt(i));
+        }
+    }
+
+    private void printChar(int c) {
+        if (c == 128) {
+            out.println();
+        } else if (c != 129) {
+            out.print((char) c);
+        }
+    }
+
+    private void drawPixel(int x, int y) {
+        if (x < 0 || x >= 512 || y < 0 || y >= 256) {
+            throw new IllegalStateException("Sys.error 7: illegal pixel coordinates");
+        }
+        int address = SCREEN + y * 32 + x / 16;
+        int bit = 1 << (x & 15);
+        ram[address] = (short) (color ? ram[address] | bit : ram[address] & ~bit);
+    }
+
+    private void drawLine(int x1, int y1, int x2, int y2) {
+        int dx = Math.abs(x2 - x1);
+        int dy = -Math.abs(y2 - y1);
+        int stepX = x1 < x2 ? 1 : -1;
+        int stepY = y1 < y2 ? 1 : -1;
+        int error = dx + dy;
+        while (true) {
+            drawPixel(x1, y1);
+            if (x1 == x2 && y1 == y2) {
+                return;
+            }
+            int doubled = 2 * error;
+            if (doubled >= dy) {
+                error += dy;
+                x1 += stepX;
+            }
+            if (doubled <= dx) {
+                error += dx;
+                y1 += stepY;
+            }
+        }
+    }
+
+    private BufferedReader input() {
+        if (input == null) {
+            input = new BufferedReader(new InputStreamReader(System.in));
+        }
+        return input;
+    }
+
+    private int readChar() {
+        try {
+            int c = input().read();
+            return c == '\n' ? 128 : Math.max(c, 0);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private String readLine() {
+        try {
+            String line = input().readLine();
+            return line == null ? "" : line;
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private static int parseInt(String text) {
+        int value = 0;
+        int i = text.startsWith("-") ? 1 : 0;
+        for (; i < text.length() && Character.isDigit(text.charAt(i)); i++) {
+            value = value * 10 + (text.charAt(i) - '0');
+        }
+        return text.startsWith("-") ? -value : value;
+    }
+}
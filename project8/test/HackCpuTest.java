@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Checks that {@link HackCpu} executes Hack machine code like the simulator's
+ * {@link HackEmulator}, the reference the gate-level computer is compared with.
+ *
+ * <p>Both run the same programs: a short one assembled by {@link HackEncoder}
+ * that ends with the halting idiom, and full ROMs of random instructions,
+ * whose addresses favour the stack, the screen and the keyboard. The emulator
+ * executes as many instructions as the CPU did, then the cycle counts and
+ * every data memory word must agree. Exits with status 1 on a difference.
+ * From the repository root:</p>
+ *
+ * <pre>
+ * javac -d /tmp/hackcpu project8/HackCpu.java project8/HackEncoder.java \
+ *     simulator/HackEmulator.java project8/test/HackCpuTest.java
+ * java -cp /tmp/hackcpu HackCpuTest
+ * </pre>
+ */
+public class HackCpuTest {
+    private static final int ROM_SIZE = 32768;
+    private static final int RANDOM_PROGRAMS = 20;
+    private static final long RANDOM_CYCLES = 200_000;
+
+    public static void main(String[] args) throws IOException {
+        int failures = 0;
+        failures += check("halting program", assemble(
+                "@17", "D=A", "@R0", "M=D", "@16384", "M=-1", "@24576", "M=D", "D=M", "@R1", "M=D",
+                "(END)", "@END", "0;JMP"), 1000);
+        Random random = new Random(1);
+        for (int i = 0; i < RANDOM_PROGRAMS; i++) {
+            failures += check("random program " + i, randomProgram(random), RANDOM_CYCLES);
+        }
+        System.out.println((RANDOM_PROGRAMS + 1) + " programs, " + failures + " failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs a program on both machines and reports the first difference.
+     *
+     * @return 1 if they disagree, otherwise 0
+     */
+    private static int check(String name, short[] rom, long maxCycles) {
+        HackCpu cpu = new HackCpu(rom);
+        cpu.run(maxCycles);
+        HackEmulator emulator = new HackEmulator(rom);
+        for (long cycle = 0; cycle < cpu.getCycles(); cycle++) {
+            emulator.step();
+        }
+        if (emulator.getCycles() != cpu.getCycles()) {
+            System.out.println(name + ": " + cpu.getCycles() + " cycles, emulator " + emulator.getCycles());
+            return 1;
+        }
+        int[] ram = cpu.getRam();
+        for (int address = 0; address < ram.length; address++) {
+            if ((short) ram[address] != emulator.read(address)) {
+                System.out.println(name + ": RAM[" + address + "] = " + (short) ram[address]
+                        + ", emulator " + emulator.read(address) + " after " + cpu.getCycles() + " cycles");
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    private static short[] assemble(String... lines) throws IOException {
+        HackEncoder encoder = new HackEncoder(null);
+        encoder.write(String.join("\n", lines).getBytes(StandardCharsets.US_ASCII));
+        encoder.close();
+        short[] rom = new short[ROM_SIZE];
+        short[] words = encoder.getWords();
+        System.arraycopy(words, 0, rom, 0, words.length);
+        return rom;
+    }
+
+    private static short[] randomProgram(Random random) {
+        short[] rom = new short[ROM_SIZE];
+        for (int i = 0; i < rom.length; i++) {
+            if (random.nextBoolean()) {
+                int address = switch (random.nextInt(4)) {
+                    case 0 -> random.nextInt(32);
+                    case 1 -> HackEmulator.SCREEN + random.nextInt(16);
+                    case 2 -> HackEmulator.KEYBOARD + random.nextInt(16);
+                    default -> random.nextInt(ROM_SIZE);
+                };
+                rom[i] = (short) address;
+            } else {
+                rom[i] = (short) (0xE000 | random.nextInt(0x2000));
+            }
+        }
+        return rom;
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * A chip simulated by Java code instead of gates.
+ *
+ * <p>The simulator calls {@link #evaluate(int[])} at the model's place in the
+ * levelised schedule, so the outputs may depend on the current value of the
+ * chip's combinational inputs. {@link #tick(int[])} samples the clocked
+ * inputs on the rising edge and {@link #tock(int[])} commits them.</p>
+ */
+public abstract class BehaviouralModel {
+    private final String chipName;
+
+    protected BehaviouralModel(String chipName) {
+        this.chipName = chipName;
+    }
+
+    public String getChipName() {
+        return chipName;
+    }
+
+    /**
+     * Drives the output nets from the current state and inputs.
+     *
+     * @param values the net values, one bit per net
+     */
+    public abstract void evaluate(int[] values);
+
+    /**
+     * Samples the clocked inputs (rising clock edge).
+     *
+     * @param values the net values, one bit per net
+     */
+    public abstract void tick(int[] values);
+
+    /**
+     * Commits the values sampled by the last {@link #tick(int[])} (falling clock edge).
+     */
+    public abstract void tock();
+
+    /**
+     * @return the chip's storage, one 16-bit word per register
+     */
+    public abstract short[] getMemory();
+
+    /**
+     * Reads a bus as an unsigned integer, bit 0 first.
+     *
+     * @param values the net values
+     * @param nets   the nets of the bus
+     * @return the bus value
+     */
+    protected static int read(int[] values, int[] nets) {
+        int result = 0;
+        for (int i = nets.length - 1; i >= 0; i--) {
+            result = (result << 1) | values[nets[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Drives a bus from the low bits of an integer.
+     *
+     * @param values the net values
+     * @param nets   the nets of the bus
+     * @param value  the value to drive
+     */
+    protected static void write(int[] values, int[] nets, int value) {
+        for (int i = 0; i < nets.length; i++) {
+            values[nets[i]] = (value >>> i) & 1;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.Set;
+
+/**
+ * The chips that are not described in HDL.
+ *
+ * <p>{@code Nand} and {@code DFF} are the two primitives every other chip is
+ * flattened into. The next entries are the course's built-in chips that
+ * have no {@code .hdl} implementation in this repository (the CPU registers,
+ * the instruction ROM and the I/O devices); they are simulated by a
+ * {@link BehaviouralModel} wired into the netlist.</p>
+ *
+ * <p>The last entries are {@link #isSubstitute() substitutes}: behavioural
+ * models of project 3 chips that replace hundreds of thousands of gates and
+ * DFFs when the compiler is asked to use them.</p>
+ */
+public enum BuiltInChip {
+    NAND("Nand", new String[]{"a", "b"}, new int[]{1, 1}, new String[]{"out"}, new int[]{1}, Set.of("a", "b")),
+    DFF("DFF", new String[]{"in"}, new int[]{1}, new String[]{"out"}, new int[]{1}, Set.of()),
+    A_REGISTER("ARegister", new String[]{"in", "load"}, new int[]{16, 1}, new String[]{"out"}, new int[]{16}, Set.of()),
+    D_REGISTER("DRegister", new String[]{"in", "load"}, new int[]{16, 1}, new String[]{"out"}, new int[]{16}, Set.of()),
+    ROM32K("ROM32K", new String[]{"address"}, new int[]{15}, new String[]{"out"}, new int[]{16}, Set.of("address")),
+    SCREEN("Screen", new String[]{"in", "load", "address"}, new int[]{16, 1, 13},
+            new String[]{"out"}, new int[]{16}, Set.of("address")),
+    KEYBOARD("Keyboard", new String[]{}, new int[]{}, new String[]{"out"}, new int[]{16}, Set.of()),
+
+    // Behavioural substitutes for chips that do have an HDL implementation
+    REGISTER("Register", new String[]{"in", "load"}, new int[]{16, 1}, new String[]{"out"}, new int[]{16}, Set.of()),
+    PC("PC", new String[]{"in", "reset", "load", "inc"}, new int[]{16, 1, 1, 1},
+            new String[]{"out"}, new int[]{16}, Set.of()),
+    RAM8("RAM8", 3),
+    RAM64("RAM64", 6),
+    RAM512("RAM512", 9),
+    RAM4K("RAM4K", 12),
+    RAM16K("RAM16K", 14);
+
+    private final String chipName;
+    private final ChipDefinition definition;
+    private final Set<String> combinationalInputs;
+
+    BuiltInChip(String chipName, String[] inputs, int[] inputWidths, String[] outputs, int[] outputWidths,
+                Set<String> combinationalInputs) {
+        this.chipName = chipName;
+        this.definition = new ChipDefinition(chipName, null);
+        for (int i = 0; i < inputs.length; i++) {
+            definition.getInputs().put(inputs[i], inputWidths[i]);
+        }
+        for (int i = 0; i < outputs.length; i++) {
+            definition.getOutputs().put(outputs[i], outputWidths[i]);
+        }
+        this.combinationalInputs = combinationalInputs;
+    }
+
+    BuiltInChip(String chipName, int addressBits) {
+        this(chipName, new String[]{"in", "load", "address"}, new int[]{16, 1, addressBits},
+                new String[]{"out"}, new int[]{16}, Set.of("address"));
+    }
+
+    public String getChipName() {
+        return chipName;
+    }
+
+    /**
+     * @return the pin interface of the chip
+     */
+    public ChipDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * Returns whether the outputs depend on the given input within the same
+     * clock cycle (e.g. the {@code address} of a RAM), as opposed to only
+     * being sampled on the clock edge (e.g. {@code in} and {@code load}).
+     *
+     * @param pin an input pin name
+     * @return {@code true} if the pin feeds the outputs combinationally
+     */
+    public boolean isCombinationalInput(String pin) {
+        return combinationalInputs.contains(pin);
+    }
+
+    /**
+     * @return {@code true} for the Nand and DFF primitives
+     */
+    public boolean isPrimitive() {
+        return this == NAND || this == DFF;
+    }
+
+    /**
+     * Returns whether this is a behavioural substitute for a chip that is
+     * normally simulated from its HDL, i.e. the registers and RAMs of
+     * project 3. Substitutes are only used when the compiler is asked to.
+     *
+     * @return {@code true} for Register, PC and RAM8 to RAM16K
+     */
+    public boolean isSubstitute() {
+        return ordinal() >= REGISTER.ordinal();
+    }
+
+    /**
+     * Creates the simulation model for one instance of this chip.
+     *
+     * @param pins the net ids of every pin, inputs first, in definition order
+     * @return a new model with cleared state
+     */
+    public BehaviouralModel createModel(int[][] pins) {
+        return switch (this) {
+            case A_REGISTER, D_REGISTER -> new MemoryModel(chipName, 1, pins[0], pins[1][0], null, pins[2]);
+            case ROM32K -> new MemoryModel(chipName, 1 << 15, null, -1, pins[0], pins[1]);
+            case SCREEN -> new MemoryModel(chipName, 1 << 13, pins[0], pins[1][0], pins[2], pins[3]);
+            case KEYBOARD -> new MemoryModel(chipName, 1, null, -1, null, pins[0]);
+            case REGISTER -> new MemoryModel(chipName, 1, pins[0], pins[1][0], null, pins[2]);
+            case PC -> new CounterModel(pins[0], pins[1][0], pins[2][0], pins[3][0], pins[4]);
+            case RAM8, RAM64, RAM512, RAM4K, RAM16K ->
+                    new MemoryModel(chipName, 1 << pins[2].length, pins[0], pins[1][0], pins[2], pins[3]);
+            default -> throw new IllegalStateException(chipName + " is a primitive");
+        };
+    }
+
+    /**
+     * Looks up a built-in chip by its HDL name.
+     *
+     * @param chipName the name used in a part statement
+     * @return the built-in chip, or {@code null} if there is none with that name
+     */
+    public static BuiltInChip forName(String chipName) {
+        for (BuiltInChip chip : values()) {
+            if (chip.chipName.equals(chipName)) {
+                return chip;
+            }
+        }
+        return null;
+    }
+}
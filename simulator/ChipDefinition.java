@@ -0,0 +1,160 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The parsed form of a single {@code .hdl} file: the chip's name, its
+ * {@code IN} and {@code OUT} pins (with their widths) and the list of parts
+ * in the order they appear in the {@code PARTS:} section.
+ */
+public class ChipDefinition {
+
+    /**
+     * One part statement, e.g. {@code Mux16(a=x, b=false, sel=zx, out=x1);}
+     */
+    public static class Part {
+        private final String chipName;
+        private final List<Connection> connections;
+        private final int line;
+
+        public Part(String chipName, List<Connection> connections, int line) {
+            this.chipName = chipName;
+            this.connections = connections;
+            this.line = line;
+        }
+
+        public String getChipName() {
+            return chipName;
+        }
+
+        public List<Connection> getConnections() {
+            return connections;
+        }
+
+        public int getLine() {
+            return line;
+        }
+    }
+
+    /**
+     * One {@code pin[lo..hi]=wire[lo..hi]} connection inside a part statement.
+     * A range of {@code -1} means the whole pin or wire is used. Constant
+     * connections ({@code true}/{@code false}) have a {@code null} wire.
+     */
+    public static class Connection {
+        private final String pin;
+        private final int pinLo;
+        private final int pinHi;
+        private final String wire;
+        private final int wireLo;
+        private final int wireHi;
+        private final boolean constantValue;
+
+        public Connection(String pin, int pinLo, int pinHi, String wire, int wireLo, int wireHi) {
+            this.pin = pin;
+            this.pinLo = pinLo;
+            this.pinHi = pinHi;
+            this.wire = wire;
+            this.wireLo = wireLo;
+            this.wireHi = wireHi;
+            this.constantValue = false;
+        }
+
+        public Connection(String pin, int pinLo, int pinHi, boolean constantValue) {
+            this.pin = pin;
+            this.pinLo = pinLo;
+            this.pinHi = pinHi;
+            this.wire = null;
+            this.wireLo = -1;
+            this.wireHi = -1;
+            this.constantValue = constantValue;
+        }
+
+        public String getPin() {
+            return pin;
+        }
+
+        public int getPinLo() {
+            return pinLo;
+        }
+
+        public int getPinHi() {
+            return pinHi;
+        }
+
+        public String getWire() {
+            return wire;
+        }
+
+        public int getWireLo() {
+            return wireLo;
+        }
+
+        public int getWireHi() {
+            return wireHi;
+        }
+
+        public boolean isConstant() {
+            return wire == null;
+        }
+
+        public boolean getConstantValue() {
+            return constantValue;
+        }
+    }
+
+    private final String name;
+    private final File source;
+    private final LinkedHashMap<String, Integer> inputs = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Integer> outputs = new LinkedHashMap<>();
+    private final List<Part> parts = new ArrayList<>();
+
+    public ChipDefinition(String name, File source) {
+        this.name = name;
+        this.source = source;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the {@code .hdl} file this chip was parsed from, or {@code null} for built-in chips
+     */
+    public File getSource() {
+        return source;
+    }
+
+    public LinkedHashMap<String, Integer> getInputs() {
+        return inputs;
+    }
+
+    public LinkedHashMap<String, Integer> getOutputs() {
+        return outputs;
+    }
+
+    public List<Part> getParts() {
+        return parts;
+    }
+
+    /**
+     * Returns the width of the named pin, or {@code -1} if the chip has no such pin.
+     *
+     * @param pin the pin name
+     * @return the pin width in bits
+     */
+    public int pinWidth(String pin) {
+        Integer width = inputs.get(pin);
+        if (width == null) {
+            width = outputs.get(pin);
+        }
+        return width == null ? -1 : width;
+    }
+
+    @Override
+    public String toString() {
+        return "ChipDefinition{" + "name=" + name + ", inputs=" + inputs + ", outputs=" + outputs
+                + ", parts=" + parts.size() + '}';
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Locates and parses {@code .hdl} files by chip name.
+ *
+ * <p>The search path is a list of directories that are scanned recursively,
+ * breadth first, so a chip in a directory listed earlier (or nearer to its
+ * root) shadows one with the same name further away. This lets
+ * {@code project5/CPU.hdl} pick up {@code project2/ALU.hdl} when the
+ * repository root is on the path. Hidden directories such as {@code .git}
+ * are not searched.</p>
+ */
+public class ChipLibrary {
+    private final List<File> searchPath;
+    private final Map<String, File> index = new HashMap<>();
+    private final Map<String, ChipDefinition> definitions = new HashMap<>();
+
+    /**
+     * @param searchPath the directories to search, in priority order
+     */
+    public ChipLibrary(List<File> searchPath) {
+        this.searchPath = new ArrayList<>(searchPath);
+        for (File root : searchPath) {
+            scan(root);
+        }
+    }
+
+    /**
+     * Creates the default library for a chip file: its own directory first,
+     * then everything under the enclosing repository (the nearest ancestor,
+     * at most three levels up, that holds a {@code .git} directory or a
+     * {@code README.md}), or under the parent directory if there is none.
+     *
+     * @param chipFile an {@code .hdl} file
+     * @return the library
+     */
+    public static ChipLibrary forChip(File chipFile) {
+        File directory = chipFile.getAbsoluteFile().getParentFile();
+        File root = directory.getParentFile();
+        File ancestor = directory;
+        for (int level = 0; level < 3 && ancestor != null; level++) {
+            if (new File(ancestor, ".git").exists() || new File(ancestor, "README.md").exists()) {
+                root = ancestor;
+                break;
+            }
+            ancestor = ancestor.getParentFile();
+        }
+        return new ChipLibrary(root == null ? List.of(directory) : List.of(directory, root));
+    }
+
+    public List<File> getSearchPath() {
+        return searchPath;
+    }
+
+    /**
+     * Finds the HDL file of a chip.
+     *
+     * @param chipName the chip name
+     * @return the file, or {@code null} if the chip has no HDL on the search path
+     */
+    public File find(String chipName) {
+        return index.get(chipName);
+    }
+
+    /**
+     * Returns the parsed definition of a chip, parsing it on first use.
+     *
+     * @param chipName the chip name
+     * @return the definition
+     * @throws IllegalArgumentException if the chip cannot be found or does not parse
+     */
+    public synchronized ChipDefinition getDefinition(String chipName) {
+        ChipDefinition definition = definitions.get(chipName);
+        if (definition != null) {
+            return definition;
+        }
+        File file = find(chipName);
+        if (file == null) {
+            throw new IllegalArgumentException("Chip " + chipName + " not found in " + searchPath);
+        }
+        try {
+            definition = new HdlParser(file).parse();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading " + file, e);
+        }
+        if (!definition.getName().equals(chipName)) {
+            throw new IllegalArgumentException(file + " defines chip " + definition.getName()
+                    + " instead of " + chipName);
+        }
+        definitions.put(chipName, definition);
+        return definition;
+    }
+
+    private void scan(File root) {
+        Deque<File> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            File[] files = queue.poll().listFiles();
+            if (files == null) {
+                continue;
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    if (!file.getName().startsWith(".")) {
+                        queue.add(file);
+                    }
+                } else if (file.getName().endsWith(".hdl")) {
+                    index.putIfAbsent(file.getName().substring(0, file.getName().length() - 4), file);
+                }
+            }
+        }
+    }
+}
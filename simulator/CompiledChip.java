@@ -0,0 +1,146 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Base class of the chip models generated by {@link JavaEmitter}.
+ *
+ * <p>A generated model has the same clocking as the {@link Simulator}:
+ * {@link #tick()} evaluates the chip and samples every DFF and built-in
+ * part, {@link #tock()} commits the sampled state and re-evaluates.</p>
+ *
+ * <p>Only nets that outlive one evaluation are stored in fields (pins,
+ * DFF outputs, built-in part inputs and nets shared between generated
+ * methods); {@link #getNet(int)} can read those.</p>
+ */
+public abstract class CompiledChip {
+    private final String chipName;
+    private final Map<String, int[]> inputs = new LinkedHashMap<>();
+    private final Map<String, int[]> pins = new LinkedHashMap<>();
+    private long cycles;
+
+    /**
+     * @param chipName   the name of the compiled chip
+     * @param inputNames the top-level input pins
+     * @param inputNets  their nets, bit 0 first
+     * @param pinNames   the top-level output pins and wires
+     * @param pinNets    their nets, bit 0 first
+     */
+    protected CompiledChip(String chipName, String[] inputNames, int[][] inputNets, String[] pinNames,
+                           int[][] pinNets) {
+        this.chipName = chipName;
+        for (int i = 0; i < inputNames.length; i++) {
+            inputs.put(inputNames[i], inputNets[i]);
+            pins.put(inputNames[i], inputNets[i]);
+        }
+        for (int i = 0; i < pinNames.length; i++) {
+            pins.put(pinNames[i], pinNets[i]);
+        }
+    }
+
+    public String getChipName() {
+        return chipName;
+    }
+
+    /**
+     * @return the number of completed clock cycles
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * Recomputes every combinational net from the inputs and the stored state.
+     */
+    public abstract void evaluate();
+
+    /**
+     * Rising clock edge: evaluates the chip and samples every DFF and built-in.
+     */
+    public abstract void tick();
+
+    /**
+     * Falling clock edge: commits the sampled state and re-evaluates the chip.
+     */
+    public void tock() {
+        commit();
+        cycles++;
+        evaluate();
+    }
+
+    /**
+     * Commits the state sampled by {@link #tick()}.
+     */
+    protected abstract void commit();
+
+    /**
+     * Runs one full clock cycle.
+     */
+    public void step() {
+        tick();
+        tock();
+    }
+
+    /**
+     * Reads a stored net.
+     *
+     * @param net the net id in the netlist the model was generated from
+     * @return the bit value
+     * @throws IllegalArgumentException if the net is not stored in a field
+     */
+    public abstract int getNet(int net);
+
+    /**
+     * Writes a stored net; only meaningful for input pin nets.
+     *
+     * @param net   the net id
+     * @param value the bit value
+     * @throws IllegalArgumentException if the net is not stored in a field
+     */
+    protected abstract void setNet(int net, int value);
+
+    /**
+     * Returns the storage of the first built-in part of the given chip, e.g.
+     * {@code "ROM32K"} or {@code "ARegister"}.
+     *
+     * @param chipName the built-in chip name
+     * @return the storage, or {@code null} if the chip has no such part
+     */
+    public abstract short[] getMemory(String chipName);
+
+    /**
+     * Sets a top-level input pin. The outputs are not updated until the next
+     * {@link #evaluate()}, {@link #tick()} or {@link #tock()}.
+     *
+     * @param pin   the pin name
+     * @param value the value, bit 0 first
+     * @throws IllegalArgumentException if there is no such input
+     */
+    public void setInput(String pin, long value) {
+        int[] nets = inputs.get(pin);
+        if (nets == null) {
+            throw new IllegalArgumentException("No input pin " + pin + " in " + chipName);
+        }
+        for (int i = 0; i < nets.length; i++) {
+            setNet(nets[i], (int) (value >>> i) & 1);
+        }
+    }
+
+    /**
+     * Reads a top-level pin or wire.
+     *
+     * @param pin the pin or wire name
+     * @return the unsigned value, bit 0 first
+     * @throws IllegalArgumentException if there is no such pin
+     */
+    public long getPin(String pin) {
+        int[] nets = pins.get(pin);
+        if (nets == null) {
+            throw new IllegalArgumentException("No pin " + pin + " in " + chipName);
+        }
+        long result = 0;
+        for (int i = nets.length - 1; i >= 0; i--) {
+            result = (result << 1) | getNet(nets[i]);
+        }
+        return result;
+    }
+}
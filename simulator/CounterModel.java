@@ -0,0 +1,56 @@
+/**
+ * Behavioural model of the project 3 {@code PC} chip.
+ *
+ * <pre>
+ *     if      reset(t): out(t+1) = 0
+ *     else if load(t):  out(t+1) = in(t)
+ *     else if inc(t):   out(t+1) = out(t) + 1
+ *     else              out(t+1) = out(t)
+ * </pre>
+ */
+public class CounterModel extends BehaviouralModel {
+    private final short[] state = new short[1];
+    private final int[] in;
+    private final int reset;
+    private final int load;
+    private final int inc;
+    private final int[] out;
+    private short next;
+
+    public CounterModel(int[] in, int reset, int load, int inc, int[] out) {
+        super("PC");
+        this.in = in;
+        this.reset = reset;
+        this.load = load;
+        this.inc = inc;
+        this.out = out;
+    }
+
+    @Override
+    public void evaluate(int[] values) {
+        write(values, out, state[0]);
+    }
+
+    @Override
+    public void tick(int[] values) {
+        if (values[reset] != 0) {
+            next = 0;
+        } else if (values[load] != 0) {
+            next = (short) read(values, in);
+        } else if (values[inc] != 0) {
+            next = (short) (state[0] + 1);
+        } else {
+            next = state[0];
+        }
+    }
+
+    @Override
+    public void tock() {
+        state[0] = next;
+    }
+
+    @Override
+    public short[] getMemory() {
+        return state;
+    }
+}
@@ -0,0 +1,244 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks a combinational chip against its {@link ReferenceModel} over its
+ * whole input space, 64 vectors per gate evaluation.
+ *
+ * <p>The input pins are concatenated (in the model's pin order, bit 0 first)
+ * into one vector number. The six lowest bits select the lane, so their
+ * planes are fixed patterns, and the remaining bits are constant across a
+ * batch and come from the batch number. {@code Add16}'s 2<sup>32</sup>
+ * vectors are therefore 2<sup>26</sup> evaluations of the netlist. Chips
+ * whose input space is too large can be checked on random batches instead.</p>
+ */
+public class ExhaustiveVerifier {
+    private static final long[] LANE_PATTERNS = {
+            0xAAAAAAAAAAAAAAAAL, 0xCCCCCCCCCCCCCCCCL, 0xF0F0F0F0F0F0F0F0L,
+            0xFF00FF00FF00FF00L, 0xFFFF0000FFFF0000L, 0xFFFFFFFF00000000L
+    };
+
+    private final Netlist netlist;
+    private final ReferenceModel model;
+    private final int inputBits;
+
+    /**
+     * @param netlist the flattened chip, which must not contain DFFs or built-ins
+     * @param model   the reference model of the same chip
+     * @throws IllegalArgumentException if the chip is sequential or its pins do not match the model
+     */
+    public ExhaustiveVerifier(Netlist netlist, ReferenceModel model) {
+        if (netlist.getDffCount() > 0 || !netlist.getBuiltIns().isEmpty()) {
+            throw new IllegalArgumentException(netlist.getChipName() + " is not combinational");
+        }
+        checkPins(netlist, model.getInputs(), model.getInputWidths());
+        checkPins(netlist, model.getOutputs(), model.getOutputWidths());
+        netlist.levelise();
+        this.netlist = netlist;
+        this.model = model;
+        int bits = 0;
+        for (int width : model.getInputWidths()) {
+            bits += width;
+        }
+        this.inputBits = bits;
+    }
+
+    /**
+     * @return the number of input bits, i.e. log2 of the input space size
+     */
+    public int getInputBits() {
+        return inputBits;
+    }
+
+    /**
+     * Verifies every input vector.
+     *
+     * @param threads the number of worker threads
+     * @return the outcome
+     * @throws IllegalArgumentException if the input space has more than 2<sup>62</sup> vectors
+     */
+    public Result verifyAll(int threads) {
+        if (inputBits > 62) {
+            throw new IllegalArgumentException(netlist.getChipName() + " has " + inputBits
+                    + " input bits, too many to enumerate");
+        }
+        long batches = inputBits <= 6 ? 1 : 1L << (inputBits - 6);
+        return run(batches, threads, false);
+    }
+
+    /**
+     * Verifies randomly chosen input vectors.
+     *
+     * @param batches the number of 64-vector batches to try
+     * @param threads the number of worker threads
+     * @return the outcome
+     */
+    public Result verifyRandom(long batches, int threads) {
+        return run(batches, threads, true);
+    }
+
+    private Result run(long batches, int threads, boolean random) {
+        threads = (int) Math.max(1, Math.min(threads, batches));
+        AtomicLong checked = new AtomicLong();
+        AtomicReference<String> mismatch = new AtomicReference<>();
+        long start = System.nanoTime();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            long perThread = (batches + threads - 1) / threads;
+            for (int t = 0; t < threads; t++) {
+                long first = t * perThread;
+                long last = Math.min(batches, first + perThread);
+                long seed = t;
+                futures.add(executor.submit(() -> work(first, last, random ? new Random(seed) : null,
+                        checked, mismatch)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Verification interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Verification failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        long vectors = random || inputBits >= 6 ? checked.get() * ParallelSimulator.LANES : 1L << inputBits;
+        return new Result(vectors, mismatch.get(), System.nanoTime() - start);
+    }
+
+    private void work(long first, long last, Random random, AtomicLong checked, AtomicReference<String> mismatch) {
+        ParallelSimulator simulator = new ParallelSimulator(netlist);
+        String[] inputs = model.getInputs();
+        String[] outputs = model.getOutputs();
+        long[][] in = new long[inputs.length][];
+        long[][] expected = new long[outputs.length][];
+        long[][] actual = new long[outputs.length][];
+        int[][] outputNets = new int[outputs.length][];
+        for (int p = 0; p < inputs.length; p++) {
+            in[p] = new long[model.getInputWidths()[p]];
+        }
+        for (int p = 0; p < outputs.length; p++) {
+            expected[p] = new long[model.getOutputWidths()[p]];
+            actual[p] = new long[model.getOutputWidths()[p]];
+            outputNets[p] = netlist.getPin(outputs[p]);
+        }
+
+        for (long batch = first; batch < last && mismatch.get() == null; batch++) {
+            int bit = 0;
+            for (int p = 0; p < inputs.length; p++) {
+                for (int b = 0; b < in[p].length; b++, bit++) {
+                    if (random != null) {
+                        in[p][b] = random.nextLong();
+                    } else if (bit < 6) {
+                        in[p][b] = LANE_PATTERNS[bit];
+                    } else {
+                        in[p][b] = ((batch >>> (bit - 6)) & 1) != 0 ? -1L : 0L;
+                    }
+                }
+                simulator.setPlanes(inputs[p], in[p]);
+            }
+            simulator.evaluate();
+            model.evaluate(in, expected);
+
+            long wrong = 0;
+            for (int p = 0; p < outputs.length; p++) {
+                simulator.readPlanes(outputNets[p], actual[p]);
+                for (int b = 0; b < actual[p].length; b++) {
+                    wrong |= actual[p][b] ^ expected[p][b];
+                }
+            }
+            if (wrong != 0) {
+                mismatch.compareAndSet(null, describe(Long.numberOfTrailingZeros(wrong), in, expected, simulator));
+            }
+            checked.incrementAndGet();
+        }
+    }
+
+    /**
+     * Formats the inputs, expected outputs and actual outputs of one lane.
+     */
+    private String describe(int lane, long[][] in, long[][] expected, ParallelSimulator simulator) {
+        StringBuilder text = new StringBuilder();
+        for (int p = 0; p < in.length; p++) {
+            text.append(model.getInputs()[p]).append('=').append(laneValue(in[p], lane)).append(' ');
+        }
+        text.append(": expected");
+        for (int p = 0; p < expected.length; p++) {
+            text.append(' ').append(model.getOutputs()[p]).append('=').append(laneValue(expected[p], lane));
+        }
+        text.append(", got");
+        for (String output : model.getOutputs()) {
+            text.append(' ').append(output).append('=').append(laneValue(simulator.getPlanes(output), lane));
+        }
+        return text.toString();
+    }
+
+    private static long laneValue(long[] planes, int lane) {
+        long value = 0;
+        for (int b = planes.length - 1; b >= 0; b--) {
+            value = (value << 1) | ((planes[b] >>> lane) & 1L);
+        }
+        return value;
+    }
+
+    private static void checkPins(Netlist netlist, String[] pins, int[] widths) {
+        for (int p = 0; p < pins.length; p++) {
+            int[] nets = netlist.getPin(pins[p]);
+            if (nets == null || nets.length != widths[p]) {
+                throw new IllegalArgumentException(netlist.getChipName() + " pin " + pins[p]
+                        + " does not match the reference model");
+            }
+        }
+    }
+
+    /**
+     * The outcome of a verification run.
+     */
+    public static class Result {
+        private final long vectors;
+        private final String mismatch;
+        private final long nanos;
+
+        public Result(long vectors, String mismatch, long nanos) {
+            this.vectors = vectors;
+            this.mismatch = mismatch;
+            this.nanos = nanos;
+        }
+
+        public long getVectors() {
+            return vectors;
+        }
+
+        /**
+         * @return a description of the first failing vector, or {@code null} if all passed
+         */
+        public String getMismatch() {
+            return mismatch;
+        }
+
+        public boolean passed() {
+            return mismatch == null;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return (passed() ? "PASS" : "FAIL") + ": " + vectors + " vectors in "
+                    + String.format("%.3f", nanos / 1e9) + " s" + (passed() ? "" : " (" + mismatch + ")");
+        }
+    }
+}
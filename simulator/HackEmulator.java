@@ -0,0 +1,144 @@
+/**
+ * Instruction-level emulator of the Hack computer: one call to
+ * {@link #step()} executes the instruction at {@code pc}, with the same
+ * memory map as {@code project5/Memory.hdl}.
+ *
+ * <p>It is the reference the gate-level {@code Computer} is compared
+ * against, cycle by cycle, by {@code Main -cosim}.</p>
+ */
+public class HackEmulator {
+    public static final int SCREEN = 16384;
+    public static final int KEYBOARD = 24576;
+
+    private final short[] rom;
+    private final short[] ram = new short[16384];
+    private final short[] screen = new short[8192];
+    private short keyboard;
+
+    private short a;
+    private short d;
+    private int pc;
+    private long cycles;
+
+    private int lastWrite = -1;
+
+    /**
+     * @param rom the program, e.g. loaded by {@link HackFile}; not copied
+     */
+    public HackEmulator(short[] rom) {
+        this.rom = rom;
+    }
+
+    public short getA() {
+        return a;
+    }
+
+    public short getD() {
+        return d;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    /**
+     * @return the number of executed instructions
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * @return the data address written by the last {@link #step()}, or {@code -1} if it wrote no memory
+     */
+    public int getLastWrite() {
+        return lastWrite;
+    }
+
+    public void setKeyboard(short key) {
+        keyboard = key;
+    }
+
+    /**
+     * Reads a data memory word.
+     *
+     * @param address a 15-bit address; addresses past the keyboard read the keyboard, like {@code Memory.hdl}
+     * @return the word
+     */
+    public short read(int address) {
+        if (address < SCREEN) {
+            return ram[address];
+        }
+        return address < KEYBOARD ? screen[address - SCREEN] : keyboard;
+    }
+
+    /**
+     * Writes a data memory word; writes to the keyboard are ignored.
+     *
+     * @param address a 15-bit address
+     * @param value   the word
+     */
+    public void write(int address, short value) {
+        if (address < SCREEN) {
+            ram[address] = value;
+        } else if (address < KEYBOARD) {
+            screen[address - SCREEN] = value;
+        }
+    }
+
+    /**
+     * Restarts the program, as pulsing the {@code reset} pin does. Memory is kept.
+     */
+    public void reset() {
+        pc = 0;
+    }
+
+    /**
+     * Executes one instruction.
+     */
+    public void step() {
+        int instruction = rom[pc] & 0xFFFF;
+        cycles++;
+        lastWrite = -1;
+        if ((instruction & 0x8000) == 0) {
+            a = (short) instruction;
+            pc = (pc + 1) & 0x7FFF;
+            return;
+        }
+        int address = a & 0x7FFF;
+        int x = d;
+        int y = (instruction & 0x1000) != 0 ? read(address) : a;
+        if ((instruction & 0x0800) != 0) {
+            x = 0;
+        }
+        if ((instruction & 0x0400) != 0) {
+            x = ~x;
+        }
+        if ((instruction & 0x0200) != 0) {
+            y = 0;
+        }
+        if ((instruction & 0x0100) != 0) {
+            y = ~y;
+        }
+        int out = (instruction & 0x0080) != 0 ? x + y : x & y;
+        if ((instruction & 0x0040) != 0) {
+            out = ~out;
+        }
+        short result = (short) out;
+
+        if ((instruction & 0x0008) != 0) {
+            write(address, result);
+            lastWrite = address;
+        }
+        if ((instruction & 0x0020) != 0) {
+            a = result;
+        }
+        if ((instruction & 0x0010) != 0) {
+            d = result;
+        }
+        boolean jump = result < 0 ? (instruction & 0x4) != 0
+                : result == 0 ? (instruction & 0x2) != 0
+                : (instruction & 0x1) != 0;
+        pc = jump ? address : (pc + 1) & 0x7FFF;
+    }
+}
@@ -0,0 +1,46 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Reads Hack machine code files ({@code .hack}), one 16-character binary
+ * word per line, as produced by the project 6 assembler.
+ */
+public class HackFile {
+
+    private HackFile() {
+    }
+
+    /**
+     * Loads a program into a memory, starting at address 0.
+     *
+     * @param file   the {@code .hack} file
+     * @param memory the memory to fill, e.g. the ROM32K storage
+     * @return the number of words loaded
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a line is not a 16-bit binary word or the program does not fit
+     */
+    public static int load(File file, short[] memory) throws IOException {
+        int address = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.length() != 16 || !line.matches("[01]+")) {
+                    throw new IllegalArgumentException(file.getName() + ":" + (address + 1)
+                            + ": Invalid instruction " + line);
+                }
+                if (address >= memory.length) {
+                    throw new IllegalArgumentException(file.getName() + ": Program does not fit in "
+                            + memory.length + " words");
+                }
+                memory[address++] = (short) Integer.parseInt(line, 2);
+            }
+        }
+        return address;
+    }
+}
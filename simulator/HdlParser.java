@@ -0,0 +1,256 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the nand2tetris HDL into a {@link ChipDefinition}.
+ *
+ * <p>Supports the subset of the language used by the course chips:
+ * {@code CHIP name { IN ...; OUT ...; PARTS: ... }}, bus widths, sub-bus
+ * ranges on both sides of a connection, and the {@code true}/{@code false}
+ * constants. {@code BUILTIN} and {@code CLOCKED} sections are accepted and
+ * ignored, built-in chips are provided by {@link BuiltInChip} instead.</p>
+ */
+public class HdlParser {
+    private final File source;
+    private final List<String> tokens = new ArrayList<>();
+    private final List<Integer> lines = new ArrayList<>();
+    private int pointer;
+
+    /**
+     * Reads and tokenizes the given HDL file.
+     *
+     * @param source the {@code .hdl} file
+     * @throws IOException if the file cannot be read
+     */
+    public HdlParser(File source) throws IOException {
+        this(source, new String(Files.readAllBytes(source.toPath()), StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Tokenizes HDL text that has already been read.
+     *
+     * @param source the file the text came from (used for error messages), may be {@code null}
+     * @param text   the HDL source
+     */
+    public HdlParser(File source, String text) {
+        this.source = source;
+        tokenize(text);
+    }
+
+    /**
+     * Parses the whole file.
+     *
+     * @return the chip definition
+     * @throws IllegalArgumentException if the HDL is malformed
+     */
+    public ChipDefinition parse() {
+        expect("CHIP");
+        ChipDefinition chip = new ChipDefinition(identifier(), source);
+        expect("{");
+
+        while (!peek("PARTS") && !peek("}")) {
+            String section = next();
+            switch (section) {
+                case "IN" -> parsePinList(chip, true);
+                case "OUT" -> parsePinList(chip, false);
+                case "BUILTIN", "CLOCKED" -> skipPast(";");
+                default -> throw error("Unexpected '" + section + "' in chip header");
+            }
+        }
+
+        if (peek("PARTS")) {
+            next();
+            expect(":");
+            while (!peek("}")) {
+                chip.getParts().add(parsePart());
+            }
+        }
+        expect("}");
+        return chip;
+    }
+
+    /**
+     * Parses {@code name[width], name, ...;} after an IN or OUT keyword.
+     */
+    private void parsePinList(ChipDefinition chip, boolean input) {
+        if (peek(";")) {
+            next();
+            return;
+        }
+        do {
+            String name = identifier();
+            int width = 1;
+            if (peek("[")) {
+                next();
+                width = number();
+                expect("]");
+            }
+            if (chip.pinWidth(name) != -1) {
+                throw error("Pin " + name + " declared twice");
+            }
+            (input ? chip.getInputs() : chip.getOutputs()).put(name, width);
+        } while (accept(","));
+        expect(";");
+    }
+
+    /**
+     * Parses {@code Chip(pin=wire, ...);}.
+     */
+    private ChipDefinition.Part parsePart() {
+        int line = currentLine();
+        String chipName = identifier();
+        List<ChipDefinition.Connection> connections = new ArrayList<>();
+        expect("(");
+        do {
+            String pin = identifier();
+            int[] pinRange = parseRange();
+            expect("=");
+            String wire = identifier();
+            int[] wireRange = parseRange();
+            if (wire.equals("true") || wire.equals("false")) {
+                connections.add(new ChipDefinition.Connection(pin, pinRange[0], pinRange[1], wire.equals("true")));
+            } else {
+                connections.add(new ChipDefinition.Connection(pin, pinRange[0], pinRange[1],
+                        wire, wireRange[0], wireRange[1]));
+            }
+        } while (accept(","));
+        expect(")");
+        expect(";");
+        return new ChipDefinition.Part(chipName, connections, line);
+    }
+
+    /**
+     * Parses an optional {@code [i]} or {@code [i..j]} suffix.
+     *
+     * @return {lo, hi}, or {-1, -1} when there is no suffix
+     */
+    private int[] parseRange() {
+        if (!peek("[")) {
+            return new int[]{-1, -1};
+        }
+        next();
+        int lo = number();
+        int hi = lo;
+        if (accept("..")) {
+            hi = number();
+        }
+        expect("]");
+        if (hi < lo) {
+            throw error("Invalid sub-bus range [" + lo + ".." + hi + "]");
+        }
+        return new int[]{lo, hi};
+    }
+
+    private void tokenize(String text) {
+        int line = 1;
+        int i = 0;
+        int n = text.length();
+        while (i < n) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                line++;
+                i++;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+            } else if (text.startsWith("//", i)) {
+                while (i < n && text.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (text.startsWith("/*", i)) {
+                int end = text.indexOf("*/", i + 2);
+                end = end < 0 ? n : end + 2;
+                for (int k = i; k < end; k++) {
+                    if (text.charAt(k) == '\n') {
+                        line++;
+                    }
+                }
+                i = end;
+            } else if (text.startsWith("..", i)) {
+                add("..", line);
+                i += 2;
+            } else if (Character.isLetterOrDigit(c) || c == '_') {
+                int start = i;
+                while (i < n && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) {
+                    i++;
+                }
+                add(text.substring(start, i), line);
+            } else {
+                add(String.valueOf(c), line);
+                i++;
+            }
+        }
+    }
+
+    private void add(String token, int line) {
+        tokens.add(token);
+        lines.add(line);
+    }
+
+    private boolean peek(String token) {
+        return pointer < tokens.size() && tokens.get(pointer).equals(token);
+    }
+
+    private boolean accept(String token) {
+        if (peek(token)) {
+            pointer++;
+            return true;
+        }
+        return false;
+    }
+
+    private String next() {
+        if (pointer >= tokens.size()) {
+            throw error("Unexpected end of file");
+        }
+        return tokens.get(pointer++);
+    }
+
+    private void expect(String token) {
+        String actual = next();
+        if (!actual.equals(token)) {
+            pointer--;
+            throw error("Expected '" + token + "' but found '" + actual + "'");
+        }
+    }
+
+    private void skipPast(String token) {
+        while (!next().equals(token)) {
+            // skip
+        }
+    }
+
+    private String identifier() {
+        String token = next();
+        if (!Character.isLetter(token.charAt(0)) && token.charAt(0) != '_') {
+            pointer--;
+            throw error("Expected an identifier but found '" + token + "'");
+        }
+        return token;
+    }
+
+    private int number() {
+        String token = next();
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            pointer--;
+            throw error("Expected a number but found '" + token + "'");
+        }
+    }
+
+    private int currentLine() {
+        if (lines.isEmpty()) {
+            return 0;
+        }
+        return lines.get(Math.min(pointer, lines.size() - 1));
+    }
+
+    private IllegalArgumentException error(String message) {
+        String where = source == null ? "<hdl>" : source.getName();
+        return new IllegalArgumentException(where + ":" + currentLine() + ": " + message);
+    }
+}
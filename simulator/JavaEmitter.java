@@ -0,0 +1,553 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Translates a flattened netlist into the Java source of a
+ * {@link CompiledChip}, and compiles and loads it.
+ *
+ * <p>The levelised gates become straight-line code, one statement per
+ * Nand: {@code int n42 = 1 ^ (n17 & f5);}. Nets live in local variables
+ * unless they outlive the method computing them, in which case they are
+ * also stored in an {@code int} field: input pins, DFF outputs, built-in
+ * part inputs, the chip's own outputs and wires, and nets read by a later
+ * method. The JIT keeps the locals in registers, so most of a chip runs
+ * without touching memory at all, unlike the {@link Simulator}'s indirect
+ * array accesses.</p>
+ *
+ * <p>The HotSpot JIT does not compile methods larger than 8000 bytes of
+ * bytecode, so the gates are split into methods of {@link #CHUNK} gates
+ * each. The class file format limits a class to 65535 constants, which
+ * bounds the number of fields; chips with large memories must be compiled
+ * with behavioural RAMs (see {@link NetlistCompiler}).</p>
+ *
+ * <p>Built-in parts are inlined into the code following the semantics of
+ * their {@link BehaviouralModel}s, with their storage in {@code short[]}
+ * fields.</p>
+ */
+public class JavaEmitter {
+
+    /**
+     * The number of gates per generated method; with up to two field reads
+     * and one field write per gate this stays under the JIT's size limit.
+     */
+    private static final int CHUNK = 256;
+
+    /**
+     * The number of simple statements (DFF samples, switch cases) per
+     * generated method.
+     */
+    private static final int STATEMENTS = 500;
+
+    /**
+     * The maximum number of net fields; every field takes three entries of
+     * the class's constant pool.
+     */
+    private static final int MAX_FIELDS = 18000;
+
+    private final Netlist netlist;
+    private final int gateCount;
+    private final int chunkCount;
+    private final int[] chunkOf;
+    private final boolean[] field;
+
+    /**
+     * @param netlist the chip to translate; it is levelised if needed
+     * @throws IllegalArgumentException if the chip needs too many fields
+     */
+    public JavaEmitter(Netlist netlist) {
+        netlist.levelise();
+        this.netlist = netlist;
+        this.gateCount = netlist.getGateCount();
+        this.chunkCount = Math.max(1, (gateCount + CHUNK - 1) / CHUNK);
+
+        // The method defining each net: -1 for constants and the sources (pins and DFF outputs)
+        chunkOf = new int[netlist.getNetCount()];
+        Arrays.fill(chunkOf, -1);
+        int[] gateOut = netlist.getGateOut();
+        for (int g = 0; g < gateCount; g++) {
+            chunkOf[gateOut[g]] = g / CHUNK;
+        }
+        List<Netlist.BuiltInPart> builtIns = netlist.getBuiltIns();
+        int[] position = netlist.getBuiltInPosition();
+        for (int b = 0; b < builtIns.size(); b++) {
+            int chunk = Math.min(position[b] / CHUNK, chunkCount - 1);
+            for (int[] nets : outputs(builtIns.get(b))) {
+                for (int net : nets) {
+                    chunkOf[net] = chunk;
+                }
+            }
+        }
+
+        field = new boolean[netlist.getNetCount()];
+        for (int[] nets : netlist.getInputs().values()) {
+            markFields(nets);
+        }
+        for (int[] nets : netlist.getOutputs().values()) {
+            markFields(nets);
+        }
+        for (int[] nets : netlist.getWires().values()) {
+            markFields(nets);
+        }
+        markFields(netlist.getDffIn());
+        markFields(netlist.getDffOut());
+        for (Netlist.BuiltInPart part : builtIns) {
+            int inputs = part.getChip().getDefinition().getInputs().size();
+            for (int p = 0; p < inputs; p++) {
+                markFields(part.getPins()[p]);
+            }
+        }
+        for (Netlist.ShadowCheck check : netlist.getShadowChecks()) {
+            markFields(check.getModelNets());
+            markFields(check.getGateNets());
+        }
+        int[] gateA = netlist.getGateA();
+        int[] gateB = netlist.getGateB();
+        for (int g = 0; g < gateCount; g++) {
+            for (int net : new int[]{gateA[g], gateB[g]}) {
+                if (chunkOf[net] != g / CHUNK) {
+                    field[net] = true;
+                }
+            }
+        }
+        field[Netlist.FALSE] = false;
+        field[Netlist.TRUE] = false;
+
+        int fields = 0;
+        for (boolean f : field) {
+            fields += f ? 1 : 0;
+        }
+        if (fields > MAX_FIELDS) {
+            throw new IllegalArgumentException(netlist.getChipName() + " needs " + fields
+                    + " fields, more than a class can hold (" + MAX_FIELDS
+                    + "); simulate its memories behaviourally");
+        }
+    }
+
+    private void markFields(int[] nets) {
+        for (int net : nets) {
+            field[net] = true;
+        }
+    }
+
+    private static List<int[]> outputs(Netlist.BuiltInPart part) {
+        int[][] pins = part.getPins();
+        int firstOutput = part.getChip().getDefinition().getInputs().size();
+        return Arrays.asList(pins).subList(firstOutput, pins.length);
+    }
+
+    /**
+     * Translates a netlist into a Java class.
+     *
+     * @param netlist   the chip
+     * @param className the name of the generated class, in the default package
+     * @return the source of a final subclass of {@link CompiledChip} with a public no-argument constructor
+     * @throws IllegalArgumentException if the chip needs too many fields
+     */
+    public static String emit(Netlist netlist, String className) {
+        return new JavaEmitter(netlist).emit(className);
+    }
+
+    /**
+     * Translates, compiles and instantiates a netlist. Needs a JDK at run time.
+     *
+     * @param netlist the chip
+     * @return a new model with cleared state
+     * @throws IllegalArgumentException if the chip needs too many fields
+     * @throws IllegalStateException    if there is no Java compiler or the generated code does not compile
+     */
+    public static CompiledChip compile(Netlist netlist) throws IOException {
+        String className = className(netlist.getChipName());
+        String source = emit(netlist, className);
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            throw new IllegalStateException("No Java compiler available; run the simulator on a JDK");
+        }
+        File directory = Files.createTempDirectory("hdljava").toFile();
+        File file = new File(directory, className + ".java");
+        Files.writeString(file.toPath(), source, StandardCharsets.UTF_8);
+        StringWriter messages = new StringWriter();
+        String classPath;
+        try {
+            classPath = new File(CompiledChip.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                    .getPath();
+        } catch (URISyntaxException e) {
+            classPath = System.getProperty("java.class.path");
+        }
+        boolean compiled = javac.getTask(messages, null, null,
+                List.of("-d", directory.getPath(), "-cp", classPath, "-nowarn"),
+                null, javac.getStandardFileManager(null, null, StandardCharsets.UTF_8)
+                        .getJavaFileObjects(file)).call();
+        if (!compiled) {
+            throw new IllegalStateException("Generated code for " + netlist.getChipName()
+                    + " does not compile:\n" + messages);
+        }
+        URLClassLoader loader = new URLClassLoader(new URL[]{directory.toURI().toURL()},
+                CompiledChip.class.getClassLoader());
+        try {
+            return loader.loadClass(className).asSubclass(CompiledChip.class).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load generated class " + className + ": " + e);
+        }
+    }
+
+    /**
+     * @param chipName a chip name
+     * @return the name {@link #compile(Netlist)} gives the generated class
+     */
+    public static String className(String chipName) {
+        return "Compiled" + chipName.replaceAll("[^A-Za-z0-9_]", "_");
+    }
+
+    /**
+     * Generates the class.
+     */
+    private String emit(String className) {
+        StringBuilder out = new StringBuilder(1 << 20);
+        out.append("/** Generated by JavaEmitter from chip ").append(netlist.getChipName())
+                .append(": ").append(netlist).append(". */\n");
+        out.append("public final class ").append(className).append(" extends CompiledChip {\n");
+        emitFields(out);
+        emitConstructor(out, className);
+        emitEvaluate(out);
+        emitTick(out);
+        emitCommit(out);
+        emitAccessors(out);
+        out.append("}\n");
+        return out.toString();
+    }
+
+    private void emitFields(StringBuilder out) {
+        for (int net = 0; net < field.length; net++) {
+            if (field[net]) {
+                out.append("    private int f").append(net).append(";\n");
+            }
+        }
+        for (int d = 0; d < netlist.getDffCount(); d++) {
+            out.append("    private int q").append(d).append(";\n");
+        }
+        List<Netlist.BuiltInPart> builtIns = netlist.getBuiltIns();
+        for (int b = 0; b < builtIns.size(); b++) {
+            Netlist.BuiltInPart part = builtIns.get(b);
+            out.append("    private final short[] mem").append(b).append(" = new short[")
+                    .append(size(part)).append("];\n");
+            if (part.getChip() == BuiltInChip.PC) {
+                out.append("    private short next").append(b).append(";\n");
+            } else if (loadPin(part) >= 0) {
+                out.append("    private boolean write").append(b).append(";\n");
+                out.append("    private int writeAddress").append(b).append(";\n");
+                out.append("    private short writeValue").append(b).append(";\n");
+            }
+        }
+    }
+
+    private void emitConstructor(StringBuilder out, String className) {
+        out.append("\n    public ").append(className).append("() {\n");
+        out.append("        super(\"").append(netlist.getChipName()).append("\",\n");
+        appendPins(out, netlist.getInputs());
+        out.append(",\n");
+        Map<String, int[]> pins = new LinkedHashMap<>(netlist.getOutputs());
+        pins.putAll(netlist.getWires());
+        appendPins(out, pins);
+        out.append(");\n");
+        out.append("        evaluate();\n");
+        out.append("    }\n");
+    }
+
+    private static void appendPins(StringBuilder out, Map<String, int[]> pins) {
+        out.append("                new String[]{");
+        String separator = "";
+        for (String name : pins.keySet()) {
+            out.append(separator).append('"').append(name).append('"');
+            separator = ", ";
+        }
+        out.append("},\n                new int[][]{");
+        separator = "";
+        for (int[] nets : pins.values()) {
+            out.append(separator).append("{");
+            for (int i = 0; i < nets.length; i++) {
+                out.append(i > 0 ? ", " : "").append(nets[i]);
+            }
+            out.append("}");
+            separator = ", ";
+        }
+        out.append("}");
+    }
+
+    /**
+     * Emits the gates and built-in outputs, {@link #CHUNK} gates per method.
+     */
+    private void emitEvaluate(StringBuilder out) {
+        out.append("\n    @Override\n    public void evaluate() {\n");
+        for (int c = 0; c < chunkCount; c++) {
+            out.append("        evaluate").append(c).append("();\n");
+        }
+        out.append("    }\n");
+
+        int[] gateA = netlist.getGateA();
+        int[] gateB = netlist.getGateB();
+        int[] gateOut = netlist.getGateOut();
+        List<Netlist.BuiltInPart> builtIns = netlist.getBuiltIns();
+        int[] position = netlist.getBuiltInPosition();
+        int b = 0;
+        for (int c = 0; c < chunkCount; c++) {
+            out.append("\n    private void evaluate").append(c).append("() {\n");
+            int end = Math.min(gateCount, (c + 1) * CHUNK);
+            for (int g = c * CHUNK; g < end; g++) {
+                for (; b < builtIns.size() && position[b] <= g; b++) {
+                    emitBuiltIn(out, b, c);
+                }
+                int net = gateOut[g];
+                String x = expression(gateA[g], c);
+                String y = expression(gateB[g], c);
+                out.append("        int n").append(net).append(" = 1 ^ ")
+                        .append(gateA[g] == gateB[g] ? x : "(" + x + " & " + y + ")").append(";\n");
+                store(out, net);
+            }
+            if (c == chunkCount - 1) {
+                for (; b < builtIns.size(); b++) {
+                    emitBuiltIn(out, b, c);
+                }
+            }
+            out.append("    }\n");
+        }
+    }
+
+    /**
+     * Emits the evaluation of a built-in part: its outputs are a word of its storage.
+     */
+    private void emitBuiltIn(StringBuilder out, int b, int chunk) {
+        Netlist.BuiltInPart part = netlist.getBuiltIns().get(b);
+        int[] address = addressPin(part);
+        out.append("        int word").append(b).append(" = mem").append(b).append("[")
+                .append(address == null ? "0" : bus(address, chunk)).append("];\n");
+        int bit = 0;
+        for (int[] nets : outputs(part)) {
+            for (int net : nets) {
+                out.append("        int n").append(net).append(" = ");
+                out.append(bit == 0 ? "word" + b + " & 1" : "(word" + b + " >>> " + bit + ") & 1").append(";\n");
+                store(out, net);
+                bit++;
+            }
+        }
+    }
+
+    private void store(StringBuilder out, int net) {
+        if (field[net]) {
+            out.append("        f").append(net).append(" = n").append(net).append(";\n");
+        }
+    }
+
+    /**
+     * Emits the sampling of every DFF and built-in part on the rising edge.
+     */
+    private void emitTick(StringBuilder out) {
+        List<String> statements = new ArrayList<>();
+        int[] dffIn = netlist.getDffIn();
+        for (int d = 0; d < netlist.getDffCount(); d++) {
+            statements.add("q" + d + " = " + expression(dffIn[d], -1) + ";");
+        }
+        List<Netlist.BuiltInPart> builtIns = netlist.getBuiltIns();
+        for (int b = 0; b < builtIns.size(); b++) {
+            Netlist.BuiltInPart part = builtIns.get(b);
+            int[][] pins = part.getPins();
+            if (part.getChip() == BuiltInChip.PC) {
+                statements.add("next" + b + " = " + expression(pins[1][0], -1) + " != 0 ? 0 : "
+                        + expression(pins[2][0], -1) + " != 0 ? (short) " + bus(pins[0], -1) + " : "
+                        + expression(pins[3][0], -1) + " != 0 ? (short) (mem" + b + "[0] + 1) : mem" + b + "[0];");
+            } else if (loadPin(part) >= 0) {
+                int[] address = addressPin(part);
+                statements.add("write" + b + " = " + expression(pins[loadPin(part)][0], -1) + " != 0;");
+                statements.add("if (write" + b + ") { writeAddress" + b + " = "
+                        + (address == null ? "0" : bus(address, -1)) + "; writeValue" + b + " = (short) "
+                        + bus(pins[0], -1) + "; }");
+            }
+        }
+        out.append("\n    @Override\n    public void tick() {\n        evaluate();\n");
+        emitChunked(out, "sample", statements);
+    }
+
+    /**
+     * Emits the commit of every DFF and built-in part on the falling edge.
+     */
+    private void emitCommit(StringBuilder out) {
+        List<String> statements = new ArrayList<>();
+        int[] dffOut = netlist.getDffOut();
+        for (int d = 0; d < netlist.getDffCount(); d++) {
+            statements.add("f" + dffOut[d] + " = q" + d + ";");
+        }
+        List<Netlist.BuiltInPart> builtIns = netlist.getBuiltIns();
+        for (int b = 0; b < builtIns.size(); b++) {
+            Netlist.BuiltInPart part = builtIns.get(b);
+            if (part.getChip() == BuiltInChip.PC) {
+                statements.add("mem" + b + "[0] = next" + b + ";");
+            } else if (loadPin(part) >= 0) {
+                statements.add("if (write" + b + ") { mem" + b + "[writeAddress" + b + "] = writeValue" + b
+                        + "; write" + b + " = false; }");
+            }
+        }
+        out.append("\n    @Override\n    protected void commit() {\n");
+        emitChunked(out, "commit", statements);
+    }
+
+    /**
+     * Finishes a method that calls one helper per {@link #STATEMENTS} statements, and emits the helpers.
+     */
+    private static void emitChunked(StringBuilder out, String name, List<String> statements) {
+        int chunks = (statements.size() + STATEMENTS - 1) / STATEMENTS;
+        for (int c = 0; c < chunks; c++) {
+            out.append("        ").append(name).append(c).append("();\n");
+        }
+        out.append("    }\n");
+        for (int c = 0; c < chunks; c++) {
+            out.append("\n    private void ").append(name).append(c).append("() {\n");
+            for (String statement : statements.subList(c * STATEMENTS,
+                    Math.min(statements.size(), (c + 1) * STATEMENTS))) {
+                out.append("        ").append(statement).append('\n');
+            }
+            out.append("    }\n");
+        }
+    }
+
+    /**
+     * Emits {@code getNet}, {@code setNet} and {@code getMemory}; the net
+     * switches are split like the other methods.
+     */
+    private void emitAccessors(StringBuilder out) {
+        List<Integer> nets = new ArrayList<>();
+        for (int net = 0; net < field.length; net++) {
+            if (field[net]) {
+                nets.add(net);
+            }
+        }
+        int chunks = Math.max(1, (nets.size() + STATEMENTS - 1) / STATEMENTS);
+
+        out.append("\n    @Override\n    public int getNet(int net) {\n");
+        out.append("        if (net == ").append(Netlist.FALSE).append(" || net == ").append(Netlist.TRUE)
+                .append(") {\n            return net;\n        }\n");
+        emitDispatch(out, "getNet", nets, chunks, "return ");
+        for (int c = 0; c < chunks; c++) {
+            out.append("\n    private int getNet").append(c).append("(int net) {\n        return switch (net) {\n");
+            for (int net : nets.subList(Math.min(nets.size(), c * STATEMENTS),
+                    Math.min(nets.size(), (c + 1) * STATEMENTS))) {
+                out.append("            case ").append(net).append(" -> f").append(net).append(";\n");
+            }
+            out.append("            default -> throw new IllegalArgumentException(\"Net \" + net + \" is not stored\");\n");
+            out.append("        };\n    }\n");
+        }
+
+        out.append("\n    @Override\n    protected void setNet(int net, int value) {\n");
+        emitDispatch(out, "setNet", nets, chunks, "");
+        for (int c = 0; c < chunks; c++) {
+            out.append("\n    private void setNet").append(c).append("(int net, int value) {\n        switch (net) {\n");
+            for (int net : nets.subList(Math.min(nets.size(), c * STATEMENTS),
+                    Math.min(nets.size(), (c + 1) * STATEMENTS))) {
+                out.append("            case ").append(net).append(" -> f").append(net).append(" = value;\n");
+            }
+            out.append("            default -> throw new IllegalArgumentException(\"Net \" + net + \" is not stored\");\n");
+            out.append("        }\n    }\n");
+        }
+
+        out.append("\n    @Override\n    public short[] getMemory(String chipName) {\n");
+        List<Netlist.BuiltInPart> builtIns = netlist.getBuiltIns();
+        List<BuiltInChip> seen = new ArrayList<>();
+        for (int b = 0; b < builtIns.size(); b++) {
+            BuiltInChip chip = builtIns.get(b).getChip();
+            if (!seen.contains(chip)) {
+                seen.add(chip);
+                out.append("        if (chipName.equals(\"").append(chip.getChipName()).append("\")) {\n");
+                out.append("            return mem").append(b).append(";\n        }\n");
+            }
+        }
+        out.append("        return null;\n    }\n");
+    }
+
+    /**
+     * Emits the body of a method that forwards to the helper covering the net.
+     */
+    private static void emitDispatch(StringBuilder out, String name, List<Integer> nets, int chunks, String prefix) {
+        for (int c = 1; c < chunks; c++) {
+            out.append("        if (net < ").append(nets.get(c * STATEMENTS)).append(") {\n");
+            out.append("            ").append(prefix).append(name).append(c - 1)
+                    .append(name.equals("getNet") ? "(net);\n" : "(net, value);\n");
+            out.append(prefix.isEmpty() ? "            return;\n" : "").append("        }\n");
+        }
+        out.append("        ").append(prefix).append(name).append(chunks - 1)
+                .append(name.equals("getNet") ? "(net);\n" : "(net, value);\n");
+        out.append("    }\n");
+    }
+
+    /**
+     * Returns the Java expression for a net's value in a generated method.
+     *
+     * @param net   the net
+     * @param chunk the evaluation method, or {@code -1} outside evaluation
+     */
+    private String expression(int net, int chunk) {
+        if (net == Netlist.FALSE) {
+            return "0";
+        }
+        if (net == Netlist.TRUE) {
+            return "1";
+        }
+        return chunk >= 0 && chunkOf[net] == chunk ? "n" + net : "f" + net;
+    }
+
+    /**
+     * Returns the Java expression for the value of a bus, bit 0 first.
+     */
+    private String bus(int[] nets, int chunk) {
+        StringBuilder result = new StringBuilder("(");
+        for (int i = 0; i < nets.length; i++) {
+            if (nets[i] == Netlist.FALSE) {
+                continue;
+            }
+            if (result.length() > 1) {
+                result.append(" | ");
+            }
+            String bit = expression(nets[i], chunk);
+            result.append(i == 0 ? bit : bit + " << " + i);
+        }
+        return result.length() == 1 ? "0" : result.append(")").toString();
+    }
+
+    /**
+     * @return the address pins of a memory built-in, or {@code null} for a single word
+     */
+    private static int[] addressPin(Netlist.BuiltInPart part) {
+        int[][] pins = part.getPins();
+        return switch (part.getChip()) {
+            case ROM32K -> pins[0];
+            case SCREEN, RAM8, RAM64, RAM512, RAM4K, RAM16K -> pins[2];
+            default -> null;
+        };
+    }
+
+    /**
+     * @return the index of the load pin of a memory built-in, or {@code -1} if it is read-only
+     */
+    private static int loadPin(Netlist.BuiltInPart part) {
+        return switch (part.getChip()) {
+            case ROM32K, KEYBOARD, PC -> -1;
+            default -> 1;
+        };
+    }
+
+    private static int size(Netlist.BuiltInPart part) {
+        int[] address = addressPin(part);
+        return address == null ? 1 : 1 << address.length;
+    }
+}
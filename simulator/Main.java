@@ -0,0 +1,354 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Command line front end of the compiled HDL simulator.
+ */
+public class Main {
+
+    /**
+     * Compiles a chip and optionally runs it.
+     *
+     * <p>Usage: {@code java Main <chip.hdl> [-L <dir>]... [-rom <program.hack>] [-cycles <n>]
+     * [-verify] [-samples <n>] [-behavioural <chips>] [-crosscheck <interval>]
+     * [-mode <compiled|event|auto>] [-cache <dir>] [-nocache] [-noopt] [-emit <dir>]
+     * [-cosim] [-ram <address>=<value>,...]}</p>
+     *
+     * <p>Without {@code -rom}, the chip is driven with {@code n} cycles of random
+     * input vectors. With {@code -rom}, the program is loaded into the chip's
+     * ROM32K (e.g. for {@code Computer.hdl}), {@code reset} is pulsed and the
+     * program runs for {@code n} cycles. Both modes report the simulation speed.</p>
+     *
+     * <p>{@code -verify} checks a combinational chip against its reference model
+     * over its whole input space using the 64-lane simulator; with
+     * {@code -samples} only that many random 64-vector batches are checked.</p>
+     *
+     * <p>{@code -behavioural} takes a comma separated list of chips (or
+     * {@code all}) to simulate with behavioural models instead of gates, e.g.
+     * {@code RAM16K,PC}. Adding {@code -crosscheck} keeps the gates as well and
+     * compares both after every {@code interval}-th cycle.</p>
+     *
+     * <p>{@code -mode} selects full compiled passes, event-driven evaluation
+     * or (the default) automatic switching based on activity.</p>
+     *
+     * <p>Compiled chips are cached in {@code .hdlcache} under the repository
+     * root, or the directory given with {@code -cache}; {@code -nocache}
+     * always compiles from the HDL.</p>
+     *
+     * <p>Every chip is simplified by the {@link NetlistOptimizer} unless
+     * {@code -noopt} is given.</p>
+     *
+     * <p>{@code -emit} writes the Java source generated by the {@link JavaEmitter}
+     * for the chip into a directory. {@code -cosim} runs the program given
+     * with {@code -rom} on the chip compiled to Java and on the
+     * {@link HackEmulator} side by side, comparing {@code pc}, {@code A},
+     * {@code D} and every memory write after each cycle; unless
+     * {@code -behavioural} says otherwise, the RAMs are behavioural. Both
+     * start with the words given with {@code -ram} in their data memory,
+     * e.g. {@code -ram 0=6,1=7} for {@code Mult}.</p>
+     *
+     * @param args Command-line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java Main <chip.hdl> [-L <dir>]... [-rom <program.hack>] [-cycles <n>]"
+                    + " [-verify] [-samples <n>] [-behavioural <chips>] [-crosscheck <interval>]"
+                    + " [-mode <compiled|event|auto>] [-cache <dir>] [-nocache] [-noopt] [-emit <dir>]"
+                    + " [-cosim] [-ram <address>=<value>,...]");
+            return;
+        }
+
+        File chipFile = new File(args[0]);
+        List<File> searchPath = new ArrayList<>();
+        File rom = null;
+        long cycles = 0;
+        boolean verify = false;
+        long samples = 0;
+        Set<String> behavioural = new HashSet<>();
+        int crossCheck = 0;
+        Simulator.Mode mode = Simulator.Mode.AUTO;
+        File cacheDirectory = null;
+        boolean useCache = true;
+        boolean optimize = true;
+        File emitDirectory = null;
+        boolean cosim = false;
+        List<int[]> ramWords = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "-L" -> searchPath.add(new File(args[++i]));
+                case "-rom" -> rom = new File(args[++i]);
+                case "-cycles" -> cycles = Long.parseLong(args[++i]);
+                case "-verify" -> verify = true;
+                case "-samples" -> samples = Long.parseLong(args[++i]);
+                case "-behavioural" -> {
+                    String chips = args[++i];
+                    behavioural.addAll(chips.equals("all")
+                            ? NetlistCompiler.substitutableChips()
+                            : Arrays.asList(chips.split(",")));
+                }
+                case "-crosscheck" -> crossCheck = Integer.parseInt(args[++i]);
+                case "-cache" -> cacheDirectory = new File(args[++i]);
+                case "-nocache" -> useCache = false;
+                case "-noopt" -> optimize = false;
+                case "-emit" -> emitDirectory = new File(args[++i]);
+                case "-cosim" -> cosim = true;
+                case "-ram" -> {
+                    for (String word : args[++i].split(",")) {
+                        String[] parts = word.split("=");
+                        ramWords.add(new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])});
+                    }
+                }
+                case "-mode" -> {
+                    switch (args[++i]) {
+                        case "compiled" -> mode = Simulator.Mode.COMPILED;
+                        case "event" -> mode = Simulator.Mode.EVENT_DRIVEN;
+                        case "auto" -> mode = Simulator.Mode.AUTO;
+                        default -> {
+                            System.out.println("Unknown mode: " + args[i]);
+                            return;
+                        }
+                    }
+                }
+                default -> {
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+                }
+            }
+        }
+        if (!chipFile.exists()) {
+            System.out.println("File not found: " + args[0]);
+            return;
+        }
+
+        ChipLibrary library;
+        if (searchPath.isEmpty()) {
+            library = ChipLibrary.forChip(chipFile);
+        } else {
+            searchPath.add(0, chipFile.getAbsoluteFile().getParentFile());
+            library = new ChipLibrary(searchPath);
+        }
+        String chipName = chipFile.getName().replace(".hdl", "");
+        if (cosim && rom == null) {
+            System.out.println("-cosim needs a program given with -rom");
+            return;
+        }
+        if (cosim && behavioural.isEmpty()) {
+            behavioural.addAll(List.of("RAM8", "RAM64", "RAM512", "RAM4K", "RAM16K"));
+        }
+
+        try {
+            long start = System.nanoTime();
+            NetlistCompiler compiler = new NetlistCompiler(library, behavioural, crossCheck > 0);
+            compiler.setOptimize(optimize);
+            if (useCache) {
+                compiler.setCache(cacheDirectory == null
+                        ? NetlistCache.forLibrary(library)
+                        : new NetlistCache(cacheDirectory));
+            }
+            Netlist netlist = compiler.compile(chipName);
+            Simulator simulator = new Simulator(netlist);
+            simulator.setCrossCheckInterval(crossCheck);
+            simulator.setMode(mode);
+            long compileTime = System.nanoTime() - start;
+            NetlistCache cache = compiler.getCache();
+            System.out.println(netlist + " compiled in " + compileTime / 1_000_000 + " ms"
+                    + (cache == null ? "" : " (" + cache.getHits() + " cached chips, " + cache.getMisses() + " compiled)"));
+
+            if (verify) {
+                verify(netlist, samples);
+            }
+            if (emitDirectory != null) {
+                String className = JavaEmitter.className(chipName);
+                File source = new File(emitDirectory, className + ".java");
+                Files.createDirectories(emitDirectory.toPath());
+                Files.writeString(source.toPath(), JavaEmitter.emit(netlist, className));
+                System.out.println("Wrote " + source);
+            }
+            if (cosim) {
+                coSimulate(netlist, rom, cycles, ramWords);
+            } else if (rom != null) {
+                runProgram(simulator, rom, cycles);
+            } else if (cycles > 0) {
+                runRandom(simulator, cycles);
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads a program into ROM32K, pulses reset and runs it.
+     */
+    private static void runProgram(Simulator simulator, File rom, long cycles) throws IOException {
+        BehaviouralModel romModel = simulator.getModel("ROM32K");
+        if (romModel == null) {
+            throw new IllegalArgumentException(simulator.getNetlist().getChipName() + " has no ROM32K");
+        }
+        int words = HackFile.load(rom, romModel.getMemory());
+        System.out.println("Loaded " + words + " instructions from " + rom.getName());
+
+        simulator.setInput("reset", 1);
+        simulator.step();
+        simulator.setInput("reset", 0);
+
+        long start = System.nanoTime();
+        long gates = simulator.getEvaluatedGates();
+        for (long c = 0; c < cycles; c++) {
+            simulator.step();
+        }
+        report(cycles, System.nanoTime() - start, simulator.getEvaluatedGates() - gates);
+
+        for (String register : new String[]{"ARegister", "DRegister"}) {
+            BehaviouralModel model = simulator.getModel(register);
+            if (model != null) {
+                System.out.println(register + " = " + model.getMemory()[0]);
+            }
+        }
+        for (String wire : new String[]{"pc", "addressM", "outM", "writeM"}) {
+            if (simulator.getNetlist().getPin(wire) != null) {
+                System.out.println(wire + " = " + simulator.getPin(wire));
+            }
+        }
+        BehaviouralModel ram = simulator.getModel("RAM16K");
+        if (ram != null) {
+            for (int address = 0; address < 16; address++) {
+                System.out.println("RAM[" + address + "] = " + ram.getMemory()[address]);
+            }
+        }
+    }
+
+    /**
+     * Runs a program on the chip compiled to Java and on the instruction-level
+     * emulator in lock step, stopping at the first difference, then measures
+     * the speed of each on its own.
+     */
+    private static void coSimulate(Netlist netlist, File rom, long cycles, List<int[]> ramWords) throws IOException {
+        long start = System.nanoTime();
+        CompiledChip chip = JavaEmitter.compile(netlist);
+        System.out.println("Generated and compiled Java in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        short[] program = chip.getMemory("ROM32K");
+        short[] ram = chip.getMemory("RAM16K");
+        short[] screen = chip.getMemory("Screen");
+        short[] aRegister = chip.getMemory("ARegister");
+        short[] dRegister = chip.getMemory("DRegister");
+        if (program == null || ram == null || screen == null || aRegister == null || dRegister == null) {
+            throw new IllegalArgumentException(netlist.getChipName()
+                    + " is not a Hack computer with behavioural RAM16K (see -behavioural)");
+        }
+        int words = HackFile.load(rom, program);
+        System.out.println("Loaded " + words + " instructions from " + rom.getName());
+        HackEmulator emulator = new HackEmulator(program.clone());
+        for (int[] word : ramWords) {
+            emulator.write(word[0], (short) word[1]);
+            if (word[0] < HackEmulator.SCREEN) {
+                ram[word[0]] = (short) word[1];
+            } else {
+                screen[word[0] - HackEmulator.SCREEN] = (short) word[1];
+            }
+        }
+        int[] pcNets = netlist.getBuiltIns().stream()
+                .filter(part -> part.getChip() == BuiltInChip.ROM32K)
+                .findFirst().orElseThrow().getPins()[0];
+
+        chip.setInput("reset", 1);
+        chip.step();
+        chip.setInput("reset", 0);
+        emulator.reset();
+        for (long c = 1; c <= cycles; c++) {
+            int pc = 0;
+            for (int i = pcNets.length - 1; i >= 0; i--) {
+                pc = (pc << 1) | chip.getNet(pcNets[i]);
+            }
+            chip.step();
+            emulator.step();
+            int address = emulator.getLastWrite();
+            String mismatch = aRegister[0] != emulator.getA() ? "A = " + aRegister[0] + ", emulator " + emulator.getA()
+                    : dRegister[0] != emulator.getD() ? "D = " + dRegister[0] + ", emulator " + emulator.getD()
+                    : address >= 0 && address < HackEmulator.KEYBOARD
+                        && (address < HackEmulator.SCREEN ? ram[address] : screen[address - HackEmulator.SCREEN])
+                        != emulator.read(address)
+                    ? "M[" + address + "] = " + (address < HackEmulator.SCREEN ? ram[address]
+                        : screen[address - HackEmulator.SCREEN]) + ", emulator " + emulator.read(address)
+                    : null;
+            if (mismatch != null) {
+                throw new IllegalStateException("Cycle " + c + ", instruction " + pc + " ("
+                        + String.format("%16s", Integer.toBinaryString(program[pc] & 0xFFFF)).replace(' ', '0')
+                        + "): " + mismatch);
+            }
+            int nextPc = 0;
+            for (int i = pcNets.length - 1; i >= 0; i--) {
+                nextPc = (nextPc << 1) | chip.getNet(pcNets[i]);
+            }
+            if (nextPc != emulator.getPc()) {
+                throw new IllegalStateException("Cycle " + c + ", instruction " + pc + ": pc = " + nextPc
+                        + ", emulator " + emulator.getPc());
+            }
+        }
+        System.out.println("Chip and emulator agree for " + cycles + " cycles");
+
+        start = System.nanoTime();
+        for (long c = 0; c < cycles; c++) {
+            chip.step();
+        }
+        long chipTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (long c = 0; c < cycles; c++) {
+            emulator.step();
+        }
+        long emulatorTime = System.nanoTime() - start;
+        System.out.printf("Compiled chip: %.0f cycles/s, emulator: %.0f instructions/s%n",
+                cycles * 1e9 / Math.max(1, chipTime), cycles * 1e9 / Math.max(1, emulatorTime));
+        for (int address = 0; address < 16; address++) {
+            System.out.println("RAM[" + address + "] = " + ram[address]);
+        }
+    }
+
+    /**
+     * Checks a combinational chip against its reference model, exhaustively
+     * or on random batches.
+     */
+    private static void verify(Netlist netlist, long samples) {
+        ReferenceModel model = ReferenceModels.get(netlist.getChipName());
+        if (model == null) {
+            throw new IllegalArgumentException("No reference model for " + netlist.getChipName());
+        }
+        ExhaustiveVerifier verifier = new ExhaustiveVerifier(netlist, model);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExhaustiveVerifier.Result result = samples > 0
+                ? verifier.verifyRandom(samples, threads)
+                : verifier.verifyAll(threads);
+        System.out.println(netlist.getChipName() + " " + result);
+    }
+
+    /**
+     * Drives every input with random values for the given number of cycles.
+     */
+    private static void runRandom(Simulator simulator, long cycles) {
+        Random random = new Random(0);
+        String[] inputs = simulator.getNetlist().getInputs().keySet().toArray(new String[0]);
+        long start = System.nanoTime();
+        long gates = simulator.getEvaluatedGates();
+        for (long c = 0; c < cycles; c++) {
+            for (String input : inputs) {
+                simulator.setInput(input, random.nextLong());
+            }
+            simulator.step();
+        }
+        report(cycles, System.nanoTime() - start, simulator.getEvaluatedGates() - gates);
+    }
+
+    private static void report(long cycles, long nanos, long gates) {
+        double seconds = nanos / 1e9;
+        System.out.printf("Ran %d cycles in %.3f s (%.0f cycles/s, %.0f gate evaluations per cycle)%n", cycles,
+                seconds, seconds > 0 ? cycles / seconds : 0.0, cycles > 0 ? (double) gates / cycles : 0.0);
+    }
+}
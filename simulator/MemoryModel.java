@@ -0,0 +1,65 @@
+/**
+ * Behavioural model of a word-addressed memory: RAM, ROM, registers and the
+ * keyboard register are all instances with different pins left unconnected.
+ *
+ * <pre>
+ *     out(t) = memory[address(t)](t)
+ *     if load(t-1) then memory[address(t-1)](t) = in(t-1)
+ * </pre>
+ */
+public class MemoryModel extends BehaviouralModel {
+    private final short[] memory;
+    private final int[] in;
+    private final int load;
+    private final int[] address;
+    private final int[] out;
+
+    private boolean pendingWrite;
+    private int pendingAddress;
+    private short pendingValue;
+
+    /**
+     * @param chipName the chip this models
+     * @param size     the number of words
+     * @param in       the data input nets, or {@code null} for read-only memory
+     * @param load     the load net, or {@code -1} for read-only memory
+     * @param address  the address nets, or {@code null} for a single register
+     * @param out      the data output nets
+     */
+    public MemoryModel(String chipName, int size, int[] in, int load, int[] address, int[] out) {
+        super(chipName);
+        this.memory = new short[size];
+        this.in = in;
+        this.load = load;
+        this.address = address;
+        this.out = out;
+    }
+
+    @Override
+    public void evaluate(int[] values) {
+        int index = address == null ? 0 : read(values, address);
+        write(values, out, memory[index]);
+    }
+
+    @Override
+    public void tick(int[] values) {
+        pendingWrite = load >= 0 && values[load] != 0;
+        if (pendingWrite) {
+            pendingAddress = address == null ? 0 : read(values, address);
+            pendingValue = (short) read(values, in);
+        }
+    }
+
+    @Override
+    public void tock() {
+        if (pendingWrite) {
+            memory[pendingAddress] = pendingValue;
+            pendingWrite = false;
+        }
+    }
+
+    @Override
+    public short[] getMemory() {
+        return memory;
+    }
+}
@@ -0,0 +1,924 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A flattened chip: a set of numbered nets connected by Nand gates, DFFs and
+ * behavioural built-in parts.
+ *
+ * <p>Nets {@link #FALSE} and {@link #TRUE} are the two constants. Every
+ * other net is driven by exactly one gate, DFF, built-in output or top-level
+ * input pin. Each gate, DFF and built-in records the chip instance it came
+ * from, so tools can attribute cost back to the HDL hierarchy.</p>
+ *
+ * <p>After {@link #levelise()} the gates are stored in topological order and
+ * each built-in part knows how many gates must be evaluated before it.</p>
+ */
+public class Netlist {
+    public static final int FALSE = 0;
+    public static final int TRUE = 1;
+
+    /**
+     * One behavioural part instance inside the netlist.
+     */
+    public static class BuiltInPart {
+        private final BuiltInChip chip;
+        private final int[][] pins;
+        private final int owner;
+
+        public BuiltInPart(BuiltInChip chip, int[][] pins, int owner) {
+            this.chip = chip;
+            this.pins = pins;
+            this.owner = owner;
+        }
+
+        public BuiltInChip getChip() {
+            return chip;
+        }
+
+        /**
+         * @return the nets of every pin, inputs first, in definition order
+         */
+        public int[][] getPins() {
+            return pins;
+        }
+
+        public int getOwner() {
+            return owner;
+        }
+    }
+
+    /**
+     * A cross-check between a gate-level part and a behavioural model of the
+     * same part that is simulated alongside it: the model reads the same
+     * input nets but drives its own copy of the output nets.
+     */
+    public static class ShadowCheck {
+        private final BuiltInChip chip;
+        private final int[] modelNets;
+        private final int[] gateNets;
+        private final int owner;
+
+        public ShadowCheck(BuiltInChip chip, int[] modelNets, int[] gateNets, int owner) {
+            this.chip = chip;
+            this.modelNets = modelNets;
+            this.gateNets = gateNets;
+            this.owner = owner;
+        }
+
+        public BuiltInChip getChip() {
+            return chip;
+        }
+
+        /**
+         * @return the output nets driven by the behavioural model
+         */
+        public int[] getModelNets() {
+            return modelNets;
+        }
+
+        /**
+         * @return the corresponding output nets driven by the gates
+         */
+        public int[] getGateNets() {
+            return gateNets;
+        }
+
+        /**
+         * @return the instance of the gate-level part
+         */
+        public int getOwner() {
+            return owner;
+        }
+    }
+
+    private final String chipName;
+    private int netCount = 2;
+
+    private int gateCount;
+    private int[] gateA = new int[16];
+    private int[] gateB = new int[16];
+    private int[] gateOut = new int[16];
+    private int[] gateOwner = new int[16];
+    private int[] gateRank;
+
+    private int dffCount;
+    private int[] dffIn = new int[4];
+    private int[] dffOut = new int[4];
+    private int[] dffOwner = new int[4];
+
+    private final List<BuiltInPart> builtIns = new ArrayList<>();
+    private int[] builtInRank;
+    private int[] builtInPosition;
+
+    private final List<ShadowCheck> shadowChecks = new ArrayList<>();
+
+    private final LinkedHashMap<String, int[]> inputs = new LinkedHashMap<>();
+    private final LinkedHashMap<String, int[]> outputs = new LinkedHashMap<>();
+    private final LinkedHashMap<String, int[]> wires = new LinkedHashMap<>();
+
+    private int instanceCount = 1;
+    private String[] instanceChip;
+    private int[] instancePart = {-1};
+    private int[] instanceParent = {-1};
+
+    private boolean levelised;
+
+    /**
+     * Creates an empty netlist containing only the two constant nets.
+     *
+     * @param chipName the name of the chip this netlist implements
+     */
+    public Netlist(String chipName) {
+        this.chipName = chipName;
+        this.instanceChip = new String[]{chipName};
+    }
+
+    public String getChipName() {
+        return chipName;
+    }
+
+    public int getNetCount() {
+        return netCount;
+    }
+
+    public int getGateCount() {
+        return gateCount;
+    }
+
+    public int getDffCount() {
+        return dffCount;
+    }
+
+    public int[] getGateA() {
+        return gateA;
+    }
+
+    public int[] getGateB() {
+        return gateB;
+    }
+
+    public int[] getGateOut() {
+        return gateOut;
+    }
+
+    public int[] getGateOwner() {
+        return gateOwner;
+    }
+
+    public int[] getDffIn() {
+        return dffIn;
+    }
+
+    public int[] getDffOut() {
+        return dffOut;
+    }
+
+    public int[] getDffOwner() {
+        return dffOwner;
+    }
+
+    public List<BuiltInPart> getBuiltIns() {
+        return builtIns;
+    }
+
+    public List<ShadowCheck> getShadowChecks() {
+        return shadowChecks;
+    }
+
+    /**
+     * @return the top-level input pins and their nets, bit 0 first
+     */
+    public LinkedHashMap<String, int[]> getInputs() {
+        return inputs;
+    }
+
+    /**
+     * @return the top-level output pins and their nets, bit 0 first
+     */
+    public LinkedHashMap<String, int[]> getOutputs() {
+        return outputs;
+    }
+
+    /**
+     * @return every named wire of the top-level chip, including its pins
+     */
+    public LinkedHashMap<String, int[]> getWires() {
+        return wires;
+    }
+
+    /**
+     * Returns the nets of a top-level pin or internal wire.
+     *
+     * @param name the pin or wire name
+     * @return the nets, or {@code null} if there is no such name
+     */
+    public int[] getPin(String name) {
+        int[] nets = inputs.get(name);
+        if (nets == null) {
+            nets = outputs.get(name);
+        }
+        if (nets == null) {
+            nets = wires.get(name);
+        }
+        return nets;
+    }
+
+    public int getInstanceCount() {
+        return instanceCount;
+    }
+
+    /**
+     * @param instance an instance id (0 is the chip itself)
+     * @return the chip name of the instance
+     */
+    public String getInstanceChip(int instance) {
+        return instanceChip[instance];
+    }
+
+    /**
+     * @param instance an instance id
+     * @return the index of the instance's part statement in its parent, or {@code -1} for the chip itself
+     */
+    public int getInstancePart(int instance) {
+        return instancePart[instance];
+    }
+
+    /**
+     * @param instance an instance id
+     * @return the id of the enclosing instance, or {@code -1} for the chip itself
+     */
+    public int getInstanceParent(int instance) {
+        return instanceParent[instance];
+    }
+
+    /**
+     * Returns a readable hierarchical name such as {@code ALU#6/Add16#6/FullAdder#3}.
+     * The number after {@code #} is the index of the part statement in its parent.
+     *
+     * @param instance an instance id
+     * @return the path of the instance below the top-level chip
+     */
+    public String getInstancePath(int instance) {
+        if (instance <= 0) {
+            return chipName;
+        }
+        StringBuilder path = new StringBuilder();
+        while (instance > 0) {
+            String label = instanceChip[instance] + "#" + instancePart[instance];
+            path.insert(0, path.length() == 0 ? label : label + "/");
+            instance = instanceParent[instance];
+        }
+        return path.toString();
+    }
+
+    /**
+     * Returns the top-level part instance (a direct child of the chip) that
+     * contains the given instance.
+     *
+     * @param instance an instance id
+     * @return the id of the top-level part, or {@code 0} for the chip itself
+     */
+    public int getTopLevelPart(int instance) {
+        while (instance > 0 && instanceParent[instance] != 0) {
+            instance = instanceParent[instance];
+        }
+        return instance;
+    }
+
+    /**
+     * Allocates a new net.
+     *
+     * @return the net id
+     */
+    public int newNet() {
+        levelised = false;
+        return netCount++;
+    }
+
+    /**
+     * Allocates the nets of a bus.
+     *
+     * @param width the number of bits
+     * @return the net ids, bit 0 first
+     */
+    public int[] newBus(int width) {
+        int[] nets = new int[width];
+        for (int i = 0; i < width; i++) {
+            nets[i] = newNet();
+        }
+        return nets;
+    }
+
+    /**
+     * Adds a Nand gate {@code out = !(a & b)}.
+     */
+    public void addGate(int a, int b, int out, int owner) {
+        if (gateCount == gateA.length) {
+            int size = Math.max(16, gateCount * 2);
+            gateA = Arrays.copyOf(gateA, size);
+            gateB = Arrays.copyOf(gateB, size);
+            gateOut = Arrays.copyOf(gateOut, size);
+            gateOwner = Arrays.copyOf(gateOwner, size);
+        }
+        gateA[gateCount] = a;
+        gateB[gateCount] = b;
+        gateOut[gateCount] = out;
+        gateOwner[gateCount] = owner;
+        gateCount++;
+        levelised = false;
+    }
+
+    /**
+     * Adds a DFF {@code out(t) = in(t-1)}.
+     */
+    public void addDff(int in, int out, int owner) {
+        if (dffCount == dffIn.length) {
+            int size = Math.max(4, dffCount * 2);
+            dffIn = Arrays.copyOf(dffIn, size);
+            dffOut = Arrays.copyOf(dffOut, size);
+            dffOwner = Arrays.copyOf(dffOwner, size);
+        }
+        dffIn[dffCount] = in;
+        dffOut[dffCount] = out;
+        dffOwner[dffCount] = owner;
+        dffCount++;
+        levelised = false;
+    }
+
+    /**
+     * Adds a behavioural part.
+     */
+    public void addBuiltIn(BuiltInPart part) {
+        builtIns.add(part);
+        levelised = false;
+    }
+
+    /**
+     * Records that a behavioural model shadows a gate-level part.
+     */
+    public void addShadowCheck(ShadowCheck check) {
+        shadowChecks.add(check);
+    }
+
+    /**
+     * Adds a child instance record.
+     *
+     * @param chip   the chip name of the instance
+     * @param part   the index of the part statement in the parent chip
+     * @param parent the enclosing instance
+     * @return the new instance id
+     */
+    public int addInstance(String chip, int part, int parent) {
+        if (instanceCount == instanceChip.length) {
+            int size = instanceCount * 2;
+            instanceChip = Arrays.copyOf(instanceChip, size);
+            instancePart = Arrays.copyOf(instancePart, size);
+            instanceParent = Arrays.copyOf(instanceParent, size);
+        }
+        instanceChip[instanceCount] = chip;
+        instancePart[instanceCount] = part;
+        instanceParent[instanceCount] = parent;
+        return instanceCount++;
+    }
+
+    /**
+     * Copies another netlist into this one as a new part.
+     *
+     * <p>The copied nets are given fresh ids; {@code sub}'s net {@code n} becomes
+     * {@code base + n - 2} where {@code base} is the returned value (the constants
+     * keep their ids). Instances of {@code sub} are re-parented under a new
+     * instance for the part, except for primitive chips whose gates are
+     * attributed directly to {@code parent}.</p>
+     *
+     * @param sub    the netlist of the part's chip
+     * @param part   the index of the part statement
+     * @param parent the instance that contains the part
+     * @return the net offset {@code base}
+     */
+    public int instantiate(Netlist sub, int part, int parent) {
+        int base = netCount;
+        netCount += sub.netCount - 2;
+
+        int[] instanceMap = new int[sub.instanceCount];
+        if (BuiltInChip.forName(sub.chipName) != null && BuiltInChip.forName(sub.chipName).isPrimitive()) {
+            instanceMap[0] = parent;
+        } else {
+            instanceMap[0] = addInstance(sub.chipName, part, parent);
+        }
+        for (int i = 1; i < sub.instanceCount; i++) {
+            instanceMap[i] = addInstance(sub.instanceChip[i], sub.instancePart[i], instanceMap[sub.instanceParent[i]]);
+        }
+
+        for (int g = 0; g < sub.gateCount; g++) {
+            addGate(map(sub.gateA[g], base), map(sub.gateB[g], base), map(sub.gateOut[g], base),
+                    instanceMap[sub.gateOwner[g]]);
+        }
+        for (int d = 0; d < sub.dffCount; d++) {
+            addDff(map(sub.dffIn[d], base), map(sub.dffOut[d], base), instanceMap[sub.dffOwner[d]]);
+        }
+        for (BuiltInPart builtIn : sub.builtIns) {
+            int[][] pins = new int[builtIn.pins.length][];
+            for (int p = 0; p < pins.length; p++) {
+                pins[p] = new int[builtIn.pins[p].length];
+                for (int i = 0; i < pins[p].length; i++) {
+                    pins[p][i] = map(builtIn.pins[p][i], base);
+                }
+            }
+            addBuiltIn(new BuiltInPart(builtIn.chip, pins, instanceMap[builtIn.owner]));
+        }
+        for (ShadowCheck check : sub.shadowChecks) {
+            int[] modelNets = new int[check.modelNets.length];
+            int[] gateNets = new int[check.gateNets.length];
+            for (int i = 0; i < modelNets.length; i++) {
+                modelNets[i] = map(check.modelNets[i], base);
+                gateNets[i] = map(check.gateNets[i], base);
+            }
+            addShadowCheck(new ShadowCheck(check.chip, modelNets, gateNets, instanceMap[check.owner]));
+        }
+        return base;
+    }
+
+    /**
+     * Maps a net of an instantiated sub-netlist to its id in this netlist.
+     *
+     * @param net  the net id in the sub-netlist
+     * @param base the offset returned by {@link #instantiate(Netlist, int, int)}
+     * @return the net id in this netlist
+     */
+    public static int map(int net, int base) {
+        return net < 2 ? net : base + net - 2;
+    }
+
+    /**
+     * Renames every net through {@code map}. Several nets may be mapped to the
+     * same id, which is how wires are joined.
+     *
+     * @param map         the new id of every current net
+     * @param newNetCount the number of nets after renaming
+     */
+    public void renumber(int[] map, int newNetCount) {
+        for (int g = 0; g < gateCount; g++) {
+            gateA[g] = map[gateA[g]];
+            gateB[g] = map[gateB[g]];
+            gateOut[g] = map[gateOut[g]];
+        }
+        for (int d = 0; d < dffCount; d++) {
+            dffIn[d] = map[dffIn[d]];
+            dffOut[d] = map[dffOut[d]];
+        }
+        for (BuiltInPart builtIn : builtIns) {
+            for (int[] pin : builtIn.pins) {
+                for (int i = 0; i < pin.length; i++) {
+                    pin[i] = map[pin[i]];
+                }
+            }
+        }
+        for (ShadowCheck check : shadowChecks) {
+            for (int i = 0; i < check.modelNets.length; i++) {
+                check.modelNets[i] = map[check.modelNets[i]];
+                check.gateNets[i] = map[check.gateNets[i]];
+            }
+        }
+        for (Map<String, int[]> pins : List.of(inputs, outputs, wires)) {
+            for (int[] nets : pins.values()) {
+                for (int i = 0; i < nets.length; i++) {
+                    nets[i] = map[nets[i]];
+                }
+            }
+        }
+        netCount = newNetCount;
+        levelised = false;
+    }
+
+    /**
+     * Sorts the gates and built-in parts into an order in which every gate is
+     * evaluated after the gates and built-ins that drive its inputs.
+     *
+     * <p>Each node is given a rank of one more than the highest rank among its
+     * drivers (top-level inputs, constants and DFF outputs have rank 0), and
+     * the nodes are stably sorted by rank.</p>
+     *
+     * @throws IllegalStateException if the netlist contains a combinational loop
+     */
+    public void levelise() {
+        if (levelised) {
+            return;
+        }
+        int nodes = gateCount + builtIns.size();
+        int[] driver = new int[netCount];
+        Arrays.fill(driver, -1);
+        for (int g = 0; g < gateCount; g++) {
+            driver[gateOut[g]] = g;
+        }
+        for (int b = 0; b < builtIns.size(); b++) {
+            BuiltInPart part = builtIns.get(b);
+            int firstOutput = part.chip.getDefinition().getInputs().size();
+            for (int p = firstOutput; p < part.pins.length; p++) {
+                for (int net : part.pins[p]) {
+                    driver[net] = gateCount + b;
+                }
+            }
+        }
+
+        // Fanout edges driver -> reader, stored compressed by driver
+        int[] pending = new int[nodes];
+        int[] fanoutStart = new int[nodes + 1];
+        for (int g = 0; g < gateCount; g++) {
+            countEdge(driver[gateA[g]], g, fanoutStart, pending);
+            countEdge(driver[gateB[g]], g, fanoutStart, pending);
+        }
+        for (int node = gateCount; node < nodes; node++) {
+            for (int net : dependencies(node)) {
+                countEdge(driver[net], node, fanoutStart, pending);
+            }
+        }
+        for (int node = 0; node < nodes; node++) {
+            fanoutStart[node + 1] += fanoutStart[node];
+        }
+        int[] fanout = new int[fanoutStart[nodes]];
+        int[] fill = Arrays.copyOf(fanoutStart, nodes);
+        for (int g = 0; g < gateCount; g++) {
+            addEdge(driver[gateA[g]], g, fanout, fill);
+            addEdge(driver[gateB[g]], g, fanout, fill);
+        }
+        for (int node = gateCount; node < nodes; node++) {
+            for (int net : dependencies(node)) {
+                addEdge(driver[net], node, fanout, fill);
+            }
+        }
+
+        int[] rank = new int[nodes];
+        int[] queue = new int[nodes];
+        int head = 0;
+        int tail = 0;
+        for (int node = 0; node < nodes; node++) {
+            if (pending[node] == 0) {
+                queue[tail++] = node;
+            }
+        }
+        int maxRank = 0;
+        while (head < tail) {
+            int node = queue[head++];
+            rank[node]++;
+            maxRank = Math.max(maxRank, rank[node]);
+            for (int i = fanoutStart[node]; i < fanoutStart[node + 1]; i++) {
+                int reader = fanout[i];
+                rank[reader] = Math.max(rank[reader], rank[node]);
+                if (--pending[reader] == 0) {
+                    queue[tail++] = reader;
+                }
+            }
+        }
+        if (tail < nodes) {
+            throw new IllegalStateException("Combinational loop in chip " + chipName + " ("
+                    + (nodes - tail) + " gates are part of or depend on a loop)");
+        }
+
+        // Stable counting sort by rank
+        int[] rankStart = new int[maxRank + 2];
+        for (int node = 0; node < nodes; node++) {
+            rankStart[rank[node] + 1]++;
+        }
+        for (int r = 0; r <= maxRank; r++) {
+            rankStart[r + 1] += rankStart[r];
+        }
+        int[] order = new int[nodes];
+        for (int node = 0; node < nodes; node++) {
+            order[rankStart[rank[node]]++] = node;
+        }
+
+        int[] newA = new int[Math.max(gateCount, 16)];
+        int[] newB = new int[newA.length];
+        int[] newOut = new int[newA.length];
+        int[] newOwner = new int[newA.length];
+        gateRank = new int[gateCount];
+        List<BuiltInPart> newBuiltIns = new ArrayList<>();
+        builtInRank = new int[builtIns.size()];
+        builtInPosition = new int[builtIns.size()];
+        int g = 0;
+        for (int node : order) {
+            if (node < gateCount) {
+                newA[g] = gateA[node];
+                newB[g] = gateB[node];
+                newOut[g] = gateOut[node];
+                newOwner[g] = gateOwner[node];
+                gateRank[g] = rank[node];
+                g++;
+            } else {
+                builtInRank[newBuiltIns.size()] = rank[node];
+                builtInPosition[newBuiltIns.size()] = g;
+                newBuiltIns.add(builtIns.get(node - gateCount));
+            }
+        }
+        gateA = newA;
+        gateB = newB;
+        gateOut = newOut;
+        gateOwner = newOwner;
+        builtIns.clear();
+        builtIns.addAll(newBuiltIns);
+        levelised = true;
+    }
+
+    private static void countEdge(int driver, int reader, int[] fanoutStart, int[] pending) {
+        if (driver >= 0) {
+            fanoutStart[driver + 1]++;
+            pending[reader]++;
+        }
+    }
+
+    private static void addEdge(int driver, int reader, int[] fanout, int[] fill) {
+        if (driver >= 0) {
+            fanout[fill[driver]++] = reader;
+        }
+    }
+
+    public boolean isLevelised() {
+        return levelised;
+    }
+
+    /**
+     * @return the rank of every gate, valid after {@link #levelise()}
+     */
+    public int[] getGateRank() {
+        return gateRank;
+    }
+
+    /**
+     * @return the rank of every built-in part, valid after {@link #levelise()}
+     */
+    public int[] getBuiltInRank() {
+        return builtInRank;
+    }
+
+    /**
+     * @return for every built-in part, the number of gates that precede it in
+     * the schedule; valid after {@link #levelise()}
+     */
+    public int[] getBuiltInPosition() {
+        return builtInPosition;
+    }
+
+    /**
+     * Returns the nets a node reads within the same clock cycle.
+     *
+     * @param node a gate index, or {@code gateCount + i} for built-in part {@code i}
+     * @return the nets the node depends on combinationally
+     */
+    public int[] dependencies(int node) {
+        if (node < gateCount) {
+            return new int[]{gateA[node], gateB[node]};
+        }
+        BuiltInPart part = builtIns.get(node - gateCount);
+        int count = 0;
+        int p = 0;
+        for (String pin : part.chip.getDefinition().getInputs().keySet()) {
+            if (part.chip.isCombinationalInput(pin)) {
+                count += part.pins[p].length;
+            }
+            p++;
+        }
+        int[] nets = new int[count];
+        count = 0;
+        p = 0;
+        for (String pin : part.chip.getDefinition().getInputs().keySet()) {
+            if (part.chip.isCombinationalInput(pin)) {
+                System.arraycopy(part.pins[p], 0, nets, count, part.pins[p].length);
+                count += part.pins[p].length;
+            }
+            p++;
+        }
+        return nets;
+    }
+
+    /**
+     * Writes the netlist in the binary format read by {@link #read(DataInputStream)}.
+     * The netlist is levelised first, so a netlist that is read back can be
+     * simulated straight away.
+     *
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     */
+    public void write(DataOutputStream out) throws IOException {
+        levelise();
+        out.writeUTF(chipName);
+        out.writeInt(netCount);
+
+        out.writeInt(gateCount);
+        writeInts(out, gateA, gateCount);
+        writeInts(out, gateB, gateCount);
+        writeInts(out, gateOut, gateCount);
+        writeInts(out, gateOwner, gateCount);
+        writeInts(out, gateRank, gateCount);
+
+        out.writeInt(dffCount);
+        writeInts(out, dffIn, dffCount);
+        writeInts(out, dffOut, dffCount);
+        writeInts(out, dffOwner, dffCount);
+
+        out.writeInt(builtIns.size());
+        for (int b = 0; b < builtIns.size(); b++) {
+            BuiltInPart part = builtIns.get(b);
+            out.writeUTF(part.chip.getChipName());
+            out.writeInt(part.owner);
+            out.writeInt(builtInRank[b]);
+            out.writeInt(builtInPosition[b]);
+            for (int[] pin : part.pins) {
+                out.writeInt(pin.length);
+                writeInts(out, pin, pin.length);
+            }
+        }
+
+        out.writeInt(shadowChecks.size());
+        for (ShadowCheck check : shadowChecks) {
+            out.writeUTF(check.chip.getChipName());
+            out.writeInt(check.owner);
+            out.writeInt(check.modelNets.length);
+            writeInts(out, check.modelNets, check.modelNets.length);
+            writeInts(out, check.gateNets, check.gateNets.length);
+        }
+
+        for (Map<String, int[]> pins : List.of(inputs, outputs, wires)) {
+            out.writeInt(pins.size());
+            for (Map.Entry<String, int[]> pin : pins.entrySet()) {
+                out.writeUTF(pin.getKey());
+                out.writeInt(pin.getValue().length);
+                writeInts(out, pin.getValue(), pin.getValue().length);
+            }
+        }
+
+        out.writeInt(instanceCount);
+        List<String> chipNames = new ArrayList<>();
+        Map<String, Integer> chipIds = new HashMap<>();
+        int[] instanceChipIds = new int[instanceCount];
+        for (int i = 0; i < instanceCount; i++) {
+            instanceChipIds[i] = chipIds.computeIfAbsent(instanceChip[i], name -> {
+                chipNames.add(name);
+                return chipNames.size() - 1;
+            });
+        }
+        out.writeInt(chipNames.size());
+        for (String name : chipNames) {
+            out.writeUTF(name);
+        }
+        writeInts(out, instanceChipIds, instanceCount);
+        writeInts(out, instancePart, instanceCount);
+        writeInts(out, instanceParent, instanceCount);
+    }
+
+    /**
+     * Reads a netlist written by {@link #write(DataOutputStream)}.
+     *
+     * @param in the stream to read from
+     * @return the netlist, already levelised
+     * @throws IOException if reading fails or the data is malformed
+     */
+    public static Netlist read(DataInputStream in) throws IOException {
+        Netlist netlist = new Netlist(in.readUTF());
+        netlist.netCount = in.readInt();
+
+        int gates = in.readInt();
+        netlist.gateCount = gates;
+        netlist.gateA = readInts(in, gates);
+        netlist.gateB = readInts(in, gates);
+        netlist.gateOut = readInts(in, gates);
+        netlist.gateOwner = readInts(in, gates);
+        netlist.gateRank = readInts(in, gates);
+
+        int dffs = in.readInt();
+        netlist.dffCount = dffs;
+        netlist.dffIn = readInts(in, dffs);
+        netlist.dffOut = readInts(in, dffs);
+        netlist.dffOwner = readInts(in, dffs);
+
+        int builtInCount = in.readInt();
+        netlist.builtInRank = new int[builtInCount];
+        netlist.builtInPosition = new int[builtInCount];
+        for (int b = 0; b < builtInCount; b++) {
+            BuiltInChip chip = readChip(in);
+            int owner = in.readInt();
+            netlist.builtInRank[b] = in.readInt();
+            netlist.builtInPosition[b] = in.readInt();
+            ChipDefinition definition = chip.getDefinition();
+            int[][] pins = new int[definition.getInputs().size() + definition.getOutputs().size()][];
+            for (int p = 0; p < pins.length; p++) {
+                pins[p] = readInts(in, in.readInt());
+            }
+            netlist.builtIns.add(new BuiltInPart(chip, pins, owner));
+        }
+
+        int checks = in.readInt();
+        for (int c = 0; c < checks; c++) {
+            BuiltInChip chip = readChip(in);
+            int owner = in.readInt();
+            int width = in.readInt();
+            int[] modelNets = readInts(in, width);
+            int[] gateNets = readInts(in, width);
+            netlist.shadowChecks.add(new ShadowCheck(chip, modelNets, gateNets, owner));
+        }
+
+        for (Map<String, int[]> pins : List.of(netlist.inputs, netlist.outputs, netlist.wires)) {
+            int count = in.readInt();
+            for (int p = 0; p < count; p++) {
+                String name = in.readUTF();
+                pins.put(name, readInts(in, in.readInt()));
+            }
+        }
+
+        int instances = in.readInt();
+        String[] chipNames = new String[in.readInt()];
+        for (int c = 0; c < chipNames.length; c++) {
+            chipNames[c] = in.readUTF();
+        }
+        int[] instanceChipIds = readInts(in, instances);
+        netlist.instanceCount = instances;
+        netlist.instanceChip = new String[Math.max(instances, 1)];
+        for (int i = 0; i < instances; i++) {
+            if (instanceChipIds[i] < 0 || instanceChipIds[i] >= chipNames.length) {
+                throw new IOException("Malformed instance table");
+            }
+            netlist.instanceChip[i] = chipNames[instanceChipIds[i]];
+        }
+        netlist.instancePart = readInts(in, instances);
+        netlist.instanceParent = readInts(in, instances);
+        netlist.levelised = true;
+        return netlist;
+    }
+
+    private static BuiltInChip readChip(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        BuiltInChip chip = BuiltInChip.forName(name);
+        if (chip == null) {
+            throw new IOException("Unknown built-in chip " + name);
+        }
+        return chip;
+    }
+
+    /**
+     * Writes the first {@code count} elements of an array as a block of
+     * variable-length differences: each element is stored as the zigzag
+     * encoded difference from the previous one, seven bits per byte. Net ids
+     * of neighbouring gates, owners and ranks are mostly close together, so
+     * most elements take one or two bytes.
+     */
+    private static void writeInts(DataOutputStream out, int[] array, int count) throws IOException {
+        byte[] bytes = new byte[count * 5];
+        int length = 0;
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int delta = array[i] - previous;
+            previous = array[i];
+            int zigzag = (delta << 1) ^ (delta >> 31);
+            while ((zigzag & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            bytes[length++] = (byte) zigzag;
+        }
+        out.writeInt(length);
+        out.write(bytes, 0, length);
+    }
+
+    private static int[] readInts(DataInputStream in, int count) throws IOException {
+        int length = in.readInt();
+        if (count < 0 || length < count || length > count * 5) {
+            throw new IOException("Malformed array of " + count + " elements in " + length + " bytes");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        int[] array = new int[count];
+        int position = 0;
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (position == length || shift > 28) {
+                    throw new IOException("Malformed array");
+                }
+                b = bytes[position++];
+                zigzag |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            array[i] = previous;
+        }
+        if (position != length) {
+            throw new IOException("Malformed array");
+        }
+        return array;
+    }
+
+    @Override
+    public String toString() {
+        return "Netlist{" + "chip=" + chipName + ", nets=" + netCount + ", nands=" + gateCount
+                + ", dffs=" + dffCount + ", builtIns=" + builtIns.size() + '}';
+    }
+}
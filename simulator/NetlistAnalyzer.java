@@ -0,0 +1,431 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Static cost and timing analysis of a flattened chip.
+ *
+ * <p>Every Nand gate counts as one unit of delay; DFF outputs and top-level
+ * inputs arrive at time 0, constants (and gates fed only by constants) never
+ * switch and so start no path, and behavioural built-in parts pass
+ * their combinational inputs (e.g. a RAM's {@code address}) through with no
+ * delay of their own. The critical path is the longest chain of gates ending
+ * at a top-level output, a DFF input or a built-in part's input.</p>
+ *
+ * <p>Costs are also broken down by the part statements of the top-level
+ * chip, with each part's own depth measured from the part's inputs.</p>
+ */
+public class NetlistAnalyzer {
+
+    /**
+     * Cost of one part statement of the analysed chip.
+     */
+    public static class PartCost {
+        private final String name;
+        private final String chip;
+        private int nands;
+        private int dffs;
+        private int builtIns;
+        private int depth;
+
+        public PartCost(String name, String chip) {
+            this.name = name;
+            this.chip = chip;
+        }
+
+        /**
+         * @return the instance name, e.g. {@code Add16#6}
+         */
+        public String getName() {
+            return name;
+        }
+
+        public String getChip() {
+            return chip;
+        }
+
+        public int getNands() {
+            return nands;
+        }
+
+        public int getDffs() {
+            return dffs;
+        }
+
+        public int getBuiltIns() {
+            return builtIns;
+        }
+
+        /**
+         * @return the longest chain of Nands inside the part, from its inputs
+         */
+        public int getDepth() {
+            return depth;
+        }
+    }
+
+    private static final int NO_DRIVER = -1;
+    private static final int CONSTANT = -1;
+    private static final int PATH_DETAIL = 2;
+
+    private final Netlist netlist;
+    private final int[] arrival;
+    private final int[] previous;
+    private final int[] driver;
+    private final String[] netNames;
+    private final Map<Integer, PartCost> parts = new TreeMap<>();
+
+    private int criticalDepth;
+    private int criticalEnd = -1;
+    private String criticalEndName;
+
+    /**
+     * Analyses a netlist, levelising it if needed.
+     *
+     * @param netlist the flattened chip
+     */
+    public NetlistAnalyzer(Netlist netlist) {
+        netlist.levelise();
+        this.netlist = netlist;
+        int nets = netlist.getNetCount();
+        this.arrival = new int[nets];
+        this.previous = new int[nets];
+        this.driver = new int[nets];
+        this.netNames = new String[nets];
+        Arrays.fill(previous, -1);
+        Arrays.fill(driver, NO_DRIVER);
+        arrival[Netlist.FALSE] = CONSTANT;
+        arrival[Netlist.TRUE] = CONSTANT;
+        nameNets();
+        propagate();
+        findCriticalEnd();
+        breakDown();
+    }
+
+    public Netlist getNetlist() {
+        return netlist;
+    }
+
+    public int getNandCount() {
+        return netlist.getGateCount();
+    }
+
+    public int getDffCount() {
+        return netlist.getDffCount();
+    }
+
+    /**
+     * @return the critical path length in Nand delays
+     */
+    public int getCriticalDepth() {
+        return criticalDepth;
+    }
+
+    /**
+     * @return the costs of the top-level chip's parts, in part statement order
+     */
+    public List<PartCost> getParts() {
+        return new ArrayList<>(parts.values());
+    }
+
+    /**
+     * Returns the nets along the critical path, from its start point to its
+     * end point.
+     *
+     * @return the net ids, or an empty array if the chip has no gates
+     */
+    public int[] getCriticalPath() {
+        if (criticalEnd < 0) {
+            return new int[0];
+        }
+        List<Integer> path = new ArrayList<>();
+        for (int net = criticalEnd; net >= 0; net = previous[net]) {
+            path.add(0, net);
+        }
+        return path.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Labels the nets of the top-level chip's pins and wires, e.g. {@code sum[3]}.
+     */
+    private void nameNets() {
+        for (Map<String, int[]> pins : List.of(netlist.getWires(), netlist.getOutputs(), netlist.getInputs())) {
+            for (Map.Entry<String, int[]> pin : pins.entrySet()) {
+                int[] nets = pin.getValue();
+                for (int i = 0; i < nets.length; i++) {
+                    if (nets[i] >= 2) {
+                        netNames[nets[i]] = nets.length == 1 ? pin.getKey() : pin.getKey() + "[" + i + "]";
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the arrival time of every net in schedule order.
+     */
+    private void propagate() {
+        int[] gateA = netlist.getGateA();
+        int[] gateB = netlist.getGateB();
+        int[] gateOut = netlist.getGateOut();
+        int[] position = netlist.getBuiltInPosition();
+        List<Netlist.BuiltInPart> builtIns = netlist.getBuiltIns();
+        int g = 0;
+        for (int b = 0; b <= builtIns.size(); b++) {
+            int end = b < builtIns.size() ? position[b] : netlist.getGateCount();
+            for (; g < end; g++) {
+                int slower = arrival[gateA[g]] >= arrival[gateB[g]] ? gateA[g] : gateB[g];
+                arrival[gateOut[g]] = arrival[slower] == CONSTANT ? CONSTANT : arrival[slower] + 1;
+                previous[gateOut[g]] = slower;
+                driver[gateOut[g]] = g;
+            }
+            if (b < builtIns.size()) {
+                int slowest = -1;
+                for (int net : netlist.dependencies(netlist.getGateCount() + b)) {
+                    if (slowest < 0 || arrival[net] > arrival[slowest]) {
+                        slowest = net;
+                    }
+                }
+                Netlist.BuiltInPart part = builtIns.get(b);
+                int firstOutput = part.getChip().getDefinition().getInputs().size();
+                for (int p = firstOutput; p < part.getPins().length; p++) {
+                    for (int net : part.getPins()[p]) {
+                        arrival[net] = slowest < 0 ? 0 : Math.max(arrival[slowest], 0);
+                        previous[net] = slowest < 0 || arrival[slowest] == CONSTANT ? -1 : slowest;
+                        driver[net] = -2 - b;
+                    }
+                }
+            }
+        }
+    }
+
+    private void findCriticalEnd() {
+        for (Map.Entry<String, int[]> output : netlist.getOutputs().entrySet()) {
+            int[] nets = output.getValue();
+            for (int i = 0; i < nets.length; i++) {
+                consider(nets[i], "output " + (nets.length == 1 ? output.getKey() : output.getKey() + "[" + i + "]"));
+            }
+        }
+        int[] dffIn = netlist.getDffIn();
+        for (int d = 0; d < netlist.getDffCount(); d++) {
+            consider(dffIn[d], "DFF in " + netlist.getInstancePath(netlist.getDffOwner()[d]));
+        }
+        for (Netlist.BuiltInPart part : netlist.getBuiltIns()) {
+            int inputs = part.getChip().getDefinition().getInputs().size();
+            for (int p = 0; p < inputs; p++) {
+                for (int net : part.getPins()[p]) {
+                    consider(net, part.getChip().getChipName() + " in " + netlist.getInstancePath(part.getOwner()));
+                }
+            }
+        }
+    }
+
+    private void consider(int net, String name) {
+        if (arrival[net] != CONSTANT && (criticalEnd < 0 || arrival[net] > criticalDepth)) {
+            criticalDepth = arrival[net];
+            criticalEnd = net;
+            criticalEndName = name;
+        }
+    }
+
+    /**
+     * Counts the gates of every top-level part and measures each part's own depth.
+     */
+    private void breakDown() {
+        int[] gateA = netlist.getGateA();
+        int[] gateB = netlist.getGateB();
+        int[] gateOut = netlist.getGateOut();
+        int[] gateOwner = netlist.getGateOwner();
+        int[] partOf = new int[netlist.getNetCount()];
+        int[] localArrival = new int[netlist.getNetCount()];
+        Arrays.fill(partOf, -1);
+
+        for (int g = 0; g < netlist.getGateCount(); g++) {
+            int part = netlist.getTopLevelPart(gateOwner[g]);
+            int a = partOf[gateA[g]] == part ? localArrival[gateA[g]] : 0;
+            int b = partOf[gateB[g]] == part ? localArrival[gateB[g]] : 0;
+            localArrival[gateOut[g]] = Math.max(a, b) + 1;
+            partOf[gateOut[g]] = part;
+            PartCost cost = part(part);
+            cost.nands++;
+            cost.depth = Math.max(cost.depth, localArrival[gateOut[g]]);
+        }
+        for (int d = 0; d < netlist.getDffCount(); d++) {
+            part(netlist.getTopLevelPart(netlist.getDffOwner()[d])).dffs++;
+        }
+        for (Netlist.BuiltInPart builtIn : netlist.getBuiltIns()) {
+            part(netlist.getTopLevelPart(builtIn.getOwner())).builtIns++;
+        }
+    }
+
+    private PartCost part(int instance) {
+        return parts.computeIfAbsent(instance, i -> i == 0
+                ? new PartCost("(Nand parts)", "Nand")
+                : new PartCost(netlist.getInstancePath(i), netlist.getInstanceChip(i)));
+    }
+
+    /**
+     * Formats the full report: totals, the critical path and the per-part breakdown.
+     *
+     * @return the report text
+     */
+    public String report() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%s: %d Nands, %d DFFs, %d built-in parts%n", netlist.getChipName(),
+                getNandCount(), getDffCount(), netlist.getBuiltIns().size()));
+
+        int[] path = getCriticalPath();
+        if (path.length == 0) {
+            text.append(String.format("Critical path: none%n"));
+        } else {
+            text.append(String.format("Critical path: %d Nand delays, from %s to %s%n", criticalDepth,
+                    describeStart(path[0]), criticalEndName));
+            appendPath(text, path);
+        }
+
+        text.append(String.format("Parts:%n  %-28s %-12s %8s %7s %8s %6s%n",
+                "instance", "chip", "Nands", "DFFs", "built-in", "depth"));
+        for (PartCost part : parts.values()) {
+            text.append(String.format("  %-28s %-12s %8d %7d %8d %6d%n", part.name, part.chip,
+                    part.nands, part.dffs, part.builtIns, part.depth));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Lists the path as runs of consecutive gates in the same part, looking
+     * at most {@link #PATH_DETAIL} levels below the analysed chip (e.g.
+     * {@code Add16#6/FullAdder#3}).
+     */
+    private void appendPath(StringBuilder text, int[] path) {
+        text.append(String.format("  %6s  %-6s %s%n", "depth", "Nands", "instance (wire)"));
+        int i = 1;
+        while (i < path.length) {
+            int owner = owner(path[i]);
+            int first = i;
+            while (i + 1 < path.length && owner(path[i + 1]) == owner && netNames[path[i]] == null) {
+                i++;
+            }
+            String wire = netNames[path[i]] == null ? "" : " (" + netNames[path[i]] + ")";
+            text.append(String.format("  %6d  %-6d %s%s%n", arrival[path[i]],
+                    arrival[path[i]] - arrival[path[first - 1]], describeDriver(path[i]), wire));
+            i++;
+        }
+    }
+
+    /**
+     * Returns the instance a net's driver is attributed to in the path listing.
+     */
+    private int owner(int net) {
+        int d = driver[net];
+        if (d == NO_DRIVER) {
+            return -1;
+        }
+        int instance = d >= 0 ? netlist.getGateOwner()[d] : netlist.getBuiltIns().get(-2 - d).getOwner();
+        int depth = 0;
+        for (int i = instance; i > 0; i = netlist.getInstanceParent(i)) {
+            depth++;
+        }
+        for (; depth > PATH_DETAIL; depth--) {
+            instance = netlist.getInstanceParent(instance);
+        }
+        return instance;
+    }
+
+    private String describeDriver(int net) {
+        int d = driver[net];
+        if (d < NO_DRIVER) {
+            Netlist.BuiltInPart part = netlist.getBuiltIns().get(-2 - d);
+            return netlist.getInstancePath(part.getOwner()) + " [" + part.getChip().getChipName() + "]";
+        }
+        return netlist.getInstancePath(owner(net));
+    }
+
+    private String describeStart(int net) {
+        if (net == Netlist.FALSE || net == Netlist.TRUE) {
+            return net == Netlist.TRUE ? "true" : "false";
+        }
+        if (netNames[net] != null) {
+            return netNames[net];
+        }
+        if (driver[net] < NO_DRIVER) {
+            Netlist.BuiltInPart part = netlist.getBuiltIns().get(-2 - driver[net]);
+            return part.getChip().getChipName() + " out " + netlist.getInstancePath(part.getOwner());
+        }
+        int[] dffOut = netlist.getDffOut();
+        for (int d = 0; d < netlist.getDffCount(); d++) {
+            if (dffOut[d] == net) {
+                return "DFF out " + netlist.getInstancePath(netlist.getDffOwner()[d]);
+            }
+        }
+        return "net " + net;
+    }
+
+    private static String change(int before, int after) {
+        return before == 0 ? "+0.0%" : String.format("%+.1f%%", 100.0 * (after - before) / before);
+    }
+
+    /**
+     * Prints the analysis of one or more chips as written, with the totals
+     * after {@link NetlistOptimizer optimisation}, followed by a comparison
+     * table when several are given (e.g. a ripple-carry and a carry-lookahead
+     * {@code Add16}).
+     *
+     * <p>Usage: {@code java NetlistAnalyzer [-behavioural <chips>] <chip.hdl>...}</p>
+     *
+     * @param args Command-line arguments
+     */
+    public static void main(String[] args) {
+        Set<String> behavioural = new HashSet<>();
+        List<File> chips = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-behavioural")) {
+                String names = args[++i];
+                behavioural.addAll(names.equals("all")
+                        ? NetlistCompiler.substitutableChips()
+                        : Arrays.asList(names.split(",")));
+            } else {
+                chips.add(new File(args[i]));
+            }
+        }
+        if (chips.isEmpty()) {
+            System.out.println("Usage: java NetlistAnalyzer [-behavioural <chips>] <chip.hdl>...");
+            return;
+        }
+
+        List<String> rows = new ArrayList<>();
+        for (File chip : chips) {
+            if (!chip.exists()) {
+                System.out.println("File not found: " + chip);
+                continue;
+            }
+            try {
+                String chipName = chip.getName().replace(".hdl", "");
+                NetlistCompiler compiler = new NetlistCompiler(ChipLibrary.forChip(chip), behavioural, false);
+                NetlistAnalyzer analyzer = new NetlistAnalyzer(compiler.compile(chipName));
+                compiler.setOptimize(true);
+                NetlistAnalyzer optimised = new NetlistAnalyzer(compiler.compile(chipName));
+                System.out.print(analyzer.report());
+                System.out.printf("Optimised: %d Nands (%s), %d DFFs (%s), critical path %d Nand delays (%s)%n%n",
+                        optimised.getNandCount(), change(analyzer.getNandCount(), optimised.getNandCount()),
+                        optimised.getDffCount(), change(analyzer.getDffCount(), optimised.getDffCount()),
+                        optimised.getCriticalDepth(), change(analyzer.getCriticalDepth(), optimised.getCriticalDepth()));
+                rows.add(String.format("%-40s %8d %7d %6d %10d %9d %9d", chip.getPath(), analyzer.getNandCount(),
+                        analyzer.getDffCount(), analyzer.getCriticalDepth(), optimised.getNandCount(),
+                        optimised.getDffCount(), optimised.getCriticalDepth()));
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                System.err.println("Error: " + chip + ": " + e.getMessage());
+            }
+        }
+        if (rows.size() > 1) {
+            System.out.printf("%-40s %8s %7s %6s %10s %9s %9s%n", "chip", "Nands", "DFFs", "depth",
+                    "opt Nands", "opt DFFs", "opt depth");
+            rows.forEach(System.out::println);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * A persistent store of flattened, levelised netlists.
+ *
+ * <p>Entries are files named after a key computed by the
+ * {@link NetlistCompiler}: a hash of the chip's HDL source, the compiler
+ * options that affect it and the keys of all its parts. Changing any chip
+ * therefore changes the key of every chip that contains it, directly or
+ * not, and the stale entries are simply never looked up again.</p>
+ *
+ * <p>To compute a key without parsing the HDL, the cache also remembers
+ * the part names of every HDL source it has seen, by the hash of the
+ * source text.</p>
+ *
+ * <p>Entries are written to a temporary file and renamed into place, so
+ * several compilers (e.g. the test runner's threads) can share a cache.
+ * A missing, truncated or outdated entry is treated as a miss.</p>
+ */
+public class NetlistCache {
+    private static final int MAGIC = 0x48444C4E;
+
+    /**
+     * The version of the compiler output. Bump it whenever the compiler or
+     * the netlist format changes, so existing entries are ignored.
+     */
+    public static final int VERSION = 1;
+
+    private final File directory;
+    private int hits;
+    private int misses;
+
+    /**
+     * @param directory where the entries are stored; created on first store
+     */
+    public NetlistCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Creates the default cache of a library: a {@code .hdlcache} directory
+     * in the last (outermost) directory of its search path.
+     *
+     * @param library the chip library
+     * @return the cache
+     */
+    public static NetlistCache forLibrary(ChipLibrary library) {
+        List<File> searchPath = library.getSearchPath();
+        File root = searchPath.isEmpty() ? new File(".") : searchPath.get(searchPath.size() - 1);
+        return new NetlistCache(new File(root, ".hdlcache"));
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Looks up a netlist.
+     *
+     * @param key the key of the chip
+     * @return the netlist, or {@code null} if there is no usable entry
+     */
+    public Netlist load(String key) {
+        File file = new File(directory, key + ".net");
+        Netlist netlist = null;
+        if (file.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                    netlist = Netlist.read(in);
+                }
+            } catch (IOException | RuntimeException e) {
+                netlist = null;
+            }
+        }
+        synchronized (this) {
+            if (netlist == null) {
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+        return netlist;
+    }
+
+    /**
+     * Stores a netlist, levelising it first.
+     *
+     * @param key     the key of the chip
+     * @param netlist the compiled netlist
+     * @return {@code false} if the entry could not be written
+     */
+    public boolean store(String key, Netlist netlist) {
+        File temp = null;
+        try {
+            Files.createDirectories(directory.toPath());
+            temp = File.createTempFile(key, ".tmp", directory);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                netlist.write(out);
+            }
+            Files.move(temp.toPath(), new File(directory, key + ".net").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            if (temp != null) {
+                temp.delete();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Looks up the part names of an HDL source.
+     *
+     * @param sourceHash the {@link #hash(byte[]) hash} of the source text
+     * @return the chip names of the parts in statement order, or {@code null} if unknown
+     */
+    public List<String> loadParts(String sourceHash) {
+        File file = new File(directory, sourceHash + ".parts");
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Remembers the part names of an HDL source.
+     *
+     * @param sourceHash the {@link #hash(byte[]) hash} of the source text
+     * @param parts      the chip names of the parts in statement order
+     * @return {@code false} if the entry could not be written
+     */
+    public boolean storeParts(String sourceHash, List<String> parts) {
+        File temp = null;
+        try {
+            Files.createDirectories(directory.toPath());
+            temp = File.createTempFile(sourceHash, ".tmp", directory);
+            Files.write(temp.toPath(), parts, StandardCharsets.UTF_8);
+            Files.move(temp.toPath(), new File(directory, sourceHash + ".parts").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            if (temp != null) {
+                temp.delete();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Hashes data into a 128-bit key: an FNV-1a hash and a multiplicative
+     * hash of the bytes, each passed through a 64-bit finaliser. This is not
+     * a cryptographic hash, but it is fast to start, unlike a
+     * {@link java.security.MessageDigest}, and ample for telling sources apart.
+     *
+     * @param data the bytes to hash
+     * @return 32 hex digits
+     */
+    public static String hash(byte[] data) {
+        long fnv = 0xCBF29CE484222325L;
+        long product = data.length;
+        for (byte b : data) {
+            fnv = (fnv ^ (b & 0xFF)) * 0x100000001B3L;
+            product = (product + (b & 0xFF)) * 0x9E3779B97F4A7C15L;
+        }
+        return hex(mix(fnv)) + hex(mix(product));
+    }
+
+    private static String hex(long value) {
+        String digits = Long.toHexString(value);
+        return "0".repeat(16 - digits.length()) + digits;
+    }
+
+    private static long mix(long h) {
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Deletes every entry.
+     */
+    public void clear() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(".net") || name.endsWith(".parts") || name.endsWith(".tmp")) {
+                    file.delete();
+                }
+            }
+        }
+    }
+}
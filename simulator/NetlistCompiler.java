@@ -0,0 +1,525 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Flattens an HDL chip hierarchy into a {@link Netlist} of Nand gates, DFFs
+ * and behavioural built-in parts.
+ *
+ * <p>Each chip is compiled once: its parts are compiled first (recursively),
+ * copied into the chip's netlist, and then the pins of every part are joined
+ * to the wires they are connected to. Joining is done with a union-find over
+ * net ids, so wires never cost a gate.</p>
+ *
+ * <p>Chips named in the {@code behavioural} set are replaced by their
+ * {@link BuiltInChip#isSubstitute() substitute} models. In cross-check mode
+ * they keep their gates instead, and the model is added next to them as a
+ * {@link Netlist.ShadowCheck} so the simulator can compare the two.</p>
+ *
+ * <p>With a {@link NetlistCache}, every chip compiled from HDL is looked up
+ * by a key covering its source and, recursively, its parts' keys before
+ * it is flattened, and stored after.</p>
+ */
+public class NetlistCompiler {
+    private final ChipLibrary library;
+    private final Set<String> behavioural;
+    private final boolean crossCheck;
+    private final Map<String, Netlist> compiled = new HashMap<>();
+    private final Map<String, Netlist> checked = new HashMap<>();
+    private final Set<String> inProgress = new HashSet<>();
+    private final Map<String, String> keys = new HashMap<>();
+    private final Set<String> hashing = new HashSet<>();
+    private NetlistCache cache;
+    private boolean optimize;
+
+    public NetlistCompiler(ChipLibrary library) {
+        this(library, Set.of(), false);
+    }
+
+    /**
+     * @param library     where to find the HDL
+     * @param behavioural the chips to simulate with behavioural models, e.g. {@code RAM16K} and {@code PC}
+     * @param crossCheck  keep the gates of those chips and check the models against them
+     * @throws IllegalArgumentException if a chip in {@code behavioural} has no behavioural model
+     */
+    public NetlistCompiler(ChipLibrary library, Set<String> behavioural, boolean crossCheck) {
+        for (String chipName : behavioural) {
+            BuiltInChip builtIn = BuiltInChip.forName(chipName);
+            if (builtIn == null || !builtIn.isSubstitute()) {
+                throw new IllegalArgumentException("No behavioural model for " + chipName);
+            }
+        }
+        this.library = library;
+        this.behavioural = Set.copyOf(behavioural);
+        this.crossCheck = crossCheck;
+    }
+
+    /**
+     * @return the names of all chips that have a behavioural substitute
+     */
+    public static Set<String> substitutableChips() {
+        Set<String> names = new HashSet<>();
+        for (BuiltInChip chip : BuiltInChip.values()) {
+            if (chip.isSubstitute()) {
+                names.add(chip.getChipName());
+            }
+        }
+        return names;
+    }
+
+    public ChipLibrary getLibrary() {
+        return library;
+    }
+
+    public NetlistCache getCache() {
+        return cache;
+    }
+
+    public boolean isOptimize() {
+        return optimize;
+    }
+
+    /**
+     * Selects whether every chip compiled from HDL is simplified by the
+     * {@link NetlistOptimizer} before it is used as a part or returned.
+     *
+     * @param optimize {@code true} to optimise
+     */
+    public void setOptimize(boolean optimize) {
+        if (optimize != this.optimize) {
+            compiled.clear();
+            checked.clear();
+            keys.clear();
+        }
+        this.optimize = optimize;
+    }
+
+    /**
+     * Sets the persistent cache to load compiled chips from and store them in.
+     *
+     * @param cache the cache, or {@code null} to always compile
+     */
+    public void setCache(NetlistCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the flattened netlist of a chip. Results are cached by the
+     * compiler and shared between callers, so callers must not modify them.
+     *
+     * @param chipName the chip name
+     * @return the netlist
+     * @throws IllegalArgumentException if the HDL is invalid
+     */
+    public Netlist compile(String chipName) {
+        if (!crossCheck || !behavioural.contains(chipName)) {
+            return compileChip(chipName);
+        }
+        // The chip itself is cross-checked: wrap it so the model has a parent to sit in
+        Netlist netlist = checked.get(chipName);
+        if (netlist == null) {
+            Netlist gates = compileChip(chipName);
+            netlist = new Netlist(chipName);
+            int instance = netlist.getInstanceCount();
+            int base = netlist.instantiate(gates, 0, 0);
+            copyPins(gates.getInputs(), netlist.getInputs(), base);
+            copyPins(gates.getOutputs(), netlist.getOutputs(), base);
+            copyPins(gates.getWires(), netlist.getWires(), base);
+            Joins joins = new Joins();
+            addShadow(netlist, gates, base, instance, 0, joins);
+            join(netlist, joins);
+            checked.put(chipName, netlist);
+        }
+        return netlist;
+    }
+
+    private Netlist compileChip(String chipName) {
+        Netlist netlist = compiled.get(chipName);
+        if (netlist != null) {
+            return netlist;
+        }
+        if (!inProgress.add(chipName)) {
+            throw new IllegalArgumentException("Chip " + chipName + " contains itself");
+        }
+        try {
+            BuiltInChip builtIn = BuiltInChip.forName(chipName);
+            if (useBuiltIn(chipName)) {
+                netlist = compileBuiltIn(builtIn);
+            } else if (cache == null) {
+                netlist = compileDefinition(library.getDefinition(chipName));
+            } else {
+                String key = key(chipName);
+                netlist = cache.load(key);
+                if (netlist == null) {
+                    netlist = compileDefinition(library.getDefinition(chipName));
+                    cache.store(key, netlist);
+                }
+            }
+        } finally {
+            inProgress.remove(chipName);
+        }
+        compiled.put(chipName, netlist);
+        return netlist;
+    }
+
+    private boolean useBuiltIn(String chipName) {
+        BuiltInChip builtIn = BuiltInChip.forName(chipName);
+        return builtIn != null && (builtIn.isPrimitive() || library.find(chipName) == null
+                || (behavioural.contains(chipName) && !crossCheck));
+    }
+
+    /**
+     * Computes the cache key of a chip: a {@link NetlistCache#hash(byte[]) hash}
+     * of the cache version, whether chips are optimised, the chip's HDL
+     * source and, for every part, the part's key and whether it is
+     * cross-checked. Built-in chips hash their name only. The part names come
+     * from the cache when it has seen the same source before, so unchanged HDL
+     * is not parsed.
+     *
+     * @param chipName the chip name
+     * @return the key
+     * @throws IllegalArgumentException if the chip cannot be found or contains itself
+     */
+    public String key(String chipName) {
+        String key = keys.get(chipName);
+        if (key != null) {
+            return key;
+        }
+        if (!hashing.add(chipName)) {
+            throw new IllegalArgumentException("Chip " + chipName + " contains itself");
+        }
+        try {
+            StringBuilder text = new StringBuilder("netlist " + NetlistCache.VERSION + " " + chipName
+                    + (optimize ? " optimised" : ""));
+            if (useBuiltIn(chipName)) {
+                text.append(" built-in");
+            } else {
+                File source = library.find(chipName);
+                if (source == null) {
+                    throw new IllegalArgumentException("Chip " + chipName + " not found in " + library.getSearchPath());
+                }
+                String sourceHash = NetlistCache.hash(Files.readAllBytes(source.toPath()));
+                text.append(' ').append(sourceHash);
+                List<String> parts = cache == null ? null : cache.loadParts(sourceHash);
+                if (parts == null) {
+                    parts = new ArrayList<>();
+                    for (ChipDefinition.Part part : library.getDefinition(chipName).getParts()) {
+                        parts.add(part.getChipName());
+                    }
+                    if (cache != null) {
+                        cache.storeParts(sourceHash, parts);
+                    }
+                }
+                for (String partName : parts) {
+                    boolean shadowed = crossCheck && behavioural.contains(partName);
+                    text.append('\n').append(partName).append(' ').append(key(partName))
+                            .append(shadowed ? " shadowed" : "");
+                }
+            }
+            key = NetlistCache.hash(text.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading " + library.find(chipName), e);
+        } finally {
+            hashing.remove(chipName);
+        }
+        keys.put(chipName, key);
+        return key;
+    }
+
+    /**
+     * Returns the pin interface of a chip without compiling it.
+     *
+     * @param chipName the chip name
+     * @return the definition holding the chip's pins
+     */
+    public ChipDefinition getInterface(String chipName) {
+        if (useBuiltIn(chipName)) {
+            return BuiltInChip.forName(chipName).getDefinition();
+        }
+        return library.getDefinition(chipName);
+    }
+
+    private Netlist compileBuiltIn(BuiltInChip chip) {
+        Netlist netlist = new Netlist(chip.getChipName());
+        List<int[]> pins = new ArrayList<>();
+        for (Map.Entry<String, Integer> pin : chip.getDefinition().getInputs().entrySet()) {
+            int[] nets = netlist.newBus(pin.getValue());
+            netlist.getInputs().put(pin.getKey(), nets);
+            pins.add(nets);
+        }
+        for (Map.Entry<String, Integer> pin : chip.getDefinition().getOutputs().entrySet()) {
+            int[] nets = netlist.newBus(pin.getValue());
+            netlist.getOutputs().put(pin.getKey(), nets);
+            pins.add(nets);
+        }
+        switch (chip) {
+            case NAND -> netlist.addGate(pins.get(0)[0], pins.get(1)[0], pins.get(2)[0], 0);
+            case DFF -> netlist.addDff(pins.get(0)[0], pins.get(1)[0], 0);
+            default -> netlist.addBuiltIn(new Netlist.BuiltInPart(chip, pins.toArray(new int[0][]), 0));
+        }
+        return netlist;
+    }
+
+    private Netlist compileDefinition(ChipDefinition chip) {
+        Netlist netlist = new Netlist(chip.getName());
+        Map<String, int[]> wires = netlist.getWires();
+        for (Map.Entry<String, Integer> pin : chip.getInputs().entrySet()) {
+            int[] nets = netlist.newBus(pin.getValue());
+            netlist.getInputs().put(pin.getKey(), nets);
+            wires.put(pin.getKey(), nets.clone());
+        }
+        for (Map.Entry<String, Integer> pin : chip.getOutputs().entrySet()) {
+            int[] nets = netlist.newBus(pin.getValue());
+            netlist.getOutputs().put(pin.getKey(), nets);
+            wires.put(pin.getKey(), nets.clone());
+        }
+
+        Joins joins = new Joins();
+        List<ChipDefinition.Part> parts = chip.getParts();
+        for (int p = 0; p < parts.size(); p++) {
+            ChipDefinition.Part part = parts.get(p);
+            Netlist sub = compileChip(part.getChipName());
+            int instance = netlist.getInstanceCount();
+            int base = netlist.instantiate(sub, p, 0);
+            boolean[] connected = new boolean[sub.getNetCount()];
+
+            for (ChipDefinition.Connection connection : part.getConnections()) {
+                int[] pinNets = sub.getInputs().get(connection.getPin());
+                if (pinNets == null) {
+                    pinNets = sub.getOutputs().get(connection.getPin());
+                }
+                if (pinNets == null) {
+                    throw error(chip, part, part.getChipName() + " has no pin " + connection.getPin());
+                }
+                pinNets = slice(chip, part, connection.getPin(), pinNets,
+                        connection.getPinLo(), connection.getPinHi());
+
+                int[] wireNets;
+                if (connection.isConstant()) {
+                    wireNets = new int[pinNets.length];
+                    Arrays.fill(wireNets, connection.getConstantValue() ? Netlist.TRUE : Netlist.FALSE);
+                } else {
+                    wireNets = wires.get(connection.getWire());
+                    if (wireNets == null) {
+                        if (connection.getWireLo() >= 0) {
+                            throw error(chip, part, "Sub bus of an internal node may not be used: "
+                                    + connection.getWire());
+                        }
+                        wireNets = netlist.newBus(pinNets.length);
+                        wires.put(connection.getWire(), wireNets);
+                    }
+                    wireNets = slice(chip, part, connection.getWire(), wireNets,
+                            connection.getWireLo(), connection.getWireHi());
+                }
+                if (wireNets.length != pinNets.length) {
+                    throw error(chip, part, "Width of " + connection.getPin() + " (" + pinNets.length
+                            + ") does not match " + (connection.isConstant() ? "constant" : connection.getWire())
+                            + " (" + wireNets.length + ")");
+                }
+
+                for (int i = 0; i < pinNets.length; i++) {
+                    joins.add(Netlist.map(pinNets[i], base), wireNets[i]);
+                    connected[pinNets[i]] = true;
+                }
+            }
+            // Unconnected input pins read false
+            for (int[] pinNets : sub.getInputs().values()) {
+                for (int net : pinNets) {
+                    if (!connected[net]) {
+                        joins.add(Netlist.map(net, base), Netlist.FALSE);
+                    }
+                }
+            }
+
+            if (crossCheck && behavioural.contains(part.getChipName())) {
+                addShadow(netlist, sub, base, instance, p, joins);
+            }
+        }
+
+        join(netlist, joins);
+        checkDrivers(chip, netlist);
+        return optimize ? new NetlistOptimizer(netlist).optimize() : netlist;
+    }
+
+    /**
+     * Adds the behavioural model of a gate-level part that has just been
+     * instantiated, feeding it from the part's input nets and recording its
+     * outputs as a shadow of the part's outputs.
+     *
+     * @param netlist  the netlist being built
+     * @param gates    the gate-level netlist of the part
+     * @param base     the net offset the part was instantiated at
+     * @param instance the instance id of the part
+     * @param part     the index of the part statement
+     * @param joins    receives the input connections
+     */
+    private void addShadow(Netlist netlist, Netlist gates, int base, int instance, int part, Joins joins) {
+        BuiltInChip chip = BuiltInChip.forName(gates.getChipName());
+        Netlist model = compileBuiltIn(chip);
+        int modelBase = netlist.instantiate(model, part, 0);
+        for (Map.Entry<String, int[]> pin : model.getInputs().entrySet()) {
+            int[] gateNets = matchingPin(gates.getInputs(), pin, chip);
+            for (int i = 0; i < gateNets.length; i++) {
+                joins.add(Netlist.map(pin.getValue()[i], modelBase), Netlist.map(gateNets[i], base));
+            }
+        }
+        for (Map.Entry<String, int[]> pin : model.getOutputs().entrySet()) {
+            int[] gateNets = matchingPin(gates.getOutputs(), pin, chip);
+            int[] modelNets = new int[gateNets.length];
+            int[] mappedGateNets = new int[gateNets.length];
+            for (int i = 0; i < gateNets.length; i++) {
+                modelNets[i] = Netlist.map(pin.getValue()[i], modelBase);
+                mappedGateNets[i] = Netlist.map(gateNets[i], base);
+            }
+            netlist.addShadowCheck(new Netlist.ShadowCheck(chip, modelNets, mappedGateNets, instance));
+        }
+    }
+
+    private static int[] matchingPin(Map<String, int[]> pins, Map.Entry<String, int[]> modelPin, BuiltInChip chip) {
+        int[] nets = pins.get(modelPin.getKey());
+        if (nets == null || nets.length != modelPin.getValue().length) {
+            throw new IllegalArgumentException("The HDL of " + chip.getChipName()
+                    + " does not match its behavioural model at pin " + modelPin.getKey());
+        }
+        return nets;
+    }
+
+    private static void copyPins(Map<String, int[]> from, Map<String, int[]> to, int base) {
+        for (Map.Entry<String, int[]> pin : from.entrySet()) {
+            int[] nets = new int[pin.getValue().length];
+            for (int i = 0; i < nets.length; i++) {
+                nets[i] = Netlist.map(pin.getValue()[i], base);
+            }
+            to.put(pin.getKey(), nets);
+        }
+    }
+
+    /**
+     * A growable list of net pairs that must become the same net.
+     */
+    private static class Joins {
+        private int[] pairs = new int[64];
+        private int count;
+
+        void add(int a, int b) {
+            if (count + 2 > pairs.length) {
+                pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            }
+            pairs[count++] = a;
+            pairs[count++] = b;
+        }
+    }
+
+    /**
+     * Merges each pair in {@code joins} and renumbers the netlist so
+     * that the surviving nets are numbered densely. A constant always survives
+     * a merge, so a pin tied to {@code true} simply becomes net {@link Netlist#TRUE}.
+     */
+    private static void join(Netlist netlist, Joins joins) {
+        int[] parent = new int[netlist.getNetCount()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < joins.count; i += 2) {
+            int a = find(parent, joins.pairs[i]);
+            int b = find(parent, joins.pairs[i + 1]);
+            if (a < b) {
+                parent[b] = a;
+            } else if (b < a) {
+                parent[a] = b;
+            }
+        }
+        int[] map = new int[parent.length];
+        int next = 0;
+        for (int i = 0; i < parent.length; i++) {
+            int root = find(parent, i);
+            map[i] = root == i ? next++ : map[root];
+        }
+        netlist.renumber(map, next);
+    }
+
+    private static int find(int[] parent, int net) {
+        while (parent[net] != net) {
+            parent[net] = parent[parent[net]];
+            net = parent[net];
+        }
+        return net;
+    }
+
+    /**
+     * Verifies that no net is driven twice, e.g. by two part outputs, by a part
+     * output and a constant, or by a part output and one of the chip's inputs.
+     */
+    private static void checkDrivers(ChipDefinition chip, Netlist netlist) {
+        boolean[] driven = new boolean[netlist.getNetCount()];
+        driven[Netlist.FALSE] = true;
+        driven[Netlist.TRUE] = true;
+        for (int[] nets : netlist.getInputs().values()) {
+            for (int net : nets) {
+                driven[net] = true;
+            }
+        }
+        int[] gateOut = netlist.getGateOut();
+        for (int g = 0; g < netlist.getGateCount(); g++) {
+            drive(chip, netlist, driven, gateOut[g]);
+        }
+        int[] dffOut = netlist.getDffOut();
+        for (int d = 0; d < netlist.getDffCount(); d++) {
+            drive(chip, netlist, driven, dffOut[d]);
+        }
+        for (Netlist.BuiltInPart part : netlist.getBuiltIns()) {
+            int[][] pins = part.getPins();
+            for (int p = part.getChip().getDefinition().getInputs().size(); p < pins.length; p++) {
+                for (int net : pins[p]) {
+                    drive(chip, netlist, driven, net);
+                }
+            }
+        }
+    }
+
+    private static void drive(ChipDefinition chip, Netlist netlist, boolean[] driven, int net) {
+        if (driven[net]) {
+            String name = "an internal net";
+            if (net == Netlist.FALSE || net == Netlist.TRUE) {
+                name = "a constant";
+            }
+            for (Map.Entry<String, int[]> wire : netlist.getWires().entrySet()) {
+                for (int bit : wire.getValue()) {
+                    if (bit == net) {
+                        name = wire.getKey();
+                    }
+                }
+            }
+            throw new IllegalArgumentException(sourceName(chip) + ": " + name + " has more than one driver");
+        }
+        driven[net] = true;
+    }
+
+    private static int[] slice(ChipDefinition chip, ChipDefinition.Part part, String name, int[] nets, int lo, int hi) {
+        if (lo < 0) {
+            return nets;
+        }
+        if (hi >= nets.length) {
+            throw error(chip, part, "Sub bus " + name + "[" + lo + ".." + hi + "] is out of range (width "
+                    + nets.length + ")");
+        }
+        return Arrays.copyOfRange(nets, lo, hi + 1);
+    }
+
+    private static IllegalArgumentException error(ChipDefinition chip, ChipDefinition.Part part, String message) {
+        return new IllegalArgumentException(sourceName(chip) + ":" + part.getLine() + ": " + message);
+    }
+
+    private static String sourceName(ChipDefinition chip) {
+        return chip.getSource() == null ? chip.getName() : chip.getSource().getName();
+    }
+}
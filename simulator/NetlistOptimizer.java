@@ -0,0 +1,338 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simplifies a flattened netlist without changing its behaviour at the
+ * pins, its DFFs' or its built-in parts' inputs.
+ *
+ * <p>One pass over the levelised gates rewrites each Nand in terms of the
+ * surviving nets of its inputs:</p>
+ * <ul>
+ *     <li>constants are folded: {@code Nand(false, x) = true},
+ *     {@code Nand(true, true) = false}, and {@code Nand(x, !x) = true};</li>
+ *     <li>a Nand of a net with {@code true} or itself is a Not, and the Not of
+ *     a Not is replaced by the original net, which removes buffer-like
+ *     chains such as {@code Or(a, false)} (three Nands) or {@code Not(Not(x))};</li>
+ *     <li>a gate with the same inputs as an earlier gate is replaced by it.</li>
+ * </ul>
+ * <p>A backward pass from the observable nets (output pins, wires of the
+ * chip itself, built-in part inputs and cross-check nets) then drops every
+ * gate and DFF that none of them depends on.</p>
+ *
+ * <p>The optimised netlist is a new object with densely renumbered nets; the
+ * chip instance tree is kept, so costs can still be attributed to parts.</p>
+ */
+public class NetlistOptimizer {
+    private final Netlist netlist;
+    private int folded;
+    private int collapsed;
+    private int shared;
+    private int deadGates;
+    private int deadDffs;
+
+    /**
+     * @param netlist the netlist to optimise; it is levelised but not otherwise modified
+     */
+    public NetlistOptimizer(Netlist netlist) {
+        this.netlist = netlist;
+    }
+
+    /**
+     * @return the number of gates replaced by a constant
+     */
+    public int getFolded() {
+        return folded;
+    }
+
+    /**
+     * @return the number of gates replaced by one of their inputs (double negations)
+     */
+    public int getCollapsed() {
+        return collapsed;
+    }
+
+    /**
+     * @return the number of gates replaced by an identical earlier gate
+     */
+    public int getShared() {
+        return shared;
+    }
+
+    /**
+     * @return the number of gates removed because nothing observes them
+     */
+    public int getDeadGates() {
+        return deadGates;
+    }
+
+    /**
+     * @return the number of DFFs removed because nothing observes them
+     */
+    public int getDeadDffs() {
+        return deadDffs;
+    }
+
+    /**
+     * Optimises the netlist.
+     *
+     * @return a new, optimised netlist
+     */
+    public Netlist optimize() {
+        netlist.levelise();
+        int nets = netlist.getNetCount();
+        int gates = netlist.getGateCount();
+        int[] gateA = netlist.getGateA();
+        int[] gateB = netlist.getGateB();
+        int[] gateOut = netlist.getGateOut();
+
+        // Surviving net of every net, and for Not gates the net they invert
+        int[] alias = new int[nets];
+        int[] notOf = new int[nets];
+        for (int n = 0; n < nets; n++) {
+            alias[n] = n;
+        }
+        Arrays.fill(notOf, -1);
+        boolean[] kept = new boolean[gates];
+        int[] keptA = new int[gates];
+        int[] keptB = new int[gates];
+        GateTable table = new GateTable(gates);
+
+        for (int g = 0; g < gates; g++) {
+            int a = alias[gateA[g]];
+            int b = alias[gateB[g]];
+            if (a > b) {
+                int t = a;
+                a = b;
+                b = t;
+            }
+            int out = gateOut[g];
+            // The constants are nets 0 and 1, so after sorting a holds any constant
+            if (a == Netlist.FALSE || (a == Netlist.TRUE && b == Netlist.TRUE)
+                    || notOf[a] == b || notOf[b] == a) {
+                alias[out] = a == Netlist.TRUE ? Netlist.FALSE : Netlist.TRUE;
+                folded++;
+                continue;
+            }
+            if (a == Netlist.TRUE) {
+                a = b;
+            }
+            if (a == b && notOf[a] >= 0) {
+                alias[out] = notOf[a];
+                collapsed++;
+                continue;
+            }
+            int existing = table.putIfAbsent(a, b, out);
+            if (existing >= 0) {
+                alias[out] = existing;
+                shared++;
+                continue;
+            }
+            kept[g] = true;
+            keptA[g] = a;
+            keptB[g] = b;
+            if (a == b) {
+                notOf[out] = a;
+            }
+        }
+
+        boolean[] liveNet = new boolean[nets];
+        boolean[] liveDff = markLive(alias, kept, keptA, keptB, liveNet);
+        return build(alias, kept, keptA, keptB, liveNet, liveDff);
+    }
+
+    /**
+     * Marks every net the observable nets depend on, through kept gates and DFFs.
+     *
+     * @return which DFFs are live
+     */
+    private boolean[] markLive(int[] alias, boolean[] kept, int[] keptA, int[] keptB, boolean[] liveNet) {
+        int nets = netlist.getNetCount();
+        int[] gateDriver = new int[nets];
+        int[] dffDriver = new int[nets];
+        Arrays.fill(gateDriver, -1);
+        Arrays.fill(dffDriver, -1);
+        int[] gateOut = netlist.getGateOut();
+        for (int g = 0; g < netlist.getGateCount(); g++) {
+            if (kept[g]) {
+                gateDriver[gateOut[g]] = g;
+            }
+        }
+        int[] dffIn = netlist.getDffIn();
+        int[] dffOut = netlist.getDffOut();
+        for (int d = 0; d < netlist.getDffCount(); d++) {
+            dffDriver[dffOut[d]] = d;
+        }
+
+        int[] stack = new int[nets];
+        int top = 0;
+        for (Map<String, int[]> pins : List.of(netlist.getOutputs(), netlist.getWires())) {
+            for (int[] pinNets : pins.values()) {
+                for (int net : pinNets) {
+                    top = push(alias[net], liveNet, stack, top);
+                }
+            }
+        }
+        for (Netlist.BuiltInPart part : netlist.getBuiltIns()) {
+            int inputs = part.getChip().getDefinition().getInputs().size();
+            for (int p = 0; p < inputs; p++) {
+                for (int net : part.getPins()[p]) {
+                    top = push(alias[net], liveNet, stack, top);
+                }
+            }
+        }
+        for (Netlist.ShadowCheck check : netlist.getShadowChecks()) {
+            for (int net : check.getGateNets()) {
+                top = push(alias[net], liveNet, stack, top);
+            }
+        }
+
+        boolean[] liveDff = new boolean[netlist.getDffCount()];
+        while (top > 0) {
+            int net = stack[--top];
+            int g = gateDriver[net];
+            if (g >= 0) {
+                top = push(keptA[g], liveNet, stack, top);
+                top = push(keptB[g], liveNet, stack, top);
+            }
+            int d = dffDriver[net];
+            if (d >= 0) {
+                liveDff[d] = true;
+                top = push(alias[dffIn[d]], liveNet, stack, top);
+            }
+        }
+        return liveDff;
+    }
+
+    private static int push(int net, boolean[] liveNet, int[] stack, int top) {
+        if (!liveNet[net]) {
+            liveNet[net] = true;
+            stack[top++] = net;
+        }
+        return top;
+    }
+
+    /**
+     * Copies the surviving gates, DFFs, built-ins and pins into a new netlist.
+     */
+    private Netlist build(int[] alias, boolean[] kept, int[] keptA, int[] keptB, boolean[] liveNet, boolean[] liveDff) {
+        Netlist result = new Netlist(netlist.getChipName());
+        for (int i = 1; i < netlist.getInstanceCount(); i++) {
+            result.addInstance(netlist.getInstanceChip(i), netlist.getInstancePart(i), netlist.getInstanceParent(i));
+        }
+        int[] ids = new int[netlist.getNetCount()];
+        Arrays.fill(ids, -1);
+        ids[Netlist.FALSE] = Netlist.FALSE;
+        ids[Netlist.TRUE] = Netlist.TRUE;
+
+        for (Map.Entry<String, int[]> pin : netlist.getInputs().entrySet()) {
+            result.getInputs().put(pin.getKey(), renumber(pin.getValue(), alias, ids, result));
+        }
+        int[] gateOut = netlist.getGateOut();
+        int[] gateOwner = netlist.getGateOwner();
+        for (int g = 0; g < netlist.getGateCount(); g++) {
+            if (!kept[g]) {
+                continue;
+            }
+            if (!liveNet[gateOut[g]]) {
+                deadGates++;
+                continue;
+            }
+            result.addGate(id(keptA[g], ids, result), id(keptB[g], ids, result), id(gateOut[g], ids, result),
+                    gateOwner[g]);
+        }
+        int[] dffIn = netlist.getDffIn();
+        int[] dffOut = netlist.getDffOut();
+        int[] dffOwner = netlist.getDffOwner();
+        for (int d = 0; d < netlist.getDffCount(); d++) {
+            if (!liveDff[d]) {
+                deadDffs++;
+                continue;
+            }
+            result.addDff(id(alias[dffIn[d]], ids, result), id(dffOut[d], ids, result), dffOwner[d]);
+        }
+        for (Netlist.BuiltInPart part : netlist.getBuiltIns()) {
+            int[][] pins = new int[part.getPins().length][];
+            for (int p = 0; p < pins.length; p++) {
+                pins[p] = renumber(part.getPins()[p], alias, ids, result);
+            }
+            result.addBuiltIn(new Netlist.BuiltInPart(part.getChip(), pins, part.getOwner()));
+        }
+        for (Netlist.ShadowCheck check : netlist.getShadowChecks()) {
+            result.addShadowCheck(new Netlist.ShadowCheck(check.getChip(),
+                    renumber(check.getModelNets(), alias, ids, result),
+                    renumber(check.getGateNets(), alias, ids, result), check.getOwner()));
+        }
+        copyPins(netlist.getOutputs(), result.getOutputs(), alias, ids, result);
+        copyPins(netlist.getWires(), result.getWires(), alias, ids, result);
+        return result;
+    }
+
+    private static void copyPins(LinkedHashMap<String, int[]> from, LinkedHashMap<String, int[]> to, int[] alias,
+                                 int[] ids, Netlist result) {
+        for (Map.Entry<String, int[]> pin : from.entrySet()) {
+            to.put(pin.getKey(), renumber(pin.getValue(), alias, ids, result));
+        }
+    }
+
+    private static int[] renumber(int[] nets, int[] alias, int[] ids, Netlist result) {
+        int[] renumbered = new int[nets.length];
+        for (int i = 0; i < nets.length; i++) {
+            renumbered[i] = id(alias[nets[i]], ids, result);
+        }
+        return renumbered;
+    }
+
+    private static int id(int net, int[] ids, Netlist result) {
+        if (ids[net] < 0) {
+            ids[net] = result.newNet();
+        }
+        return ids[net];
+    }
+
+    /**
+     * Formats the counts of the last {@link #optimize()}.
+     *
+     * @return a one-line summary
+     */
+    public String summary() {
+        return String.format("%d folded, %d collapsed, %d shared, %d dead Nands, %d dead DFFs",
+                folded, collapsed, shared, deadGates, deadDffs);
+    }
+
+    /**
+     * An open-addressing hash table from a gate's input pair to its output net.
+     */
+    private static class GateTable {
+        private final long[] keys;
+        private final int[] values;
+        private final int mask;
+
+        GateTable(int gates) {
+            int capacity = Integer.highestOneBit(Math.max(16, gates * 2 - 1)) << 1;
+            keys = new long[capacity];
+            values = new int[capacity];
+            mask = capacity - 1;
+            Arrays.fill(keys, -1L);
+        }
+
+        /**
+         * @return the output of an earlier gate with the same inputs, or {@code -1} after recording this one
+         */
+        int putIfAbsent(int a, int b, int out) {
+            long key = ((long) a << 32) | b;
+            long h = key * 0x9E3779B97F4A7C15L;
+            int slot = (int) (h >>> 32) & mask;
+            while (keys[slot] != -1L) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = out;
+            return -1;
+        }
+    }
+}
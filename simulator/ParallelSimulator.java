@@ -0,0 +1,185 @@
+import java.util.Map;
+
+/**
+ * Bit-parallel gate-level simulator that runs 64 independent copies of a
+ * chip at once.
+ *
+ * <p>Every net holds a {@code long} whose bit {@code i} is the net's value in
+ * lane {@code i}, so each Nand gate becomes {@code ~(a & b)} across all 64
+ * test vectors. Buses are accessed either as per-lane values
+ * ({@link #setInput(String, long[])}) or directly as bit planes
+ * ({@link #setPlanes(String, long[])}), which avoids the transposition when
+ * the caller generates vectors plane by plane.</p>
+ *
+ * <p>Only Nand gates and DFFs are supported; chips that contain behavioural
+ * built-in parts must use {@link Simulator}.</p>
+ */
+public class ParallelSimulator {
+    public static final int LANES = 64;
+
+    private final Netlist netlist;
+    private final long[] values;
+
+    private final int gateCount;
+    private final int[] gateA;
+    private final int[] gateB;
+    private final int[] gateOut;
+
+    private final int[] dffIn;
+    private final int[] dffOut;
+    private final long[] dffNext;
+
+    /**
+     * @param netlist the flattened chip
+     * @throws IllegalArgumentException if the chip contains built-in parts
+     */
+    public ParallelSimulator(Netlist netlist) {
+        if (!netlist.getBuiltIns().isEmpty()) {
+            throw new IllegalArgumentException(netlist.getChipName() + " contains built-in chip "
+                    + netlist.getBuiltIns().get(0).getChip().getChipName()
+                    + ", which cannot be simulated bit-parallel");
+        }
+        netlist.levelise();
+        this.netlist = netlist;
+        this.values = new long[netlist.getNetCount()];
+        this.values[Netlist.TRUE] = -1L;
+
+        this.gateCount = netlist.getGateCount();
+        this.gateA = netlist.getGateA();
+        this.gateB = netlist.getGateB();
+        this.gateOut = netlist.getGateOut();
+
+        this.dffIn = netlist.getDffIn();
+        this.dffOut = netlist.getDffOut();
+        this.dffNext = new long[netlist.getDffCount()];
+        evaluate();
+    }
+
+    public Netlist getNetlist() {
+        return netlist;
+    }
+
+    /**
+     * Sets an input pin from its bit planes.
+     *
+     * @param pin    the input pin name
+     * @param planes {@code planes[b]} holds bit {@code b} of the pin for all 64 lanes
+     */
+    public void setPlanes(String pin, long[] planes) {
+        int[] nets = nets(netlist.getInputs(), pin);
+        for (int b = 0; b < nets.length; b++) {
+            values[nets[b]] = planes[b];
+        }
+    }
+
+    /**
+     * Reads a pin as bit planes.
+     *
+     * @param pin the pin or top-level wire name
+     * @return {@code planes[b]} holds bit {@code b} of the pin for all 64 lanes
+     */
+    public long[] getPlanes(String pin) {
+        int[] nets = netlist.getPin(pin);
+        if (nets == null) {
+            throw new IllegalArgumentException("No pin " + pin + " in " + netlist.getChipName());
+        }
+        long[] planes = new long[nets.length];
+        readPlanes(nets, planes);
+        return planes;
+    }
+
+    /**
+     * Reads a bus as bit planes into an existing array.
+     *
+     * @param nets   the nets of the bus, e.g. from {@link Netlist#getPin(String)}
+     * @param planes receives bit {@code b} of the bus for all 64 lanes in {@code planes[b]}
+     */
+    public void readPlanes(int[] nets, long[] planes) {
+        for (int b = 0; b < nets.length; b++) {
+            planes[b] = values[nets[b]];
+        }
+    }
+
+    /**
+     * Sets an input pin to a different value in every lane.
+     *
+     * @param pin   the input pin name
+     * @param lanes the value for each lane; lanes beyond the array length are set to 0
+     */
+    public void setInput(String pin, long[] lanes) {
+        int[] nets = nets(netlist.getInputs(), pin);
+        for (int b = 0; b < nets.length; b++) {
+            long plane = 0;
+            for (int lane = 0; lane < lanes.length && lane < LANES; lane++) {
+                plane |= ((lanes[lane] >>> b) & 1L) << lane;
+            }
+            values[nets[b]] = plane;
+        }
+    }
+
+    /**
+     * Reads a pin in every lane.
+     *
+     * @param pin the pin or top-level wire name
+     * @return the unsigned value of the pin in each of the 64 lanes
+     */
+    public long[] getPin(String pin) {
+        long[] planes = getPlanes(pin);
+        long[] lanes = new long[LANES];
+        for (int b = 0; b < planes.length; b++) {
+            for (int lane = 0; lane < LANES; lane++) {
+                lanes[lane] |= ((planes[b] >>> lane) & 1L) << b;
+            }
+        }
+        return lanes;
+    }
+
+    /**
+     * Recomputes every combinational net in all lanes.
+     */
+    public void evaluate() {
+        final long[] v = values;
+        final int[] a = gateA;
+        final int[] b = gateB;
+        final int[] out = gateOut;
+        for (int g = 0; g < gateCount; g++) {
+            v[out[g]] = ~(v[a[g]] & v[b[g]]);
+        }
+    }
+
+    /**
+     * Rising clock edge in all lanes.
+     */
+    public void tick() {
+        evaluate();
+        for (int d = 0; d < dffNext.length; d++) {
+            dffNext[d] = values[dffIn[d]];
+        }
+    }
+
+    /**
+     * Falling clock edge in all lanes.
+     */
+    public void tock() {
+        for (int d = 0; d < dffNext.length; d++) {
+            values[dffOut[d]] = dffNext[d];
+        }
+        evaluate();
+    }
+
+    /**
+     * Runs one full clock cycle in all lanes.
+     */
+    public void step() {
+        tick();
+        tock();
+    }
+
+    private int[] nets(Map<String, int[]> pins, String pin) {
+        int[] nets = pins.get(pin);
+        if (nets == null) {
+            throw new IllegalArgumentException("No input pin " + pin + " in " + netlist.getChipName());
+        }
+        return nets;
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * A bit-sliced Java model of a combinational chip, written directly from the
+ * chip's specification, that {@link ExhaustiveVerifier} checks the HDL against.
+ *
+ * <p>Pins are passed as bit planes: {@code in[p][b]} holds bit {@code b} of
+ * the {@code p}-th input pin for 64 independent test vectors, in the order
+ * given by {@link #getInputs()}.</p>
+ */
+public class ReferenceModel {
+
+    /**
+     * The bit-sliced chip function.
+     */
+    public interface Function {
+        void evaluate(long[][] in, long[][] out);
+    }
+
+    private final String chipName;
+    private final String[] inputs;
+    private final int[] inputWidths;
+    private final String[] outputs;
+    private final int[] outputWidths;
+    private final Function function;
+
+    public ReferenceModel(String chipName, String[] inputs, int[] inputWidths,
+                          String[] outputs, int[] outputWidths, Function function) {
+        this.chipName = chipName;
+        this.inputs = inputs;
+        this.inputWidths = inputWidths;
+        this.outputs = outputs;
+        this.outputWidths = outputWidths;
+        this.function = function;
+    }
+
+    public String getChipName() {
+        return chipName;
+    }
+
+    public String[] getInputs() {
+        return inputs;
+    }
+
+    public int[] getInputWidths() {
+        return inputWidths;
+    }
+
+    public String[] getOutputs() {
+        return outputs;
+    }
+
+    public int[] getOutputWidths() {
+        return outputWidths;
+    }
+
+    /**
+     * Evaluates the model for 64 vectors at once.
+     *
+     * @param in  the input planes, {@code in[pin][bit]}
+     * @param out the output planes to fill, {@code out[pin][bit]}
+     */
+    public void evaluate(long[][] in, long[][] out) {
+        function.evaluate(in, out);
+    }
+}
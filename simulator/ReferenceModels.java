@@ -0,0 +1,185 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reference models of the combinational chips of projects 1 and 2.
+ *
+ * <p>Each model is written from the chip's specification using plain
+ * bitwise operations on 64-lane bit planes, independently of the HDL, so a
+ * disagreement with the gate-level simulation points at the HDL.</p>
+ */
+public class ReferenceModels {
+    private static final Map<String, ReferenceModel> MODELS = new LinkedHashMap<>();
+
+    static {
+        String[] in = {"in"};
+        String[] ab = {"a", "b"};
+        String[] out = {"out"};
+        int[] one = {1};
+        int[] two = {1, 1};
+        int[] bus = {16};
+        int[] twoBuses = {16, 16};
+
+        add(new ReferenceModel("Nand", ab, two, out, one, (i, o) -> o[0][0] = ~(i[0][0] & i[1][0])));
+        add(new ReferenceModel("Not", in, one, out, one, (i, o) -> o[0][0] = ~i[0][0]));
+        add(new ReferenceModel("And", ab, two, out, one, (i, o) -> o[0][0] = i[0][0] & i[1][0]));
+        add(new ReferenceModel("Or", ab, two, out, one, (i, o) -> o[0][0] = i[0][0] | i[1][0]));
+        add(new ReferenceModel("Xor", ab, two, out, one, (i, o) -> o[0][0] = i[0][0] ^ i[1][0]));
+        add(new ReferenceModel("Mux", new String[]{"a", "b", "sel"}, new int[]{1, 1, 1}, out, one,
+                (i, o) -> o[0][0] = mux(i[0][0], i[1][0], i[2][0])));
+        add(new ReferenceModel("DMux", new String[]{"in", "sel"}, two, ab, two, (i, o) -> {
+            o[0][0] = i[0][0] & ~i[1][0];
+            o[1][0] = i[0][0] & i[1][0];
+        }));
+
+        add(new ReferenceModel("Not16", in, bus, out, bus, (i, o) -> {
+            for (int b = 0; b < 16; b++) {
+                o[0][b] = ~i[0][b];
+            }
+        }));
+        add(new ReferenceModel("And16", ab, twoBuses, out, bus, (i, o) -> {
+            for (int b = 0; b < 16; b++) {
+                o[0][b] = i[0][b] & i[1][b];
+            }
+        }));
+        add(new ReferenceModel("Or16", ab, twoBuses, out, bus, (i, o) -> {
+            for (int b = 0; b < 16; b++) {
+                o[0][b] = i[0][b] | i[1][b];
+            }
+        }));
+        add(new ReferenceModel("Mux16", new String[]{"a", "b", "sel"}, new int[]{16, 16, 1}, out, bus, (i, o) -> {
+            for (int b = 0; b < 16; b++) {
+                o[0][b] = mux(i[0][b], i[1][b], i[2][0]);
+            }
+        }));
+        add(new ReferenceModel("Or8Way", in, new int[]{8}, out, one, (i, o) -> {
+            long any = 0;
+            for (int b = 0; b < 8; b++) {
+                any |= i[0][b];
+            }
+            o[0][0] = any;
+        }));
+        add(new ReferenceModel("Mux4Way16", new String[]{"a", "b", "c", "d", "sel"}, new int[]{16, 16, 16, 16, 2},
+                out, bus, (i, o) -> {
+            for (int b = 0; b < 16; b++) {
+                o[0][b] = select(i, b, i[4], 4);
+            }
+        }));
+        add(new ReferenceModel("Mux8Way16", new String[]{"a", "b", "c", "d", "e", "f", "g", "h", "sel"},
+                new int[]{16, 16, 16, 16, 16, 16, 16, 16, 3}, out, bus, (i, o) -> {
+            for (int b = 0; b < 16; b++) {
+                o[0][b] = select(i, b, i[8], 8);
+            }
+        }));
+        add(new ReferenceModel("DMux4Way", new String[]{"in", "sel"}, new int[]{1, 2},
+                new String[]{"a", "b", "c", "d"}, new int[]{1, 1, 1, 1}, (i, o) -> {
+            for (int k = 0; k < 4; k++) {
+                o[k][0] = i[0][0] & decode(i[1], k);
+            }
+        }));
+        add(new ReferenceModel("DMux8Way", new String[]{"in", "sel"}, new int[]{1, 3},
+                new String[]{"a", "b", "c", "d", "e", "f", "g", "h"}, new int[]{1, 1, 1, 1, 1, 1, 1, 1}, (i, o) -> {
+            for (int k = 0; k < 8; k++) {
+                o[k][0] = i[0][0] & decode(i[1], k);
+            }
+        }));
+
+        add(new ReferenceModel("HalfAdder", ab, two, new String[]{"sum", "carry"}, two, (i, o) -> {
+            o[0][0] = i[0][0] ^ i[1][0];
+            o[1][0] = i[0][0] & i[1][0];
+        }));
+        add(new ReferenceModel("FullAdder", new String[]{"a", "b", "c"}, new int[]{1, 1, 1},
+                new String[]{"sum", "carry"}, two, (i, o) -> {
+            long a = i[0][0];
+            long b = i[1][0];
+            long c = i[2][0];
+            o[0][0] = a ^ b ^ c;
+            o[1][0] = (a & b) | (c & (a ^ b));
+        }));
+        add(new ReferenceModel("Add16", ab, twoBuses, out, bus, (i, o) -> add(i[0], i[1], 0L, o[0])));
+        add(new ReferenceModel("Inc16", in, bus, out, bus, (i, o) -> add(i[0], new long[16], -1L, o[0])));
+        add(new ReferenceModel("ALU", new String[]{"x", "y", "zx", "nx", "zy", "ny", "f", "no"},
+                new int[]{16, 16, 1, 1, 1, 1, 1, 1}, new String[]{"out", "zr", "ng"}, new int[]{16, 1, 1}, (i, o) -> {
+            long zx = i[2][0];
+            long nx = i[3][0];
+            long zy = i[4][0];
+            long ny = i[5][0];
+            long f = i[6][0];
+            long no = i[7][0];
+            long[] x = new long[16];
+            long[] y = new long[16];
+            for (int b = 0; b < 16; b++) {
+                x[b] = (i[0][b] & ~zx) ^ nx;
+                y[b] = (i[1][b] & ~zy) ^ ny;
+            }
+            long[] sum = new long[16];
+            add(x, y, 0L, sum);
+            long any = 0;
+            for (int b = 0; b < 16; b++) {
+                o[0][b] = mux(x[b] & y[b], sum[b], f) ^ no;
+                any |= o[0][b];
+            }
+            o[1][0] = ~any;
+            o[2][0] = o[0][15];
+        }));
+    }
+
+    private ReferenceModels() {
+    }
+
+    /**
+     * @param chipName a chip name
+     * @return the reference model, or {@code null} if there is none for that chip
+     */
+    public static ReferenceModel get(String chipName) {
+        return MODELS.get(chipName);
+    }
+
+    /**
+     * @return the names of all chips that have a reference model
+     */
+    public static Iterable<String> chipNames() {
+        return MODELS.keySet();
+    }
+
+    private static void add(ReferenceModel model) {
+        MODELS.put(model.getChipName(), model);
+    }
+
+    private static long mux(long a, long b, long sel) {
+        return (a & ~sel) | (b & sel);
+    }
+
+    /**
+     * @return the lanes in which the selector bus equals {@code k}
+     */
+    private static long decode(long[] sel, int k) {
+        long lanes = -1L;
+        for (int b = 0; b < sel.length; b++) {
+            lanes &= ((k >> b) & 1) != 0 ? sel[b] : ~sel[b];
+        }
+        return lanes;
+    }
+
+    /**
+     * @return bit {@code b} of whichever of the first {@code ways} input buses the selector picks
+     */
+    private static long select(long[][] in, int b, long[] sel, int ways) {
+        long result = 0;
+        for (int k = 0; k < ways; k++) {
+            result |= in[k][b] & decode(sel, k);
+        }
+        return result;
+    }
+
+    /**
+     * 16-bit ripple addition of two plane buses plus a carry-in plane.
+     */
+    private static void add(long[] a, long[] b, long carry, long[] sum) {
+        for (int bit = 0; bit < 16; bit++) {
+            long half = a[bit] ^ b[bit];
+            sum[bit] = half ^ carry;
+            carry = (a[bit] & b[bit]) | (carry & half);
+        }
+    }
+}
@@ -0,0 +1,495 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiled gate-level simulator.
+ *
+ * <p>The netlist is levelised once, after which evaluating the chip is a
+ * single pass over three parallel {@code int} arrays: every gate's inputs are
+ * already up to date when it is reached. Behavioural built-in parts are
+ * evaluated at their place in the same pass.</p>
+ *
+ * <p>In {@link Mode#EVENT_DRIVEN event-driven} mode only the gates whose
+ * inputs changed are evaluated. Changes to input pins and DFF outputs mark
+ * the gates that read them as pending in a bit set indexed by schedule
+ * position; since every gate comes after its drivers in the schedule, a
+ * single forward scan of the set evaluates each affected gate once, after
+ * all of its inputs have settled, and marks its own readers if its output
+ * changed. Behavioural parts are always evaluated. In a clocked design most
+ * gates are idle most of the time (a RAM16K built from gates touches a few
+ * hundred of its four million Nands per cycle), so this is much cheaper than
+ * a full pass; when most gates do switch, the full pass is cheaper per gate.
+ * {@link Mode#AUTO} measures the fraction of gates that are evaluated and
+ * switches between the two.</p>
+ *
+ * <p>A clock cycle follows the course simulator: {@link #tick()} is the
+ * rising edge, where DFFs and built-ins sample their inputs, and
+ * {@link #tock()} is the falling edge, where the sampled values appear on
+ * the outputs.</p>
+ */
+public class Simulator {
+
+    /**
+     * How {@link #evaluate()} decides which gates to evaluate.
+     */
+    public enum Mode {
+        /** Evaluate every gate in schedule order. */
+        COMPILED,
+        /** Evaluate only gates whose inputs changed. */
+        EVENT_DRIVEN,
+        /** Switch between the two based on the observed activity. */
+        AUTO
+    }
+
+    /**
+     * In {@link Mode#AUTO}, the fraction of gates evaluated per event-driven
+     * pass above which a full pass is cheaper. An event costs ten to twenty
+     * compiled gate evaluations (the bit-set scan, the fanout marking and the
+     * scattered memory accesses).
+     */
+    private static final double SWITCH_ACTIVITY = 0.05;
+
+    /**
+     * In {@link Mode#AUTO}, the number of event-driven evaluations over which
+     * activity is averaged before deciding.
+     */
+    private static final int SAMPLE_WINDOW = 64;
+
+    /**
+     * In {@link Mode#AUTO}, the number of compiled evaluations after which
+     * the activity is sampled again.
+     */
+    private static final int RESAMPLE_INTERVAL = 1024;
+
+    private final Netlist netlist;
+    private final int[] values;
+
+    private final int gateCount;
+    private final int[] gateA;
+    private final int[] gateB;
+    private final int[] gateOut;
+
+    private final int[] dffIn;
+    private final int[] dffOut;
+    private final int[] dffNext;
+
+    private final BehaviouralModel[] models;
+    private final int[] modelPosition;
+    private final int[][] modelOutputs;
+    private final int[] modelOldOutputs;
+
+    private final int[] fanoutStart;
+    private final int[] fanout;
+    private final long[] pending;
+    private int pendingLow;
+    private int pendingHigh = -1;
+
+    private Mode mode = Mode.AUTO;
+    private boolean eventDriven = true;
+    private int windowEvaluations;
+    private long windowGates;
+    private long evaluatedGates;
+
+    private final List<Netlist.ShadowCheck> shadowChecks;
+    private int crossCheckInterval;
+
+    private long cycles;
+
+    /**
+     * Prepares a netlist for simulation, levelising it if needed. All DFFs
+     * and memories start cleared.
+     *
+     * @param netlist the flattened chip
+     */
+    public Simulator(Netlist netlist) {
+        netlist.levelise();
+        this.netlist = netlist;
+        this.values = new int[netlist.getNetCount()];
+        this.values[Netlist.TRUE] = 1;
+
+        this.gateCount = netlist.getGateCount();
+        this.gateA = netlist.getGateA();
+        this.gateB = netlist.getGateB();
+        this.gateOut = netlist.getGateOut();
+
+        this.dffIn = netlist.getDffIn();
+        this.dffOut = netlist.getDffOut();
+        this.dffNext = new int[netlist.getDffCount()];
+
+        List<Netlist.BuiltInPart> builtIns = netlist.getBuiltIns();
+        this.models = new BehaviouralModel[builtIns.size()];
+        for (int i = 0; i < models.length; i++) {
+            models[i] = builtIns.get(i).getChip().createModel(builtIns.get(i).getPins());
+        }
+        this.modelPosition = netlist.getBuiltInPosition();
+        this.modelOutputs = new int[models.length][];
+        int widest = 0;
+        for (int m = 0; m < models.length; m++) {
+            Netlist.BuiltInPart part = builtIns.get(m);
+            int[][] pins = part.getPins();
+            int firstOutput = part.getChip().getDefinition().getInputs().size();
+            modelOutputs[m] = new int[0];
+            for (int p = firstOutput; p < pins.length; p++) {
+                int[] outputs = Arrays.copyOf(modelOutputs[m], modelOutputs[m].length + pins[p].length);
+                System.arraycopy(pins[p], 0, outputs, modelOutputs[m].length, pins[p].length);
+                modelOutputs[m] = outputs;
+            }
+            widest = Math.max(widest, modelOutputs[m].length);
+        }
+        this.modelOldOutputs = new int[widest];
+        this.shadowChecks = netlist.getShadowChecks();
+
+        // Gates reading each net, compressed by net
+        this.fanoutStart = new int[netlist.getNetCount() + 1];
+        for (int g = 0; g < gateCount; g++) {
+            fanoutStart[gateA[g] + 1]++;
+            if (gateB[g] != gateA[g]) {
+                fanoutStart[gateB[g] + 1]++;
+            }
+        }
+        for (int n = 0; n < netlist.getNetCount(); n++) {
+            fanoutStart[n + 1] += fanoutStart[n];
+        }
+        this.fanout = new int[fanoutStart[netlist.getNetCount()]];
+        int[] fill = Arrays.copyOf(fanoutStart, netlist.getNetCount());
+        for (int g = 0; g < gateCount; g++) {
+            fanout[fill[gateA[g]]++] = g;
+            if (gateB[g] != gateA[g]) {
+                fanout[fill[gateB[g]]++] = g;
+            }
+        }
+        this.pending = new long[(gateCount + 63) >>> 6];
+
+        evaluateAll();
+    }
+
+    public Netlist getNetlist() {
+        return netlist;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Selects how gates are evaluated. The default is {@link Mode#AUTO}.
+     *
+     * @param mode the evaluation mode
+     */
+    public void setMode(Mode mode) {
+        this.mode = mode;
+        this.eventDriven = mode != Mode.COMPILED;
+        this.windowEvaluations = 0;
+        this.windowGates = 0;
+    }
+
+    /**
+     * @return {@code true} if the next evaluation will be event-driven
+     */
+    public boolean isEventDriven() {
+        return eventDriven;
+    }
+
+    /**
+     * @return the total number of gate evaluations so far
+     */
+    public long getEvaluatedGates() {
+        return evaluatedGates;
+    }
+
+    /**
+     * @return the number of completed clock cycles
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * Enables comparison of behavioural models against the gates they shadow
+     * (see {@link NetlistCompiler}) after every {@code interval}-th clock cycle.
+     *
+     * @param interval the sampling interval in cycles, or {@code 0} to disable checking
+     */
+    public void setCrossCheckInterval(int interval) {
+        this.crossCheckInterval = interval;
+    }
+
+    /**
+     * Compares every shadowing behavioural model with its gate-level part.
+     *
+     * @throws IllegalStateException describing the first part whose outputs differ
+     */
+    public void crossCheck() {
+        for (Netlist.ShadowCheck check : shadowChecks) {
+            int[] modelNets = check.getModelNets();
+            int[] gateNets = check.getGateNets();
+            for (int i = 0; i < modelNets.length; i++) {
+                if (values[modelNets[i]] != values[gateNets[i]]) {
+                    throw new IllegalStateException("Cross-check failed after cycle " + cycles + ": "
+                            + netlist.getInstancePath(check.getOwner()) + " behavioural model outputs "
+                            + bus(modelNets) + " but the gates output " + bus(gateNets));
+                }
+            }
+        }
+    }
+
+    private long bus(int[] nets) {
+        long result = 0;
+        for (int i = nets.length - 1; i >= 0; i--) {
+            result = (result << 1) | values[nets[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Sets a top-level input pin. The outputs are not updated until the next
+     * {@link #evaluate()}, {@link #tick()} or {@link #tock()}.
+     *
+     * @param pin   the pin name
+     * @param value the value, bit 0 first
+     * @throws IllegalArgumentException if there is no such input
+     */
+    public void setInput(String pin, long value) {
+        int[] nets = netlist.getInputs().get(pin);
+        if (nets == null) {
+            throw new IllegalArgumentException("No input pin " + pin + " in " + netlist.getChipName());
+        }
+        for (int i = 0; i < nets.length; i++) {
+            int bit = (int) (value >>> i) & 1;
+            if (values[nets[i]] != bit) {
+                values[nets[i]] = bit;
+                markReaders(nets[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads a top-level pin or internal wire of the top-level chip.
+     *
+     * @param pin the pin or wire name
+     * @return the unsigned value, bit 0 first
+     * @throws IllegalArgumentException if there is no such pin
+     */
+    public long getPin(String pin) {
+        int[] nets = netlist.getPin(pin);
+        if (nets == null) {
+            throw new IllegalArgumentException("No pin " + pin + " in " + netlist.getChipName());
+        }
+        return bus(nets);
+    }
+
+    /**
+     * Returns the value of every net. The array must not be modified, or the
+     * event-driven mode will not see the change.
+     *
+     * @return the current value of every net
+     */
+    public int[] getValues() {
+        return values;
+    }
+
+    /**
+     * Returns the model of the first built-in part of the given chip, e.g.
+     * {@code "ROM32K"} or {@code "DRegister"}.
+     *
+     * @param chipName the built-in chip name
+     * @return the model, or {@code null} if the netlist has no such part
+     */
+    public BehaviouralModel getModel(String chipName) {
+        for (BehaviouralModel model : models) {
+            if (model.getChipName().equals(chipName)) {
+                return model;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the models of all built-in parts, in schedule order
+     */
+    public BehaviouralModel[] getModels() {
+        return models;
+    }
+
+    /**
+     * Recomputes every combinational net from the inputs and the stored state.
+     */
+    public void evaluate() {
+        if (!eventDriven) {
+            evaluateAll();
+            if (mode == Mode.AUTO && ++windowEvaluations >= RESAMPLE_INTERVAL) {
+                // Sample the activity again with event-driven passes
+                eventDriven = true;
+                windowEvaluations = 0;
+                windowGates = 0;
+            }
+            return;
+        }
+        int evaluated = evaluateEvents();
+        if (mode == Mode.AUTO) {
+            windowGates += evaluated;
+            if (++windowEvaluations >= SAMPLE_WINDOW) {
+                eventDriven = windowGates <= SWITCH_ACTIVITY * gateCount * windowEvaluations;
+                windowEvaluations = 0;
+                windowGates = 0;
+            }
+        }
+    }
+
+    /**
+     * Evaluates every gate and built-in in schedule order.
+     */
+    private void evaluateAll() {
+        clearPending();
+        evaluatedGates += gateCount;
+        final int[] v = values;
+        final int[] a = gateA;
+        final int[] b = gateB;
+        final int[] out = gateOut;
+        int g = 0;
+        for (int m = 0; m < models.length; m++) {
+            int end = modelPosition[m];
+            for (; g < end; g++) {
+                v[out[g]] = 1 ^ (v[a[g]] & v[b[g]]);
+            }
+            models[m].evaluate(v);
+        }
+        for (; g < gateCount; g++) {
+            v[out[g]] = 1 ^ (v[a[g]] & v[b[g]]);
+        }
+    }
+
+    /**
+     * Evaluates the pending gates in schedule order, and every built-in.
+     *
+     * @return the number of gates evaluated
+     */
+    private int evaluateEvents() {
+        final int[] v = values;
+        final int[] a = gateA;
+        final int[] b = gateB;
+        final int[] out = gateOut;
+        int evaluated = 0;
+        int m = 0;
+        int g = nextPending(0);
+        while (true) {
+            if (m < models.length && modelPosition[m] <= g) {
+                int[] outputs = modelOutputs[m];
+                for (int i = 0; i < outputs.length; i++) {
+                    modelOldOutputs[i] = v[outputs[i]];
+                }
+                models[m].evaluate(v);
+                for (int i = 0; i < outputs.length; i++) {
+                    if (v[outputs[i]] != modelOldOutputs[i]) {
+                        markReaders(outputs[i]);
+                    }
+                }
+                g = nextPending(modelPosition[m]);
+                m++;
+                continue;
+            }
+            if (g >= gateCount) {
+                break;
+            }
+            pending[g >>> 6] &= ~(1L << g);
+            int value = 1 ^ (v[a[g]] & v[b[g]]);
+            if (v[out[g]] != value) {
+                v[out[g]] = value;
+                markReaders(out[g]);
+            }
+            evaluated++;
+            g = nextPending(g + 1);
+        }
+        pendingLow = pending.length;
+        pendingHigh = -1;
+        evaluatedGates += evaluated;
+        return evaluated;
+    }
+
+    /**
+     * Marks every gate that reads a net as pending.
+     */
+    private void markReaders(int net) {
+        int end = fanoutStart[net + 1];
+        for (int i = fanoutStart[net]; i < end; i++) {
+            int g = fanout[i];
+            int word = g >>> 6;
+            pending[word] |= 1L << g;
+            if (word < pendingLow) {
+                pendingLow = word;
+            }
+            if (word > pendingHigh) {
+                pendingHigh = word;
+            }
+        }
+    }
+
+    /**
+     * Finds the first pending gate at or after a schedule position.
+     *
+     * @return the gate index, or {@code gateCount} if there is none
+     */
+    private int nextPending(int from) {
+        int word = Math.max(from >>> 6, pendingLow);
+        if (word > pendingHigh) {
+            return gateCount;
+        }
+        long bits = word == from >>> 6 ? pending[word] & (-1L << from) : pending[word];
+        while (bits == 0) {
+            if (++word > pendingHigh) {
+                return gateCount;
+            }
+            bits = pending[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    private void clearPending() {
+        if (pendingLow <= pendingHigh) {
+            Arrays.fill(pending, pendingLow, pendingHigh + 1, 0L);
+        }
+        pendingLow = pending.length;
+        pendingHigh = -1;
+    }
+
+    /**
+     * Rising clock edge: evaluates the chip and samples every DFF and built-in.
+     */
+    public void tick() {
+        evaluate();
+        for (int d = 0; d < dffNext.length; d++) {
+            dffNext[d] = values[dffIn[d]];
+        }
+        for (BehaviouralModel model : models) {
+            model.tick(values);
+        }
+    }
+
+    /**
+     * Falling clock edge: commits the sampled state and re-evaluates the chip.
+     */
+    public void tock() {
+        for (int d = 0; d < dffNext.length; d++) {
+            if (values[dffOut[d]] != dffNext[d]) {
+                values[dffOut[d]] = dffNext[d];
+                markReaders(dffOut[d]);
+            }
+        }
+        for (BehaviouralModel model : models) {
+            model.tock();
+        }
+        cycles++;
+        evaluate();
+        if (crossCheckInterval > 0 && cycles % crossCheckInterval == 0) {
+            crossCheck();
+        }
+    }
+
+    /**
+     * Runs one full clock cycle.
+     */
+    public void step() {
+        tick();
+        tock();
+    }
+}
@@ -0,0 +1,620 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs {@code .tst} test scripts against the compiled simulator and compares
+ * their output with the {@code .cmp} files, all scripts in parallel.
+ *
+ * <p>Every script gets its own compiler and simulator, so scripts share
+ * nothing but the parsed HDL. Chips whose state a script reads or writes
+ * directly (e.g. {@code RAM16K[3]} or {@code PC[]} in the Computer tests)
+ * are simulated with their behavioural models.</p>
+ */
+public class TestRunner {
+    public enum Status {PASS, FAIL, ERROR, SKIP}
+
+    /**
+     * The outcome of one script.
+     */
+    public static class Result {
+        private final File script;
+        private final Status status;
+        private final String message;
+        private final long nanos;
+
+        public Result(File script, Status status, String message, long nanos) {
+            this.script = script;
+            this.status = status;
+            this.message = message;
+            this.nanos = nanos;
+        }
+
+        public File getScript() {
+            return script;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-5s %s (%d ms)%s", status, script.getPath(), nanos / 1_000_000,
+                    message == null ? "" : ": " + message);
+        }
+    }
+
+    /**
+     * One column of an {@code output-list}, e.g. {@code out%D1.6.1}.
+     */
+    private static class Column {
+        private String name;
+        private char format = 'B';
+        private int padLeft = 1;
+        private int width = -1;
+        private int padRight = 1;
+    }
+
+    private final Set<String> behavioural;
+    private final Map<File, ChipLibrary> libraries = new ConcurrentHashMap<>();
+    private boolean useCache = true;
+    private boolean optimize = true;
+
+    /**
+     * @param behavioural chips to always simulate with behavioural models
+     */
+    public TestRunner(Set<String> behavioural) {
+        this.behavioural = behavioural;
+    }
+
+    /**
+     * Selects whether compiled chips are shared through each library's
+     * default {@link NetlistCache}. On by default.
+     *
+     * @param useCache {@code false} to always compile from the HDL
+     */
+    public void setUseCache(boolean useCache) {
+        this.useCache = useCache;
+    }
+
+    /**
+     * Selects whether chips are simplified by the {@link NetlistOptimizer}. On by default.
+     *
+     * @param optimize {@code false} to simulate the netlists exactly as written
+     */
+    public void setOptimize(boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    /**
+     * Runs one script. Never throws: problems are reported in the result.
+     *
+     * @param file the {@code .tst} file
+     * @return the outcome
+     */
+    public Result run(File file) {
+        long start = System.nanoTime();
+        Execution execution = new Execution(file);
+        try {
+            List<TestScript.Command> commands = new TestScript(file).parse();
+            execution.execute(commands);
+            return new Result(file, execution.failure == null ? Status.PASS : Status.FAIL,
+                    execution.failure, System.nanoTime() - start);
+        } catch (UnsupportedOperationException e) {
+            return new Result(file, Status.SKIP, e.getMessage(), System.nanoTime() - start);
+        } catch (IOException | RuntimeException e) {
+            return new Result(file, Status.ERROR, e.getMessage(), System.nanoTime() - start);
+        } finally {
+            execution.close();
+        }
+    }
+
+    /**
+     * Runs many scripts on a thread pool.
+     *
+     * @param files   the scripts
+     * @param threads the number of worker threads
+     * @return the results, in the order of {@code files}
+     */
+    public List<Result> runAll(List<File> files, int threads) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (File file : files) {
+                futures.add(executor.submit(() -> run(file)));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Test run interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Test run failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * The state of one running script.
+     */
+    private class Execution {
+        private final File script;
+        private final File directory;
+        private Simulator simulator;
+        private Set<String> referencedModels;
+        private List<Column> columns = new ArrayList<>();
+        private PrintWriter output;
+        private List<String> compareLines;
+        private int outputLines;
+        private long time;
+        private boolean halfCycle;
+        private String failure;
+
+        Execution(File script) {
+            this.script = script;
+            this.directory = script.getAbsoluteFile().getParentFile();
+        }
+
+        void execute(List<TestScript.Command> commands) throws IOException {
+            if (referencedModels == null) {
+                referencedModels = new HashSet<>();
+                findReferencedModels(commands);
+            }
+            for (TestScript.Command command : commands) {
+                if (failure != null) {
+                    return;
+                }
+                try {
+                    executeCommand(command);
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    throw new IllegalArgumentException(script.getName() + ":" + command.getLine() + ": "
+                            + e.getMessage(), e);
+                }
+            }
+        }
+
+        private void executeCommand(TestScript.Command command) throws IOException {
+            List<String> words = command.getWords();
+            switch (command.getName()) {
+                case "load" -> load(argument(command, 1));
+                case "output-file" -> output = new PrintWriter(new FileWriter(new File(directory, argument(command, 1))));
+                case "compare-to" -> compareLines = Files.readAllLines(new File(directory, argument(command, 1)).toPath(),
+                        StandardCharsets.ISO_8859_1);
+                case "output-list" -> {
+                    columns = new ArrayList<>();
+                    for (String spec : words.subList(1, words.size())) {
+                        columns.add(parseColumn(spec));
+                    }
+                    writeHeader();
+                }
+                case "set" -> set(argument(command, 1), parseValue(argument(command, 2)));
+                case "eval" -> simulator().evaluate();
+                case "tick" -> {
+                    simulator().tick();
+                    halfCycle = true;
+                }
+                case "tock" -> {
+                    simulator().tock();
+                    halfCycle = false;
+                    time++;
+                }
+                case "output" -> writeValues();
+                case "echo", "clear-echo", "breakpoint", "clear-breakpoints" -> {
+                    // Interactive commands have no effect on the output
+                }
+                case "repeat" -> {
+                    if (words.size() < 2) {
+                        throw new IllegalArgumentException("repeat without a count never ends");
+                    }
+                    int count = Integer.parseInt(words.get(1));
+                    for (int i = 0; i < count && failure == null; i++) {
+                        execute(command.getBody());
+                    }
+                }
+                case "while" -> {
+                    while (failure == null && condition(words)) {
+                        execute(command.getBody());
+                    }
+                }
+                default -> {
+                    if (words.size() == 3 && words.get(1).equals("load")) {
+                        loadMemory(words.get(0), words.get(2));
+                    } else {
+                        throw new IllegalArgumentException("Unknown command " + command.getName());
+                    }
+                }
+            }
+        }
+
+        private void load(String fileName) {
+            if (!fileName.endsWith(".hdl")) {
+                throw new UnsupportedOperationException("not a hardware simulator script (loads " + fileName + ")");
+            }
+            ChipLibrary library = libraries.computeIfAbsent(directory,
+                    d -> ChipLibrary.forChip(new File(d, fileName)));
+            Set<String> models = new HashSet<>(behavioural);
+            models.addAll(referencedModels);
+            NetlistCompiler compiler = new NetlistCompiler(library, models, false);
+            compiler.setOptimize(optimize);
+            if (useCache) {
+                compiler.setCache(NetlistCache.forLibrary(library));
+            }
+            simulator = new Simulator(compiler.compile(fileName.substring(0, fileName.length() - 4)));
+            time = 0;
+            halfCycle = false;
+        }
+
+        private void loadMemory(String chipName, String fileName) throws IOException {
+            HackFile.load(new File(directory, fileName), model(chipName).getMemory());
+            simulator().evaluate();
+        }
+
+        private void set(String name, long value) {
+            int bracket = name.indexOf('[');
+            if (bracket < 0) {
+                simulator().setInput(name, value);
+                return;
+            }
+            model(name.substring(0, bracket)).getMemory()[index(name, bracket)] = (short) value;
+        }
+
+        private long get(String name) {
+            int bracket = name.indexOf('[');
+            if (bracket < 0) {
+                long value = simulator().getPin(name);
+                return simulator.getNetlist().getPin(name).length == 16 ? (short) value : value;
+            }
+            return model(name.substring(0, bracket)).getMemory()[index(name, bracket)];
+        }
+
+        private boolean condition(List<String> words) {
+            if (words.size() != 4) {
+                throw new IllegalArgumentException("Expected 'while <a> <op> <b>'");
+            }
+            long a = operand(words.get(1));
+            long b = operand(words.get(3));
+            return switch (words.get(2)) {
+                case "=" -> a == b;
+                case "<>" -> a != b;
+                case "<" -> a < b;
+                case ">" -> a > b;
+                case "<=" -> a <= b;
+                case ">=" -> a >= b;
+                default -> throw new IllegalArgumentException("Unknown operator " + words.get(2));
+            };
+        }
+
+        private long operand(String word) {
+            char first = word.charAt(0);
+            return first == '%' || first == '-' || Character.isDigit(first) ? parseValue(word) : get(word);
+        }
+
+        private BehaviouralModel model(String chipName) {
+            BehaviouralModel model = simulator().getModel(chipName);
+            if (model == null) {
+                throw new IllegalArgumentException(simulator.getNetlist().getChipName()
+                        + " has no built-in part " + chipName);
+            }
+            return model;
+        }
+
+        private Simulator simulator() {
+            if (simulator == null) {
+                throw new IllegalStateException("No chip loaded");
+            }
+            return simulator;
+        }
+
+        private void writeHeader() {
+            StringBuilder line = new StringBuilder("|");
+            for (Column column : columns) {
+                int total = column.padLeft + width(column) + column.padRight;
+                String name = column.name.length() > total ? column.name.substring(0, total) : column.name;
+                int left = (total - name.length()) / 2;
+                line.append(" ".repeat(left)).append(name).append(" ".repeat(total - name.length() - left)).append('|');
+            }
+            emit(line.toString());
+        }
+
+        private void writeValues() {
+            StringBuilder line = new StringBuilder("|");
+            for (Column column : columns) {
+                int width = width(column);
+                String text;
+                if (column.name.equals("time")) {
+                    text = time + (halfCycle ? "+" : "");
+                } else {
+                    long value = get(column.name);
+                    text = switch (column.format) {
+                        case 'B' -> zeroPad(Long.toBinaryString(value & mask(width)), width);
+                        case 'X' -> zeroPad(Long.toHexString(value & mask(4 * width)).toUpperCase(), width);
+                        case 'D' -> Long.toString(value);
+                        default -> Long.toString(value);
+                    };
+                }
+                if (text.length() < width) {
+                    text = column.format == 'S' ? text + " ".repeat(width - text.length())
+                            : " ".repeat(width - text.length()) + text;
+                }
+                line.append(" ".repeat(column.padLeft)).append(text).append(" ".repeat(column.padRight)).append('|');
+            }
+            emit(line.toString());
+        }
+
+        private int width(Column column) {
+            if (column.width >= 0) {
+                return column.width;
+            }
+            int[] nets = simulator().getNetlist().getPin(column.name);
+            return nets == null ? 1 : nets.length;
+        }
+
+        /**
+         * Writes one line of output and compares it with the same line of the compare file.
+         */
+        private void emit(String line) {
+            outputLines++;
+            if (output != null) {
+                output.println(line);
+            }
+            if (compareLines == null || failure != null) {
+                return;
+            }
+            if (outputLines > compareLines.size()) {
+                failure = "Comparison failure at line " + outputLines + ": the compare file has no more lines";
+                return;
+            }
+            String expected = compareLines.get(outputLines - 1).stripTrailing();
+            if (!matches(line.stripTrailing(), expected)) {
+                failure = "Comparison failure at line " + outputLines + ": expected " + expected + " but got " + line;
+            }
+        }
+
+        private void findReferencedModels(List<TestScript.Command> commands) {
+            for (TestScript.Command command : commands) {
+                if (command.getBody() != null) {
+                    findReferencedModels(command.getBody());
+                }
+                for (String word : command.getWords()) {
+                    int bracket = word.indexOf('[');
+                    if (bracket > 0) {
+                        BuiltInChip chip = BuiltInChip.forName(word.substring(0, bracket));
+                        if (chip != null && chip.isSubstitute()) {
+                            referencedModels.add(chip.getChipName());
+                        }
+                    }
+                }
+            }
+        }
+
+        void close() {
+            if (output != null) {
+                output.close();
+            }
+        }
+    }
+
+    private static String argument(TestScript.Command command, int index) {
+        if (command.getWords().size() <= index) {
+            throw new IllegalArgumentException(command.getName() + " is missing an argument");
+        }
+        return command.getWords().get(index);
+    }
+
+    private static int index(String name, int bracket) {
+        String index = name.substring(bracket + 1, name.length() - 1);
+        return index.isEmpty() ? 0 : Integer.parseInt(index);
+    }
+
+    /**
+     * Parses {@code name}, {@code name%B}, or {@code name%B1.16.1}.
+     */
+    private static Column parseColumn(String spec) {
+        Column column = new Column();
+        int percent = spec.indexOf('%');
+        if (percent < 0) {
+            column.name = spec;
+            return column;
+        }
+        column.name = spec.substring(0, percent);
+        column.format = Character.toUpperCase(spec.charAt(percent + 1));
+        String sizes = spec.substring(percent + 2);
+        if (!sizes.isEmpty()) {
+            String[] parts = sizes.split("\\.");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Invalid output format " + spec);
+            }
+            column.padLeft = Integer.parseInt(parts[0]);
+            column.width = Integer.parseInt(parts[1]);
+            column.padRight = Integer.parseInt(parts[2]);
+        }
+        return column;
+    }
+
+    /**
+     * Parses {@code %B0101}, {@code %XFF}, {@code %D-3} or a plain decimal.
+     */
+    private static long parseValue(String text) {
+        if (text.startsWith("%")) {
+            String digits = text.substring(2);
+            return switch (Character.toUpperCase(text.charAt(1))) {
+                case 'B' -> Long.parseLong(digits, 2);
+                case 'X' -> Long.parseLong(digits, 16);
+                case 'D' -> Long.parseLong(digits);
+                default -> throw new IllegalArgumentException("Invalid value " + text);
+            };
+        }
+        return Long.parseLong(text);
+    }
+
+    private static long mask(int bits) {
+        return bits >= 64 ? -1L : (1L << bits) - 1;
+    }
+
+    private static String zeroPad(String text, int width) {
+        return text.length() >= width ? text : "0".repeat(width - text.length()) + text;
+    }
+
+    /**
+     * Compares an output line with a compare-file line, in which {@code *} matches any character.
+     */
+    private static boolean matches(String actual, String expected) {
+        if (actual.length() != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < actual.length(); i++) {
+            if (expected.charAt(i) != '*' && expected.charAt(i) != actual.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds all {@code .tst} files under the given files and directories.
+     */
+    private static void collect(File file, List<File> scripts) {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File child : files) {
+                    collect(child, scripts);
+                }
+            }
+        } else if (file.getName().endsWith(".tst")) {
+            scripts.add(file);
+        }
+    }
+
+    /**
+     * Runs every test script found under the arguments and prints one line
+     * per script followed by a summary.
+     *
+     * <p>Usage: {@code java TestRunner [-threads <n>] [-behavioural <chips>] [-junit <report.xml>]
+     * [-nocache] [-noopt] <file-or-directory>...}</p>
+     *
+     * <p>Exits with status 1 if any script failed or could not be run, so the
+     * runner can gate a CI job; {@code -junit} additionally writes a JUnit XML
+     * report for CI dashboards.</p>
+     *
+     * @param args Command-line arguments
+     */
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Set<String> behavioural = new HashSet<>();
+        File junit = null;
+        boolean useCache = true;
+        boolean optimize = true;
+        List<File> scripts = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-threads" -> threads = Integer.parseInt(args[++i]);
+                case "-behavioural" -> {
+                    String chips = args[++i];
+                    behavioural.addAll(chips.equals("all")
+                            ? NetlistCompiler.substitutableChips()
+                            : Arrays.asList(chips.split(",")));
+                }
+                case "-junit" -> junit = new File(args[++i]);
+                case "-nocache" -> useCache = false;
+                case "-noopt" -> optimize = false;
+                default -> collect(new File(args[i]), scripts);
+            }
+        }
+        if (scripts.isEmpty()) {
+            System.out.println("Usage: java TestRunner [-threads <n>] [-behavioural <chips>] [-junit <report.xml>]"
+                    + " [-nocache] [-noopt] <file-or-directory>...");
+            return;
+        }
+
+        long start = System.nanoTime();
+        TestRunner runner = new TestRunner(behavioural);
+        runner.setUseCache(useCache);
+        runner.setOptimize(optimize);
+        List<Result> results = runner.runAll(scripts, threads);
+        long elapsed = System.nanoTime() - start;
+
+        int[] counts = new int[Status.values().length];
+        for (Result result : results) {
+            System.out.println(result);
+            counts[result.getStatus().ordinal()]++;
+        }
+        System.out.printf("%d scripts: %d passed, %d failed, %d errors, %d skipped in %d ms%n", results.size(),
+                counts[Status.PASS.ordinal()], counts[Status.FAIL.ordinal()], counts[Status.ERROR.ordinal()],
+                counts[Status.SKIP.ordinal()], elapsed / 1_000_000);
+
+        if (junit != null) {
+            try {
+                writeJUnit(junit, results, elapsed);
+            } catch (IOException e) {
+                System.err.println("Error writing " + junit + ": " + e.getMessage());
+            }
+        }
+        if (counts[Status.FAIL.ordinal()] + counts[Status.ERROR.ordinal()] > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void writeJUnit(File file, List<Result> results, long elapsed) throws IOException {
+        int failures = 0;
+        int errors = 0;
+        int skipped = 0;
+        for (Result result : results) {
+            failures += result.getStatus() == Status.FAIL ? 1 : 0;
+            errors += result.getStatus() == Status.ERROR ? 1 : 0;
+            skipped += result.getStatus() == Status.SKIP ? 1 : 0;
+        }
+        try (PrintWriter pw = new PrintWriter(new FileWriter(file))) {
+            pw.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            pw.printf("<testsuite name=\"hdl\" tests=\"%d\" failures=\"%d\" errors=\"%d\" skipped=\"%d\" time=\"%.3f\">%n",
+                    results.size(), failures, errors, skipped, elapsed / 1e9);
+            for (Result result : results) {
+                File parent = result.getScript().getAbsoluteFile().getParentFile();
+                pw.printf("  <testcase classname=\"%s\" name=\"%s\" time=\"%.3f\"", xml(parent.getName()),
+                        xml(result.getScript().getName()), result.getNanos() / 1e9);
+                switch (result.getStatus()) {
+                    case PASS -> pw.println("/>");
+                    case FAIL -> pw.printf(">%n    <failure message=\"%s\"/>%n  </testcase>%n", xml(result.getMessage()));
+                    case ERROR -> pw.printf(">%n    <error message=\"%s\"/>%n  </testcase>%n", xml(result.getMessage()));
+                    case SKIP -> pw.printf(">%n    <skipped message=\"%s\"/>%n  </testcase>%n", xml(result.getMessage()));
+                }
+            }
+            pw.println("</testsuite>");
+        }
+    }
+
+    private static String xml(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,177 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the nand2tetris test script format ({@code .tst}).
+ *
+ * <p>A script is a sequence of commands separated by {@code ,} or {@code ;}.
+ * Supported commands are {@code load}, {@code output-file},
+ * {@code compare-to}, {@code output-list}, {@code set}, {@code eval},
+ * {@code tick}, {@code tock}, {@code output}, {@code echo},
+ * {@code clear-echo}, {@code repeat n { ... }}, {@code while a op b { ... }}
+ * and {@code <chip> load <file>} for loading a ROM.</p>
+ */
+public class TestScript {
+
+    /**
+     * One command: its words (e.g. {@code ["set", "a", "%B0101"]}) and, for
+     * {@code repeat} and {@code while}, the commands of its body.
+     */
+    public static class Command {
+        private final List<String> words;
+        private final List<Command> body;
+        private final int line;
+
+        public Command(List<String> words, List<Command> body, int line) {
+            this.words = words;
+            this.body = body;
+            this.line = line;
+        }
+
+        public String getName() {
+            return words.get(0);
+        }
+
+        public List<String> getWords() {
+            return words;
+        }
+
+        /**
+         * @return the body of a {@code repeat} or {@code while}, otherwise {@code null}
+         */
+        public List<Command> getBody() {
+            return body;
+        }
+
+        public int getLine() {
+            return line;
+        }
+    }
+
+    private final File file;
+    private final List<String> tokens = new ArrayList<>();
+    private final List<Integer> lines = new ArrayList<>();
+    private int pointer;
+
+    /**
+     * Reads and tokenizes a test script.
+     *
+     * @param file the {@code .tst} file
+     * @throws IOException if the file cannot be read
+     */
+    public TestScript(File file) throws IOException {
+        this.file = file;
+        tokenize(new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1));
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Parses the whole script.
+     *
+     * @return the top-level commands
+     * @throws IllegalArgumentException if the script is malformed
+     */
+    public List<Command> parse() {
+        pointer = 0;
+        List<Command> commands = parseBlock();
+        if (pointer < tokens.size()) {
+            throw error("Unexpected '" + tokens.get(pointer) + "'");
+        }
+        return commands;
+    }
+
+    private List<Command> parseBlock() {
+        List<Command> commands = new ArrayList<>();
+        while (pointer < tokens.size() && !tokens.get(pointer).equals("}")) {
+            String token = tokens.get(pointer);
+            if (token.equals(",") || token.equals(";")) {
+                pointer++;
+                continue;
+            }
+            int line = lines.get(pointer);
+            List<String> words = new ArrayList<>();
+            while (pointer < tokens.size() && !isSeparator(tokens.get(pointer))) {
+                words.add(tokens.get(pointer++));
+            }
+            List<Command> body = null;
+            if (pointer < tokens.size() && tokens.get(pointer).equals("{")) {
+                if (!words.get(0).equals("repeat") && !words.get(0).equals("while")) {
+                    throw error("Unexpected '{' after " + words.get(0));
+                }
+                pointer++;
+                body = parseBlock();
+                if (pointer >= tokens.size()) {
+                    throw error("Missing '}'");
+                }
+                pointer++;
+            }
+            if (words.isEmpty()) {
+                throw error("Unexpected '" + tokens.get(pointer) + "'");
+            }
+            commands.add(new Command(words, body, line));
+        }
+        return commands;
+    }
+
+    private static boolean isSeparator(String token) {
+        return token.equals(",") || token.equals(";") || token.equals("{") || token.equals("}");
+    }
+
+    private void tokenize(String text) {
+        int line = 1;
+        int i = 0;
+        int n = text.length();
+        while (i < n) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                line++;
+                i++;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+            } else if (text.startsWith("//", i)) {
+                while (i < n && text.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (text.startsWith("/*", i)) {
+                int end = text.indexOf("*/", i + 2);
+                end = end < 0 ? n : end + 2;
+                for (int k = i; k < end; k++) {
+                    if (text.charAt(k) == '\n') {
+                        line++;
+                    }
+                }
+                i = end;
+            } else if (c == '"') {
+                int end = text.indexOf('"', i + 1);
+                end = end < 0 ? n : end + 1;
+                tokens.add(text.substring(i, end));
+                lines.add(line);
+                i = end;
+            } else if (isSeparator(String.valueOf(c))) {
+                tokens.add(String.valueOf(c));
+                lines.add(line);
+                i++;
+            } else {
+                int start = i;
+                while (i < n && !Character.isWhitespace(text.charAt(i)) && !isSeparator(String.valueOf(text.charAt(i)))
+                        && !text.startsWith("//", i)) {
+                    i++;
+                }
+                tokens.add(text.substring(start, i));
+                lines.add(line);
+            }
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        int line = lines.isEmpty() ? 0 : lines.get(Math.min(pointer, lines.size() - 1));
+        return new IllegalArgumentException(file.getName() + ":" + line + ": " + message);
+    }
+}